@@ -0,0 +1,154 @@
+/*
+ * Bench Device Source
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.bench;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiDevice.Info;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Transmitter;
+
+import org.andrewkilpatrick.amidij.alsaMidi.MidiDeviceRegistry;
+
+/**
+ * A made up set of JavaSound devices. Looking up a device searches every
+ * device info the way a MidiDeviceProvider does, so the cost of looking
+ * up handles on every scan shows up like it does with MidiSystem.
+ */
+public class BenchDeviceSource implements MidiDeviceRegistry.DeviceSource {
+    Info infos[];
+    MidiDevice devices[];
+    
+    /**
+     * Creates a BenchDeviceSource with one input and output per device,
+     * named like ALSA names USB interfaces.
+     * 
+     * @param count the number of devices
+     */
+    public BenchDeviceSource(int count) {
+        infos = new Info[count];
+        devices = new MidiDevice[count];
+        for(int i = 0; i < count; i ++) {
+            infos[i] = new BenchInfo("USB MIDI " + i + " [hw:" + (i + 1) + ",0,0]");
+            devices[i] = new BenchDevice(infos[i]);
+        }
+    }
+    
+    /**
+     * Gets the device names.
+     * 
+     * @return the device names
+     */
+    public String[] getNames() {
+        String names[] = new String[infos.length];
+        for(int i = 0; i < infos.length; i ++) {
+            names[i] = infos[i].getName();
+        }
+        return names;
+    }
+    
+    @Override
+    public Info[] getDeviceInfo() {
+        return infos.clone();
+    }
+    
+    @Override
+    public MidiDevice getDevice(Info info) throws MidiUnavailableException {
+        for(int i = 0; i < infos.length; i ++) {
+            if(infos[i].equals(info)) {
+                return devices[i];
+            }
+        }
+        throw new IllegalArgumentException("device not found: " + info);
+    }
+    
+    static class BenchInfo extends Info {
+        BenchInfo(String name) {
+            super(name, "AMidiJ", "benchmark device", "1.0");
+        }
+    }
+    
+    static class BenchDevice implements MidiDevice {
+        final Info info;
+        
+        BenchDevice(Info info) {
+            this.info = info;
+        }
+
+        @Override
+        public Info getDeviceInfo() {
+            return info;
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return false;
+        }
+
+        @Override
+        public long getMicrosecondPosition() {
+            return -1;
+        }
+
+        @Override
+        public int getMaxReceivers() {
+            return -1;
+        }
+
+        @Override
+        public int getMaxTransmitters() {
+            return -1;
+        }
+
+        @Override
+        public Receiver getReceiver() throws MidiUnavailableException {
+            throw new MidiUnavailableException("benchmark device");
+        }
+
+        @Override
+        public List<Receiver> getReceivers() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Transmitter getTransmitter() throws MidiUnavailableException {
+            throw new MidiUnavailableException("benchmark device");
+        }
+
+        @Override
+        public List<Transmitter> getTransmitters() {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Device Scan Benchmark
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.bench;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiDevice.Info;
+import javax.sound.midi.MidiUnavailableException;
+
+import org.andrewkilpatrick.amidij.alsaMidi.DeviceScan;
+import org.andrewkilpatrick.amidij.alsaMidi.MidiDeviceRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares a scan and a port lookup through MidiDeviceRegistry with the
+ * way SystemMidiInterface does them against MidiSystem, using a made up
+ * set of devices.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DeviceScanBenchmark {
+    @Param({ "16", "256", "1024" })
+    int devices;
+    BenchDeviceSource source;
+    MidiDeviceRegistry registry;
+    String names[];
+    int index;
+    
+    @Setup
+    public void setup() throws MidiUnavailableException {
+        source = new BenchDeviceSource(devices);
+        registry = new MidiDeviceRegistry(source);
+        registry.refresh();
+        names = source.getNames();
+        index = 0;
+    }
+    
+    @Benchmark
+    public DeviceScan registryScan() throws MidiUnavailableException {
+        return registry.refresh();
+    }
+    
+    @Benchmark
+    public void systemScan(Blackhole bh) throws MidiUnavailableException {
+        bh.consume(getNames(true));
+        bh.consume(getNames(false));
+    }
+    
+    @Benchmark
+    public MidiDevice registryFind() throws MidiUnavailableException {
+        return registry.findOutput(names[index ++ % names.length]);
+    }
+    
+    @Benchmark
+    public MidiDevice systemFind() throws MidiUnavailableException {
+        String name = names[index ++ % names.length];
+        Info infos[] = source.getDeviceInfo();
+        int found = -1;
+        for(int i = 0; i < infos.length; i ++) {
+            if(infos[i].getName().toLowerCase().trim().startsWith(name.toLowerCase().trim())
+                    && source.getDevice(infos[i]).getMaxReceivers() != 0) {
+                found = i;
+            }
+        }
+        return found < 0 ? null : source.getDevice(infos[found]);
+    }
+    
+    /**
+     * Lists names the way SystemMidiInterface.getInputDeviceNames() and
+     * getOutputDeviceNames() do.
+     */
+    private LinkedList<String> getNames(boolean inputs) throws MidiUnavailableException {
+        LinkedList<String> result = new LinkedList<>();
+        Info infos[] = source.getDeviceInfo();
+        for(int i = 0; i < infos.length; i ++) {
+            MidiDevice dev = source.getDevice(infos[i]);
+            if((inputs ? dev.getMaxTransmitters() : dev.getMaxReceivers()) != 0) {
+                result.addLast(infos[i].getName());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * MIDI Event Ring Benchmark
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.andrewkilpatrick.amidij.util.MidiEventRing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the event ring used between the system MIDI threads and the
+ * process loop, on one thread and with a producer and consumer thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class MidiEventRingBenchmark {
+    MidiEventRing ring;
+    byte sysex[];
+    byte dest[];
+    
+    @Setup
+    public void setup() {
+        ring = new MidiEventRing(1024, 4096);
+        sysex = new byte[64];
+        sysex[0] = (byte)0xf0;
+        sysex[sysex.length - 1] = (byte)0xf7;
+        dest = new byte[4096];
+    }
+    
+    @Benchmark
+    @Group("shortRoundTrip")
+    public int shortRoundTrip() {
+        ring.offerShort(0, 0x90, 60, 100, 3);
+        return ring.poll(dest);
+    }
+    
+    @Benchmark
+    @Group("sysexRoundTrip")
+    public int sysexRoundTrip() {
+        ring.offer(0, sysex, 0, sysex.length);
+        return ring.poll(dest);
+    }
+    
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public boolean produce() {
+        return ring.offerShort(0, 0xb0, 1, 64, 3);
+    }
+    
+    /**
+     * Consumes on its own thread. This uses its own buffer since dest is
+     * not shared between threads.
+     */
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public int consume(ConsumerBuffer buffer) {
+        return ring.poll(buffer.data);
+    }
+    
+    /**
+     * The consumer thread's buffer.
+     */
+    @State(Scope.Thread)
+    public static class ConsumerBuffer {
+        byte data[] = new byte[4096];
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * MIDI Message Utils Benchmark
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.andrewkilpatrick.amidij.util.MidiCoalescer;
+import org.andrewkilpatrick.amidij.util.MidiMessageUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the per-event message helpers used on the send path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MidiMessageUtilsBenchmark {
+    static final int STATUS[] = { 0x90, 0xb0, 0xb0, 0xe0, 0xd0, 0x80, 0xf8, 0xf0 };
+    static final int DATA1[] = { 60, 1, 64, 0, 40, 60, 0, 0 };
+    int index;
+    int runningStatus;
+    MidiCoalescer coalescer;
+    
+    @Setup
+    public void setup() {
+        index = 0;
+        runningStatus = 0;
+        coalescer = new MidiCoalescer(Long.MAX_VALUE);
+    }
+    
+    @Benchmark
+    public int wireLength() {
+        int i = index ++ & 7;
+        int length = MidiMessageUtils.getWireLength(STATUS[i], 3, runningStatus);
+        runningStatus = MidiMessageUtils.getRunningStatus(STATUS[i], runningStatus);
+        return length;
+    }
+    
+    @Benchmark
+    public void classify(Blackhole bh) {
+        int i = index ++ & 7;
+        bh.consume(MidiMessageUtils.isPriorityMessage(STATUS[i], DATA1[i]));
+        bh.consume(MidiMessageUtils.isSheddableStatus(STATUS[i]));
+    }
+    
+    @Benchmark
+    public boolean coalesce() {
+        int i = index ++;
+        // controller 1 on all 16 channels so the table is reused
+        return coalescer.offer(i, 0xb0 | (i & 0x0f), 1, i & 0x7f);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Routing Loop Benchmark
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.ShortMessage;
+
+import org.andrewkilpatrick.amidij.DeviceClock;
+import org.andrewkilpatrick.amidij.JackToSys;
+import org.andrewkilpatrick.amidij.OverloadPolicy;
+import org.andrewkilpatrick.amidij.ProcessLoop;
+import org.andrewkilpatrick.amidij.ProcessStats;
+import org.andrewkilpatrick.amidij.RateShaper;
+import org.andrewkilpatrick.amidij.RoutingTable;
+import org.andrewkilpatrick.amidij.SysToJackQueue;
+import org.andrewkilpatrick.amidij.alsaMidi.FakeSystemMidiBackend;
+import org.andrewkilpatrick.amidij.alsaMidi.SystemMidiInterface;
+import org.andrewkilpatrick.amidij.jack.FakeMidiPortBuffer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs the process loop with a number of ports in each direction and a
+ * number of events per port per cycle, against in-memory port buffers and
+ * devices.
+ * 
+ * Each operation is one cycle. The events counter gives the cost per
+ * event, sample mode gives the worst case cycle and -prof gc gives the
+ * allocation rate, which should be zero. The to Jack queues are filled
+ * before each cycle outside of the measurement.
+ */
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RoutingLoopBenchmark {
+    public static final int BUFFER_SIZE = 256;  // frames
+    public static final int SAMPLE_RATE = 48000;
+    @Param({ "1", "8", "32" })
+    int ports;
+    @Param({ "1", "16", "64" })
+    int eventsPerPort;
+    ProcessLoop loop;
+    SysToJackQueue queues[];
+    FakeMidiPortBuffer inBuffers[];
+    FakeMidiPortBuffer outBuffers[];
+    ShortMessage messages[];
+    long frameCount;
+    
+    /**
+     * Counts the events moved so results can be read per event.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Events {
+        public long events;
+    }
+    
+    @Setup(Level.Trial)
+    public void setup() throws MidiUnavailableException, InvalidMidiDataException {
+        RoutingTable routing = new RoutingTable();
+        loop = new ProcessLoop(routing, new ProcessStats(), 0, 0, OverloadPolicy.DEFER);
+        queues = new SysToJackQueue[ports];
+        inBuffers = new FakeMidiPortBuffer[ports];
+        outBuffers = new FakeMidiPortBuffer[ports];
+        ArrayList<SysToJackQueue> toJack = new ArrayList<>();
+        ArrayList<JackToSys> fromJack = new ArrayList<>();
+        FakeSystemMidiBackend devices = new FakeSystemMidiBackend();
+        // a mix of the traffic a controller keyboard sends
+        messages = new ShortMessage[] {
+            new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100),
+            new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 1, 64),
+            new ShortMessage(ShortMessage.PITCH_BEND, 0, 0, 64),
+            new ShortMessage(ShortMessage.CHANNEL_PRESSURE, 0, 40, 0),
+            new ShortMessage(ShortMessage.NOTE_OFF, 0, 60, 0),
+            new ShortMessage(ShortMessage.TIMING_CLOCK)
+        };
+        for(int i = 0; i < ports; i ++) {
+            DeviceClock clock = new DeviceClock("bench " + i, () -> -1, null);
+            clock.configure(SAMPLE_RATE, 0.1, 0.05);
+            clock.update(0, 0, SAMPLE_RATE);
+            devices.addDevice("bench " + i);
+            SystemMidiInterface midi = devices.createInterface();
+            midi.openMIDIOutputPort("bench " + i);
+            outBuffers[i] = new FakeMidiPortBuffer(BUFFER_SIZE, eventsPerPort);
+            queues[i] = new SysToJackQueue(midi, outBuffers[i],
+                clock, BUFFER_SIZE, SysToJackQueue.DEFAULT_SYSEX_BUFFER_SIZE);
+            toJack.add(queues[i]);
+            // Jack input buffers are only read so they are loaded once
+            inBuffers[i] = new FakeMidiPortBuffer(BUFFER_SIZE, eventsPerPort);
+            for(int j = 0; j < eventsPerPort; j ++) {
+                ShortMessage msg = messages[j % messages.length];
+                inBuffers[i].addEvent(j * BUFFER_SIZE / eventsPerPort, msg.getMessage(),
+                    msg.getLength());
+            }
+            fromJack.add(new JackToSys(midi, inBuffers[i], clock,
+                BUFFER_SIZE, SysToJackQueue.DEFAULT_SYSEX_BUFFER_SIZE, false, 0, 0,
+                RateShaper.DEFAULT_BACKLOG, OverloadPolicy.DEFER));
+        }
+        routing.publish(toJack, fromJack);
+        frameCount = 0;
+    }
+    
+    @Setup(Level.Invocation)
+    public void fillQueues() {
+        for(int i = 0; i < ports; i ++) {
+            for(int j = 0; j < eventsPerPort; j ++) {
+                queues[i].addMessage(messages[j % messages.length], frameCount + j);
+            }
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void check() {
+        for(int i = 0; i < ports; i ++) {
+            if(outBuffers[i].getWrittenEvents() == 0 || queues[i].getDroppedEvents() > 0) {
+                throw new IllegalStateException("events were not routed on port " + i);
+            }
+        }
+    }
+    
+    @Benchmark
+    public void cycle(Events counter) {
+        loop.process(frameCount, BUFFER_SIZE);
+        frameCount += BUFFER_SIZE;
+        counter.events += ports * eventsPerPort * 2;
+    }
+}
@@ -25,48 +25,97 @@ package org.andrewkilpatrick.amidij;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiMessage;
 import javax.sound.midi.MidiUnavailableException;
-import javax.sound.midi.ShortMessage;
 
+import org.andrewkilpatrick.amidij.alsaMidi.DeviceScan;
+import org.andrewkilpatrick.amidij.alsaMidi.FakeSystemMidiBackend;
+import org.andrewkilpatrick.amidij.alsaMidi.JavaSoundMidiBackend;
+import org.andrewkilpatrick.amidij.alsaMidi.ProcAsoundMidiBackend;
+import org.andrewkilpatrick.amidij.alsaMidi.SystemMidiBackend;
 import org.andrewkilpatrick.amidij.alsaMidi.SystemMidiInterface;
 import org.andrewkilpatrick.amidij.alsaMidi.SystemMidiReceiveHandler;
+import org.andrewkilpatrick.amidij.jack.FakeJackServer;
+import org.andrewkilpatrick.amidij.jack.JackBackend;
 import org.andrewkilpatrick.amidij.jack.JackClientAdapter;
 import org.andrewkilpatrick.amidij.jack.JackClientAdapterException;
 import org.andrewkilpatrick.amidij.jack.JackClientListener;
 import org.andrewkilpatrick.amidij.jack.JackPatchLink;
-import org.andrewkilpatrick.amidij.util.StringUtils;
+import org.andrewkilpatrick.amidij.jack.JackPortName;
+import org.andrewkilpatrick.amidij.jack.MidiPortBuffer;
+import org.andrewkilpatrick.amidij.util.MidiMessageUtils;
+import org.andrewkilpatrick.amidij.util.MidiProtocol;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jaudiolibs.jnajack.JackClient;
 import org.jaudiolibs.jnajack.JackException;
-import org.jaudiolibs.jnajack.JackMidi;
-import org.jaudiolibs.jnajack.JackPort;
 
 public class AMidiJ implements JackClientListener, SystemMidiReceiveHandler {
     Logger log;
-    JackClientAdapter jackClient;
+    JackBackend jackClient;
+    SystemMidiBackend sysMidi;
     public static String clientName = "amj";
     long lastJackFrameCount = 0;
-    // known / registered system ports
-    HashMap<String, JackPort> sysAvailableInputs;  // alias port name, registered JackPort
-    HashMap<String, JackPort> sysAvailableOutputs;  // alias port name, registered JackPort
-    HashMap<String, SystemMidiInterface> sysOpenInputs;  // raw port name, MIDI handler
-    HashMap<String, SystemMidiInterface> sysOpenOutputs;  // raw port name, MIDI handler
-    // routing
-    HashMap<String, SysToJackQueue> sysToJackQueues;  // system port name, SysToJackQueue
-    HashMap<String, JackToSys> jackToSysMap;  // jack port name, JackToSys instance
+    // known system ports and their routes - guarded by lock, the process loop only sees routing
+    Object lock = new Object();
+    PortCatalog inPorts;  // system inputs, registered as Jack out ports
+    PortCatalog outPorts;  // system outputs, registered as Jack in ports
+    HashMap<String, Integer> lingerOverrides;  // alias port name, linger time
+    boolean rescanPending = false;  // check every port on the next scan even if no device changed
+    long scanCount = 0;  // scans that checked the ports
+    RoutingTable routing;
+    ClockCorrelator clocks;
+    ProcessStats stats;
+    ProcessLoop processLoop;
+    MetricsRegistry metrics;
+    MetricsHttpServer metricsServer;  // null if not serving
+    DeviceOpener opener;
+    volatile HotplugWatcher hotplug;  // null if polling only
+    HotplugHysteresis inHolds;  // alias port name
+    HotplugHysteresis outHolds;  // alias port name
     SystemPortAliases inPortAliases;
     SystemPortAliases outPortAliases;
+    String portAliasFile = null;  // reloaded when it changes - null if none
+    AliasFileWatcher aliasWatcher;  // null if not watching
+    boolean outputThread = false;  // send to system ports from a separate thread
+    int sysexBufferSize = SysToJackQueue.DEFAULT_SYSEX_BUFFER_SIZE;  // bytes
+    int coalesceMillis = 0;  // hold continuous data sent to system ports - 0 is off
+    int outputRate = 0;  // wire bytes per second to pace system ports to - 0 is off
+    int outputBacklog = RateShaper.DEFAULT_BACKLOG;  // events per lane while pacing
+    // process loop budget - 0 means only limited by the Jack buffer
+    int portBudget = 0;  // events per port per cycle
+    int cycleBudget = 0;  // events for all ports per cycle
+    OverloadPolicy overloadPolicy = OverloadPolicy.DEFER;
+    long reportedBudgetExhausted = 0;
+    long reportedClearErrors = 0;
+    volatile boolean running = true;  // cleared by shutdown()
+    // run on in-memory backends instead of Jack and JavaSound - 0 is off
+    int simulateDevices = 0;
+    int simulateRate = 0;  // events per second per port
+    int simulateChurn = 0;  // time between simulated re-patches - 0 is off
+    int metricsPort = 0;  // loopback port to serve metrics on - 0 is off
+    String hotplugDir = HotplugWatcher.DEFAULT_DIR;  // empty to poll only
+    String procAsoundDir = null;  // list devices from procfs instead of JavaSound - null is off
+    int fallbackScanMillis = FALLBACK_SCAN_MILLIS;  // time between scans when watching
+    int holdMillis = HotplugHysteresis.DEFAULT_HOLD_MILLIS;  // keep the Jack port of a device that went away
+    int settleMillis = HotplugHysteresis.DEFAULT_SETTLE_MILLIS;  // wait before using a device that came back
+    int lingerMillis = LINGER_MILLIS;  // keep an unused system port open for reconnects - 0 closes right away
+    public static final int REPORT_MILLIS = 10000;  // time between throughput reports
+    public static final int SCAN_MILLIS = 500;  // time between scans without a hotplug watcher
+    public static final int FALLBACK_SCAN_MILLIS = 5000;  // time between scans with a hotplug watcher
+    public static final int RECLAIM_MILLIS = 100;  // time between checks while routes are retiring
+    public static final int RENAME_WAIT_MILLIS = 1000;  // longest wait for renamed ports to be removed
+    public static final int LINGER_MILLIS = 2000;  // time to keep a system port open after the last link
+    public static final double WIRE_WARN_PERCENT = 80.0;  // system output close to saturated
     
     /**
-     * Creates and runs AMidiJ.
+     * Creates AMidiJ and starts the backends. Ports are found and opened
+     * by run().
      * 
      * @param args command-line args
      */
@@ -74,57 +123,254 @@ public class AMidiJ implements JackClientListener, SystemMidiReceiveHandler {
         log = LogManager.getLogger(this.getClass());
         inPortAliases = new SystemPortAliases();
         outPortAliases = new SystemPortAliases();
+        lingerOverrides = new HashMap<>();
         for(int i = 0; i < args.length; i ++) {
             if(args[i].startsWith("--help")) {
                 printUsage();
                 System.exit(0);
             }
+            else if(args[i].equals("--outputthread")) {
+                outputThread = true;
+                log.info("sending to system ports from output threads");
+            }
+            else if(args[i].startsWith("--sysexbuffer=")) {
+                sysexBufferSize = parseIntArg(args[i]);
+                log.info("SysEx buffer size: " + sysexBufferSize);
+            }
+            else if(args[i].startsWith("--coalesce=")) {
+                coalesceMillis = parseIntArg(args[i]);
+                log.info("coalesce window: " + coalesceMillis + " ms");
+            }
+            else if(args[i].startsWith("--outputrate=")) {
+                outputRate = parseIntArg(args[i]);
+                log.info("system output rate: " + outputRate + " bytes/sec");
+            }
+            else if(args[i].startsWith("--outputbacklog=")) {
+                outputBacklog = parseIntArg(args[i]);
+                log.info("system output backlog: " + outputBacklog);
+            }
+            else if(args[i].startsWith("--portbudget=")) {
+                portBudget = parseIntArg(args[i]);
+                log.info("per port event budget: " + portBudget);
+            }
+            else if(args[i].startsWith("--cyclebudget=")) {
+                cycleBudget = parseIntArg(args[i]);
+                log.info("per cycle event budget: " + cycleBudget);
+            }
+            else if(args[i].startsWith("--overload=")) {
+                String parts[] = args[i].split("=");
+                overloadPolicy = parts.length < 2 ? null : OverloadPolicy.fromName(parts[1]);
+                if(overloadPolicy == null) {
+                    log.error("malformed argment: " + args[i]);
+                    System.exit(1);
+                }
+                log.info("overload policy: " + overloadPolicy.getName());
+            }
+            else if(args[i].startsWith("--simulate=")) {
+                simulateDevices = parseIntArg(args[i]);
+                log.info("simulated devices: " + simulateDevices);
+            }
+            else if(args[i].startsWith("--simulaterate=")) {
+                simulateRate = parseIntArg(args[i]);
+                log.info("simulated traffic: " + simulateRate + " events/sec per port");
+            }
+            else if(args[i].startsWith("--simulatechurn=")) {
+                simulateChurn = parseIntArg(args[i]);
+                log.info("simulated re-patching every: " + simulateChurn + " ms");
+            }
+            else if(args[i].startsWith("--hotplugdir=")) {
+                String parts[] = args[i].split("=", 2);
+                hotplugDir = parts[1];
+                log.info("hotplug directory: " + (hotplugDir.isEmpty() ? "none" : hotplugDir));
+            }
+            else if(args[i].startsWith("--procasound")) {
+                String parts[] = args[i].split("=", 2);
+                procAsoundDir = parts.length < 2 || parts[1].isEmpty() ?
+                    ProcAsoundMidiBackend.DEFAULT_DIR : parts[1];
+                log.info("listing devices from: " + procAsoundDir);
+            }
+            else if(args[i].startsWith("--scanmillis=")) {
+                fallbackScanMillis = parseIntArg(args[i]);
+                log.info("fallback scan interval: " + fallbackScanMillis + " ms");
+            }
+            else if(args[i].startsWith("--holdmillis=")) {
+                holdMillis = parseIntArg(args[i]);
+                log.info("hold time for missing devices: " + holdMillis + " ms");
+            }
+            else if(args[i].startsWith("--settlemillis=")) {
+                settleMillis = parseIntArg(args[i]);
+                log.info("settle time for returning devices: " + settleMillis + " ms");
+            }
+            else if(args[i].startsWith("--linger=")) {
+                lingerMillis = parseIntArg(args[i]);
+                log.info("linger time for unused ports: " + lingerMillis + " ms");
+            }
+            else if(args[i].startsWith("--metricsport=")) {
+                metricsPort = parseIntArg(args[i]);
+                log.info("metrics port: " + metricsPort);
+            }
             else if(args[i].startsWith("--portaliases=")) {
                 String parts[] = args[i].split("=");
                 if(parts.length < 2) {
                     log.error("malformed argment: " + args[i]);
                     System.exit(1);
                 }
+                portAliasFile = parts[1];
                 try {
-                    loadSystemPortAliases(parts[1]);
+                    loadSystemPortAliases(portAliasFile, inPortAliases, outPortAliases, lingerOverrides);
                 } catch (IOException e) {
                     log.error(e.toString());
                     System.exit(1);
                 }
             }
         }
-        try {
-            // start jack stuff
-            jackClient = new JackClientAdapter("amidij");
-            jackClient.registerJackClientListener(this);
-            jackClient.registerJackClientListener(this);
-            // start system stuff
-            sysAvailableInputs = new HashMap<>();
-            sysAvailableOutputs = new HashMap<>();
-            sysOpenInputs = new HashMap<>();
-            sysOpenOutputs = new HashMap<>();
-            sysToJackQueues = new HashMap<>();
-            jackToSysMap = new HashMap<>();
-        } catch (JackClientAdapterException e) {
-            log.error(e.toString());
-            System.exit(1);
+        // start system stuff
+        inHolds = new HotplugHysteresis(holdMillis, settleMillis);
+        outHolds = new HotplugHysteresis(holdMillis, settleMillis);
+        routing = new RoutingTable();
+        stats = new ProcessStats();
+        processLoop = new ProcessLoop(routing, stats, portBudget, cycleBudget, overloadPolicy);
+        metrics = new MetricsRegistry();
+        inPorts = new PortCatalog(inPortAliases, metrics, true);
+        outPorts = new PortCatalog(outPortAliases, metrics, false);
+        opener = new DeviceOpener();
+        if(metricsPort > 0) {
+            try {
+                metricsServer = new MetricsHttpServer(metrics, metricsPort);
+                metricsServer.start();
+            } catch (IOException e) {
+                log.error("error starting metrics server: " + e.toString());
+                System.exit(1);
+            }
+        }
+        if(simulateDevices > 0) {
+            startSimulation();
+        }
+        else {
+            try {
+                // start jack stuff
+                if(procAsoundDir != null) {
+                    sysMidi = new ProcAsoundMidiBackend(procAsoundDir);
+                }
+                else {
+                    sysMidi = new JavaSoundMidiBackend();
+                }
+                jackClient = new JackClientAdapter("amidij");
+                jackClient.registerJackClientListener(this);
+            } catch (JackClientAdapterException e) {
+                log.error(e.toString());
+                System.exit(1);
+            }
         }
+        stats.setPeriod(jackClient.getBufferSize(), jackClient.getSamplerate());
+        clocks = new ClockCorrelator(jackClient);
+        clocks.start();
         
-        // poll for stuff
-        while(true) {
+        // close every device that is still open on the way out
+        Thread t = new Thread() {
+            public void run() {
+                AMidiJ.this.shutdown();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(t);
+        
+        // the fake devices have no device nodes to watch
+        if(simulateDevices == 0) {
+            startHotplugWatcher();
+        }
+        startAliasWatcher();
+    }
+    
+    /**
+     * Scans for devices, closes lingering ports and reports stats until
+     * shutdown() is called.
+     */
+    public void run() {
+        long nextReport = System.currentTimeMillis() + REPORT_MILLIS;
+        long nextScan = 0;
+        while(running) {
             try {
-                try {
-                    scanSystemPorts();
-                } catch (MidiUnavailableException e) {
-                    log.error(e.toString());
+                routing.reclaim();
+                if(hotplug != null && !hotplug.isWatching()) {
+                    // the watched directory went away
+                    hotplug = null;
+                    nextScan = 0;
+                }
+                long now = System.currentTimeMillis();
+                long nextClose;
+                synchronized(lock) {
+                    nextClose = closeLingeringPorts(now);
+                }
+                if(now >= nextReport) {
+                    reportThroughput();
+                    stats.report();
+                    nextReport += REPORT_MILLIS;
+                }
+                if(now >= nextScan) {
+                    try {
+                        long scanStart = System.nanoTime();
+                        synchronized(lock) {
+                            scanSystemPorts();
+                        }
+                        metrics.recordScan(System.nanoTime() - scanStart);
+                    } catch (MidiUnavailableException e) {
+                        log.error(e.toString());
+                    }
+                    nextScan = now + (hotplug == null ? SCAN_MILLIS : fallbackScanMillis);
+                    // check held ports when they are due
+                    long holdWait = Math.min(inHolds.getMillisUntilDue(now),
+                        outHolds.getMillisUntilDue(now));
+                    if(holdWait < nextScan - now) {
+                        nextScan = now + Math.max(holdWait, 1);
+                    }
+                }
+                // wake up for the next scan, report or retired route
+                long wait = Math.min(Math.min(nextScan, nextReport), nextClose) -
+                    System.currentTimeMillis();
+                if(routing.getPendingCount() > 0) {
+                    wait = Math.min(wait, RECLAIM_MILLIS);
+                }
+                if(wait > 0) {
+                    if(hotplug == null) {
+                        Thread.sleep(wait);
+                    }
+                    else if(hotplug.awaitChange(wait)) {
+                        nextScan = 0;  // scan right away
+                    }
                 }
-                Thread.sleep(500);
             } catch (InterruptedException e) {
                 log.error(e.toString());
             }
         }
     }
     
+    /**
+     * Stops the main loop and the watchers, closes every device that is
+     * still open and unregisters the metrics. This is safe to call more
+     * than once.
+     */
+    public synchronized void shutdown() {
+        if(!running) {
+            return;
+        }
+        running = false;
+        wakeMainLoop();
+        if(aliasWatcher != null) {
+            aliasWatcher.shutdown();
+        }
+        HotplugWatcher watcher = hotplug;
+        if(watcher != null) {
+            watcher.shutdown();
+        }
+        clocks.shutdown();
+        if(metricsServer != null) {
+            metricsServer.stop();
+        }
+        sysMidi.shutdown();
+        metrics.unregister();
+        log.info("shut down");
+    }
+    
     /*
      * Jack callbacks.
      */
@@ -135,50 +381,120 @@ public class AMidiJ implements JackClientListener, SystemMidiReceiveHandler {
 
     @Override
     public void portConnected(JackPatchLink link) {
-        String aliasName = StringUtils.removeJackPortPrefix(link.getOurPortName());
-        
+        synchronized(lock) {
+            connectPort(link);
+            publishRouting();
+        }
+    }
+
+    @Override
+    public void portDisconnected(JackPatchLink link) {
+        synchronized(lock) {
+            disconnectPort(link);
+            publishRouting();
+        }
+        // retired routes are closed by the main loop, never by Jack
+        if(routing.getPendingCount() > 0) {
+            wakeMainLoop();
+        }
+    }
+    
+    /**
+     * Opens the system port for a new Jack connection and adds the route.
+     * 
+     * @param link the link that was connected
+     */
+    private void connectPort(JackPatchLink link) {
         // connected input (from jack)
         if(jackClient.isPortNameMIDIInPort(link.getOurPortName())) {
-            log.info("in from Jack port connected: " + link.getOurPortName() + " - alias name: " + aliasName);
+            SystemPort port = outPorts.getByJackPortName(link.getOurPortName());
+            if(port == null) {
+                log.error("port not found: " + link.getOurPortName());
+                return;
+            }
+            log.info("in from Jack port connected: " + link.getOurPortName() + " - alias name: " + port.getAliasName());
+            // opened when the device comes back
+            if(outHolds.isHeld(port.getAliasName())) {
+                log.info("system port is away: " + port.getAliasName());
+                return;
+            }
             try {
-                SystemMidiInterface midi;
-                String sysPortName = outPortAliases.getSysNameForAliasOrAlias(aliasName);
-                // port is already open
-                if(sysOpenOutputs.containsKey(sysPortName)) {
-                    log.info("system port already opened: " + sysPortName);
-                    midi = sysOpenOutputs.get(sysPortName);
-                }
-                // first time using this port
+                boolean opening = false;
+                // port is already open or being opened
+                if(port.midi != null) {
+                    if(port.lingerDue != 0) {
+                        port.lingerDue = 0;
+                        log.info("reusing lingering system port: " + port.getSysName());
+                    }
+                    log.info("system port already opened: " + port.getSysName());
+                }
+                // first time using this port - opened off this thread
                 else {
-                    midi = new SystemMidiInterface();
-                    midi.openMIDIOutputPort(sysPortName);
-                    sysOpenOutputs.put(sysPortName, midi);
+                    port.midi = sysMidi.createInterface();
+                    port.midi.setPortId(port.getId());
+                    opening = true;
+                }
+                // another Jack port may already be routed to this one
+                if(port.jackToSys == null) {
+                    DeviceClock clock = clocks.createClock("out " + port.getSysName(),
+                        port.midi::getOutputDevicePosition);
+                    JackToSys j2s = new JackToSys(port.midi, port.jackPort, clock,
+                        jackClient.getBufferSize(), sysexBufferSize, outputThread,
+                        coalesceMillis * 1000000L, outputRate, outputBacklog, overloadPolicy);
+                    if(opening) {
+                        j2s.awaitDeviceOpen(jackClient.getBufferSize(), sysexBufferSize);
+                    }
+                    port.jackToSys = j2s;
+                    port.getMetrics().attach(j2s);
+                }
+                if(opening) {
+                    openSystemOutput(port, port.midi, port.jackToSys);
                 }
-                jackToSysMap.put(sysPortName, new JackToSys(midi,
-                    sysAvailableOutputs.get(aliasName)));
             } catch (MidiUnavailableException e) {
                 log.error(e.toString());
             }
         }
         // connected output (to jack)
         else if(jackClient.isPortNameMIDIOutPort(link.getOurPortName())) {
-            log.info("out to Jack port connected: " + link.getOurPortName() + " - alias name: " + aliasName);
+            SystemPort port = inPorts.getByJackPortName(link.getOurPortName());
+            if(port == null) {
+                log.error("port not found: " + link.getOurPortName());
+                return;
+            }
+            log.info("out to Jack port connected: " + link.getOurPortName() + " - alias name: " + port.getAliasName());
+            // opened when the device comes back
+            if(inHolds.isHeld(port.getAliasName())) {
+                log.info("system port is away: " + port.getAliasName());
+                return;
+            }
             try {
-                SystemMidiInterface midi;
-                String sysPortName = inPortAliases.getSysNameForAliasOrAlias(aliasName);
-                // port is already open
-                if(sysOpenInputs.containsKey(sysPortName)) {
-                    log.info("system port already opened: " + sysPortName);
-                    midi = sysOpenInputs.get(sysPortName);
-                }
-                // first time using this port
+                boolean opening = false;
+                // port is already open or being opened
+                if(port.midi != null) {
+                    if(port.lingerDue != 0) {
+                        port.lingerDue = 0;
+                        log.info("reusing lingering system port: " + port.getSysName());
+                    }
+                    log.info("system port already opened: " + port.getSysName());
+                }
+                // first time using this port - opened off this thread
                 else {
-                    midi = new SystemMidiInterface();
-                    midi.openMIDIInputPort(sysPortName, this);
-                    sysOpenInputs.put(sysPortName, midi);
+                    port.midi = sysMidi.createInterface();
+                    port.midi.setPortId(port.getId());
+                    opening = true;
+                }
+                // another Jack port may already be routed from this one
+                if(port.sysToJack == null) {
+                    DeviceClock clock = clocks.createClock("in " + port.getSysName(),
+                        port.midi::getInputDevicePosition);
+                    SysToJackQueue queue = new SysToJackQueue(port.midi, port.jackPort, clock,
+                        jackClient.getBufferSize(), sysexBufferSize);
+                    port.sysToJack = queue;
+                    port.getMetrics().attach(queue);
+                }
+                if(opening) {
+                    openSystemInput(port, port.midi);
                 }
-                sysToJackQueues.put(sysPortName, new SysToJackQueue(
-                    midi, sysAvailableInputs.get(aliasName)));
             } catch (MidiUnavailableException e) {
                 log.error(e.toString());
             }
@@ -188,45 +504,79 @@ public class AMidiJ implements JackClientListener, SystemMidiReceiveHandler {
         }
     }
 
-    @Override
-    public void portDisconnected(JackPatchLink link) {
-        String aliasName = StringUtils.removeJackPortPrefix(link.getOurPortName());
-        log.info("Jack port disconnected: " + link.getOurPortName() + " - alias name: " + aliasName);
+    /**
+     * Removes the route and closes the system port if this was the last
+     * Jack connection to it.
+     * 
+     * @param link the link that was disconnected
+     */
+    private void disconnectPort(JackPatchLink link) {
+        log.info("Jack port disconnected: " + link.getOurPortName());
         
         // disconnect input (from jack)
         if(jackClient.isPortNameMIDIInPort(link.getOurPortName())) {
             log.debug("in port (from jack)");
-            String sysPortName = outPortAliases.getSysNameForAliasOrAlias(aliasName);
-            if(!sysOpenOutputs.containsKey(sysPortName)) {
-                log.error("system output port is not open: " + sysPortName);
+            SystemPort port = outPorts.getByJackPortName(link.getOurPortName());
+            // renamed since - another port may be waiting to take the name
+            if(port == null || port.jackPort == null) {
+                log.debug("no system port for: " + link.getOurPortName());
+                return;
+            }
+            // closed while the device is away - nothing to do
+            if(outHolds.isHeld(port.getAliasName())) {
+                log.debug("system output port is held: " + port.getAliasName());
+                return;
+            }
+            if(port.midi == null) {
+                log.error("system output port is not open: " + port.getSysName());
                 return;
             }
             // check to see if this is the only port connected
-            String connectedPorts[] = jackClient.getConnectedPorts(link.getOurPortName());
-            if(connectedPorts.length == 0) {
-                log.info("no other ports are connected to this port: " + sysPortName + " - closing");
-                SystemMidiInterface midi = sysOpenOutputs.get(sysPortName);
-                midi.closeMIDIPorts();
-                sysOpenOutputs.remove(sysPortName);
-                jackToSysMap.remove(sysPortName);
+            if(jackClient.getConnectionCount(link.getOurPortName()) == 0) {
+                int linger = getLingerMillis(port.getAliasName());
+                if(linger > 0) {
+                    log.info("no other ports are connected to this port: " + port.getSysName() +
+                        " - closing in " + linger + " ms");
+                    port.lingerDue = System.currentTimeMillis() + linger;
+                    wakeMainLoop();
+                }
+                else {
+                    log.info("no other ports are connected to this port: " + port.getSysName() + " - closing");
+                    closeSystemOutput(port);
+                }
             }
         }
         // disconnect output (to jack)
         else if(jackClient.isPortNameMIDIOutPort(link.getOurPortName())) {
             log.debug("out port (to jack)");
-            String sysPortName = inPortAliases.getSysNameForAliasOrAlias(aliasName);
-            if(!sysOpenInputs.containsKey(sysPortName)) {
-                log.error("system input port is not open: " + sysPortName);
+            SystemPort port = inPorts.getByJackPortName(link.getOurPortName());
+            // renamed since - another port may be waiting to take the name
+            if(port == null || port.jackPort == null) {
+                log.debug("no system port for: " + link.getOurPortName());
+                return;
+            }
+            // closed while the device is away - nothing to do
+            if(inHolds.isHeld(port.getAliasName())) {
+                log.debug("system input port is held: " + port.getAliasName());
+                return;
+            }
+            if(port.midi == null) {
+                log.error("system input port is not open: " + port.getSysName());
                 return;
             }
             // check to see if this is the only port connected
-            String connectedPorts[] = jackClient.getConnectedPorts(link.getOurPortName());
-            if(connectedPorts.length == 0) {
-                log.info("no other ports are connected to this port: " + sysPortName + " - closing");
-                SystemMidiInterface midi = sysOpenInputs.get(sysPortName);
-                midi.closeMIDIPorts();
-                sysOpenInputs.remove(sysPortName);
-                sysToJackQueues.remove(sysPortName);
+            if(jackClient.getConnectionCount(link.getOurPortName()) == 0) {
+                int linger = getLingerMillis(port.getAliasName());
+                if(linger > 0) {
+                    log.info("no other ports are connected to this port: " + port.getSysName() +
+                        " - closing in " + linger + " ms");
+                    port.lingerDue = System.currentTimeMillis() + linger;
+                    wakeMainLoop();
+                }
+                else {
+                    log.info("no other ports are connected to this port: " + port.getSysName() + " - closing");
+                    closeSystemInput(port);
+                }
             }
         }
         else {
@@ -235,148 +585,402 @@ public class AMidiJ implements JackClientListener, SystemMidiReceiveHandler {
     }
 
     @Override
-    public boolean process(JackClient client, int nframes) {
+    public void bufferSizeChanged(int bufferSize) {
+        stats.setPeriod(bufferSize, jackClient.getSamplerate());
+        JackToSys routes[] = routing.getCurrent().getJackToSys();
+        for(int i = 0; i < routes.length; i ++) {
+            routes[i].allocateBuffers(bufferSize);
+        }
+    }
+
+    @Override
+    public void xrunOccurred() {
+        stats.xrun();
+    }
+
+    @Override
+    public boolean process(int nframes) {
         lastJackFrameCount = jackClient.getLastFrameCount();  // last count of number of frames
-        
-        // process MIDI inputs (to Jack)
-        Iterator<SysToJackQueue> iter = sysToJackQueues.values().iterator();
-        while(iter.hasNext()) {
-            SysToJackQueue queue = iter.next();
-            SystemMidiInterface sysPort = queue.getSysPort();
-            JackPort jackPort = queue.getJackPort();
-            try {
-                JackMidi.clearBuffer(jackPort);
-            } catch (JackException e) {
-                log.error(e.toString());
+        processLoop.process(lastJackFrameCount, nframes);
+        return true;
+    }
+    
+    /**
+     * Main!
+     * 
+     * @param args command-line args
+     */
+    public static void main(String[] args) {
+        new AMidiJ(args).run();
+    }
+    
+    /*
+     * private methods
+     */
+    
+    /**
+     * Starts watching for devices if the hotplug directory can be watched,
+     * otherwise scans are done by polling only.
+     */
+    private void startHotplugWatcher() {
+        if(hotplugDir.isEmpty()) {
+            return;
+        }
+        try {
+            hotplug = new HotplugWatcher(hotplugDir);
+            hotplug.start();
+        } catch (IOException e) {
+            log.warn("can not watch for devices in: " + hotplugDir + " - " + e.toString() +
+                " - polling every " + SCAN_MILLIS + " ms");
+            hotplug = null;
+        }
+    }
+    
+    /**
+     * Starts watching the port alias file if there is one, so edits are
+     * picked up without a restart.
+     */
+    private void startAliasWatcher() {
+        if(portAliasFile == null) {
+            return;
+        }
+        try {
+            aliasWatcher = new AliasFileWatcher(portAliasFile, this::reloadSystemPortAliases);
+            aliasWatcher.start();
+        } catch (IOException e) {
+            log.warn("can not watch port aliases: " + portAliasFile + " - " + e.toString() +
+                " - changes need a restart");
+            aliasWatcher = null;
+        }
+    }
+    
+    /**
+     * Reads the port alias file again and renames the ports whose alias
+     * changed. The file is read before taking the lock and nothing changes
+     * if it can not be read, so a half saved file keeps the old aliases.
+     */
+    private void reloadSystemPortAliases() {
+        SystemPortAliases newInAliases = new SystemPortAliases();
+        SystemPortAliases newOutAliases = new SystemPortAliases();
+        HashMap<String, Integer> newLingerOverrides = new HashMap<>();
+        try {
+            loadSystemPortAliases(portAliasFile, newInAliases, newOutAliases, newLingerOverrides);
+        } catch (IOException e) {
+            log.error("keeping the old port aliases - " + e.toString());
+            return;
+        }
+        int renamed;
+        HashMap<SystemPort, String[]> inPeers = new HashMap<>();
+        HashMap<SystemPort, String[]> outPeers = new HashMap<>();
+        synchronized(lock) {
+            inPortAliases = newInAliases;
+            outPortAliases = newOutAliases;
+            lingerOverrides = newLingerOverrides;
+            inPorts.setAliases(newInAliases);
+            outPorts.setAliases(newOutAliases);
+            renamed = renamePorts(inPorts, inPeers) + renamePorts(outPorts, outPeers);
+            if(renamed > 0) {
+                publishRouting();
             }
-            long sysPortTime = sysPort.getInputDevicePosition();
-            while(queue.messageAvailable()) {
-                TimedMessage tMsg = queue.removeQueue();
-                MidiMessage msg = tMsg.getMessage();
-                int offset = (int)(tMsg.getTimestamp() - lastJackFrameCount);  // offset in frames
-                offset += nframes;  // push forward 1 buffer period
-                // clamp to valid range
-                if(offset < 0) {
-                    offset = 0;
-                }
-                else if(offset >= nframes) {
-                    offset = nframes - 1;
-                }
+        }
+        if(!inPeers.isEmpty() || !outPeers.isEmpty()) {
+            // a port may take the Jack name of another renamed port
+            awaitReclaim(RENAME_WAIT_MILLIS);
+            synchronized(lock) {
+                registerRenamedPorts(inPorts, inPeers);
+                registerRenamedPorts(outPorts, outPeers);
+            }
+        }
+        routing.reclaim();
+        log.info("port aliases reloaded - ports renamed: " + renamed);
+    }
+    
+    /**
+     * Renames the ports in a catalog whose alias changed. A registered
+     * port is closed and its old Jack port is removed once the process
+     * loop is done with it. The ports it was connected to are kept for
+     * registerRenamedPorts(). Other ports are left alone. The caller must
+     * hold the lock and publish the routing afterwards.
+     * 
+     * @param catalog the ports to check
+     * @param peers filled in with the connections of each closed port
+     * @return the number of ports renamed
+     */
+    private int renamePorts(PortCatalog catalog, HashMap<SystemPort, String[]> peers) {
+        boolean systemInput = catalog == inPorts;
+        HotplugHysteresis holds = systemInput ? inHolds : outHolds;
+        LinkedHashMap<SystemPort, String> aliasNames = new LinkedHashMap<>();
+        HashMap<SystemPort, String> oldAliasNames = new HashMap<>();
+        HashMap<SystemPort, String> oldPortNames = new HashMap<>();
+        HashMap<SystemPort, PortMetrics> oldMetrics = new HashMap<>();
+        for(SystemPort port : catalog.getPorts()) {
+            String aliasName = catalog.getAliasName(port);
+            if(aliasName.equals(port.getAliasName())) {
+                continue;
+            }
+            aliasNames.put(port, aliasName);
+            oldAliasNames.put(port, port.getAliasName());
+            oldPortNames.put(port, port.getJackPortName());
+            oldMetrics.put(port, port.getMetrics());
+        }
+        if(aliasNames.isEmpty()) {
+            return 0;
+        }
+        // all at once so ports can swap aliases
+        ArrayList<SystemPort> renamed = catalog.rename(aliasNames);
+        for(SystemPort port : aliasNames.keySet()) {
+            if(!renamed.contains(port)) {
+                log.error("can not rename port: " + port.getAliasName() + " - alias already used: " +
+                    aliasNames.get(port));
+            }
+        }
+        for(SystemPort port : renamed) {
+            String oldAliasName = oldAliasNames.get(port);
+            String oldPortName = oldPortNames.get(port);
+            log.info((systemInput ? "MIDI IN" : "MIDI OUT") + " port renamed: " + oldAliasName +
+                " to: " + port.getAliasName());
+            // scanned again under the new name if it is away
+            holds.release(oldAliasName);
+            if(port.jackPort == null) {
+                continue;
+            }
+            peers.put(port, jackClient.getConnectedPorts(oldPortName));
+            // the routes were counted under the old alias
+            if(systemInput) {
+                closeSystemInput(port, oldMetrics.get(port));
+            }
+            else {
+                closeSystemOutput(port, oldMetrics.get(port));
+            }
+            port.jackPort = null;
+            // the process loop may still be using the old port
+            routing.retire("unregister " + oldPortName, () -> {
                 try {
-                    JackMidi.eventWrite(jackPort, offset, msg.getMessage(), msg.getLength());
+                    if(systemInput) {
+                        jackClient.unregisterMIDIOutPort(oldPortName);
+                    }
+                    else {
+                        jackClient.unregisterMIDIInPort(oldPortName);
+                    }
+                    log.info("renamed port unregistered: " + oldPortName);
                 } catch (JackException e) {
-                    log.error(e.toString());
-                    continue;
+                    log.error("error removing Jack port: " + e.toString());
                 }
-            }
+            });
         }
-        
-        // process MIDI outputs (from Jack)
-        Iterator<JackToSys> iter2 = jackToSysMap.values().iterator();
-        while(iter2.hasNext()) {
-            JackToSys j2s = iter2.next();
-            JackPort port = j2s.getJackPort();
-            SystemMidiInterface sysPort = j2s.getSysMidi();
-            long sysPortTime = sysPort.getOutputDevicePosition();
-            
-            byte data[] = new byte[64];
-            // poll for new data
-            try {
-                JackMidi.Event event = new JackMidi.Event();
-                for(int j = 0; j < JackMidi.getEventCount(port); j++) {
-                    JackMidi.eventGet(event, port, j);
-                    event.read(data);
-                    long jackOffset = jackClient.getCurrentFrameTime() - lastJackFrameCount;  // frames
-                    long eventTime = event.time() - jackOffset + nframes;  // frames
-                    long timestamp = sysPortTime + (long)((double)eventTime * jackClient.getFrameLengthSeconds());
-                    if(timestamp < 0) {
-                        timestamp = -1;
+        return renamed.size();
+    }
+    
+    /**
+     * Registers renamed ports under their new Jack names and connects them
+     * to the same ports as before. The device is opened again by the
+     * connect callbacks. The old Jack ports should be gone first. The
+     * caller must hold the lock.
+     * 
+     * @param catalog the ports the renamed ports are in
+     * @param peers the connections of each renamed port
+     */
+    private void registerRenamedPorts(PortCatalog catalog, HashMap<SystemPort, String[]> peers) {
+        boolean systemInput = catalog == inPorts;
+        for(Map.Entry<SystemPort, String[]> entry : peers.entrySet()) {
+            SystemPort port = entry.getKey();
+            // the scan may have got to it first
+            if(port.jackPort == null) {
+                try {
+                    if(systemInput) {
+                        port.jackPort = jackClient.registerMIDIOutPort(port.getJackPortName(), true);
                     }
-                    // XXX SYSEX messages are probably not supported by this way of doing things
-                    switch(event.size()) {
-                        case 1:
-                            sysPort.sendMessage(new ShortMessage(data[0] & 0xff), timestamp);
-                            break;
-                        case 2:
-                            sysPort.sendMessage(new ShortMessage(data[0] & 0xff,
-                                data[1] & 0xff, 0), timestamp);
-                            break;
-                        case 3:
-                            sysPort.sendMessage(new ShortMessage(data[0] & 0xff,
-                                    data[1] & 0xff, data[2] & 0xff), timestamp);
-                            break;
-                        default:
-                            log.error("unsupported message length: " + event.size());
+                    else {
+                        port.jackPort = jackClient.registerMIDIInPort(port.getJackPortName(), true);
                     }
+                    log.info("renamed port registered: " + port.getJackPortName());
+                } catch (JackException e) {
+                    log.error("error creating Jack port: " + e.toString());
+                    port.jackPort = null;
+                    rescanPending = true;
+                    continue;
+                }
+            }
+            for(String peer : entry.getValue()) {
+                String parts[] = peer.split(":", 2);
+                if(parts.length < 2) {
+                    continue;
+                }
+                try {
+                    jackClient.connect(port.getJackPortName(), new JackPortName(parts[0], parts[1]));
+                } catch (JackException e) {
+                    log.error("error connecting renamed port: " + peer + " - " + e.toString());
                 }
-            } catch (JackException e) {
-                log.error(e.toString());
-            } catch (InvalidMidiDataException e) {
-                log.error(e.toString());
             }
         }
-        return true;
     }
     
     /**
-     * Main!
+     * Runs the retired actions as the process loop moves past them, for up
+     * to a time limit. The lock must not be held.
      * 
-     * @param args command-line args
+     * @param millis the longest time to wait
      */
-    public static void main(String[] args) {
-        new AMidiJ(args);
+    private void awaitReclaim(long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        routing.reclaim();
+        while(routing.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            routing.reclaim();
+        }
     }
     
-    /*
-     * private methods
+    /**
+     * Starts the in-memory Jack server and devices. Every Jack port is
+     * connected as soon as it is registered so all devices are routed.
      */
+    private void startSimulation() {
+        log.info("running on simulated backends - devices: " + simulateDevices +
+            " - traffic: " + simulateRate + " events/sec per port");
+        FakeSystemMidiBackend fakeMidi = new FakeSystemMidiBackend();
+        for(int i = 0; i < simulateDevices; i ++) {
+            fakeMidi.addDevice("Fake MIDI " + (i + 1));
+        }
+        fakeMidi.setTrafficRate(simulateRate);
+        FakeJackServer fakeJack = new FakeJackServer("amidij",
+            FakeJackServer.DEFAULT_SAMPLERATE, FakeJackServer.DEFAULT_BUFFER_SIZE);
+        fakeJack.setAutoConnect(true);
+        fakeJack.setInputRate(simulateRate);
+        fakeJack.registerJackClientListener(this);
+        sysMidi = fakeMidi;
+        jackClient = fakeJack;
+        fakeJack.start();
+        fakeMidi.start();
+        if(simulateChurn > 0) {
+            startChurn(fakeJack);
+        }
+    }
+    
+    /**
+     * Starts a thread that disconnects and reconnects the simulated Jack
+     * links one at a time, forever. This is for soak testing the device
+     * open and close paths.
+     * 
+     * @param fakeJack the in-memory Jack server
+     */
+    private void startChurn(final FakeJackServer fakeJack) {
+        Thread churn = new Thread("simulated churn") {
+            public void run() {
+                long cycles = 0;
+                long nextReport = System.currentTimeMillis() + REPORT_MILLIS;
+                try {
+                    for(int i = 0; ; i ++) {
+                        String aliasName = "Fake MIDI " + ((i / 2) % simulateDevices + 1);
+                        SystemPort port = (i & 1) == 0 ? outPorts.getByAliasName(aliasName) :
+                            inPorts.getByAliasName(aliasName);
+                        String portName = port == null ? null : port.getJackPortName();
+                        String connectedPorts[] = port == null ? new String[0] :
+                            fakeJack.getConnectedPorts(portName);
+                        if(connectedPorts.length > 0) {
+                            String parts[] = connectedPorts[0].split(":", 2);
+                            JackPortName peer = new JackPortName(parts[0], parts[1]);
+                            fakeJack.disconnect(portName, peer);
+                            Thread.sleep(simulateChurn);
+                            fakeJack.connect(portName, peer);
+                            cycles ++;
+                        }
+                        Thread.sleep(simulateChurn);
+                        if(System.currentTimeMillis() >= nextReport) {
+                            Runtime rt = Runtime.getRuntime();
+                            log.info("simulated churn - cycles: " + cycles + " - heap used: " +
+                                ((rt.totalMemory() - rt.freeMemory()) / 1024) + " KB - threads: " +
+                                Thread.activeCount());
+                            nextReport += REPORT_MILLIS;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    log.error(e.toString());
+                }
+            }
+        };
+        churn.setDaemon(true);
+        churn.start();
+    }
+    
     private void scanSystemPorts() throws MidiUnavailableException {
+        DeviceScan scan = sysMidi.scan();
+        if(!scan.isChanged() && !rescanPending && !inHolds.hasHolds() && !outHolds.hasHolds()) {
+            return;
+        }
+        rescanPending = false;
+        scanCount ++;
+        long now = System.currentTimeMillis();
+        
         // check for new system inputs
-        LinkedList<String> inNames = SystemMidiInterface.getInputDeviceNames();
+        List<String> inNames = scan.getInputs();
         for(String name : inNames) {
             // ignore this
             if(name.equals("Real Time Sequencer")) {
                 continue;
             }
+            SystemPort port = inPorts.intern(name);
+            port.seenScan = scanCount;
             // new port appeared
-            String aliasName = inPortAliases.getAliasForSysNameOrSysName(name);
-            if(!sysAvailableInputs.containsKey(aliasName)) {
+            if(port.jackPort == null) {
                 try {
-                    String portName = StringUtils.makeOutputName(aliasName);
-                    JackPort port = jackClient.registerMIDIOutPort(portName, true);
-                    sysAvailableInputs.put(aliasName, port);  // need to store the system name
-                    log.info("system MIDI IN port: " + aliasName + " registered as jack out: " + portName);
+                    port.jackPort = jackClient.registerMIDIOutPort(port.getJackPortName(), true);
+                    log.info("system MIDI IN port: " + port.getAliasName() + " registered as jack out: " +
+                        port.getJackPortName());
+                    publishRouting();  // cleared from now on
                 } catch (JackException e) {
                     log.error("error creating Jack OUT port: " + e.toString());
+                    rescanPending = true;
                 }
             }
+            // held port came back and stayed
+            else if(inHolds.isHeld(port.getAliasName()) && inHolds.settle(port.getAliasName(), now)) {
+                log.info("MIDI IN port came back: " + port.getAliasName());
+                port.getMetrics().deviceReturned();
+                reconnectPort(port.getJackPortName());
+            }
         }
         
         // check for system inputs that went away
-        // use the list that was scanned from the system
-        HashSet<String> inSet = new HashSet<>();
-        for(String name : inNames) {
-            inSet.add(inPortAliases.getAliasForSysNameOrSysName(name));  // convert to alias names
-        }
-        Iterator<String> iter = sysAvailableInputs.keySet().iterator();
-        while(iter.hasNext()) {
-            String aliasName = iter.next();
+        // use the scan count of the ports that were listed
+        for(SystemPort port : inPorts.getPorts()) {
             // port disappeared
-            if(!inSet.contains(aliasName)) {
-                log.info("MIDI IN port disappeared: " + aliasName);
-                try {
-                    String portName = StringUtils.makeOutputName(aliasName);
-                    jackClient.unregisterMIDIOutPort(portName);
-                    iter.remove();
-                    log.info("system MIDI IN port unregistered as jack out: " + portName);
-                } catch (JackException e) {
-                    log.error("error removing Jack OUT port: " + e.toString());
+            if(port.jackPort != null && port.seenScan != scanCount) {
+                String aliasName = port.getAliasName();
+                // keep the Jack port and its links in case it comes back
+                if(!inHolds.isHeld(aliasName)) {
+                    log.info("MIDI IN port disappeared: " + aliasName + " - holding for " +
+                        holdMillis + " ms");
+                    closeSystemInput(port);
+                    publishRouting();
+                }
+                inHolds.hold(aliasName, now);
+                if(!inHolds.isExpired(aliasName, now)) {
+                    continue;
                 }
+                inHolds.release(aliasName);
+                log.info("MIDI IN port did not come back: " + aliasName);
+                port.jackPort = null;
+                // the process loop may still be writing to the port
+                final String portName = port.getJackPortName();
+                routing.retire("unregister " + portName, () -> {
+                    try {
+                        jackClient.unregisterMIDIOutPort(portName);
+                        log.info("system MIDI IN port unregistered as jack out: " + portName);
+                    } catch (JackException e) {
+                        log.error("error removing Jack OUT port: " + e.toString());
+                    }
+                });
+                publishRouting();
             }
         }
         
         // check for new outputs
-        LinkedList<String> outNames = SystemMidiInterface.getOutputDeviceNames();
+        List<String> outNames = scan.getOutputs();
         for(String name : outNames) {
             // ignore this
             if(name.equals("Real Time Sequencer")) {
@@ -385,50 +989,382 @@ public class AMidiJ implements JackClientListener, SystemMidiReceiveHandler {
             if(name.equals("Gervill")) {
                 continue;
             }
+            SystemPort port = outPorts.intern(name);
+            port.seenScan = scanCount;
             // new port appeared
-            String aliasName = outPortAliases.getAliasForSysNameOrSysName(name);
-            if(!sysAvailableOutputs.containsKey(aliasName)) {
+            if(port.jackPort == null) {
                 try {
-                    String portName = StringUtils.makeInputName(aliasName);
-                    JackPort port = jackClient.registerMIDIInPort(portName, true);
-                    sysAvailableOutputs.put(aliasName, port);  // need to store the system name
-                    log.info("system MIDI OUT port: " + aliasName + " registered as jack in: " + portName);
+                    port.jackPort = jackClient.registerMIDIInPort(port.getJackPortName(), true);
+                    log.info("system MIDI OUT port: " + port.getAliasName() + " registered as jack in: " +
+                        port.getJackPortName());
                 } catch (JackException e) {
                     log.error("error creating Jack IN port: " + e.toString());
+                    rescanPending = true;
                 }
             }
+            // held port came back and stayed
+            else if(outHolds.isHeld(port.getAliasName()) && outHolds.settle(port.getAliasName(), now)) {
+                log.info("MIDI OUT port came back: " + port.getAliasName());
+                port.getMetrics().deviceReturned();
+                reconnectPort(port.getJackPortName());
+            }
         }
 
-        // check for system inputs that went away
-        HashSet<String> outSet = new HashSet<>();
-        for(String name : outNames) {
-            outSet.add(outPortAliases.getAliasForSysNameOrSysName(name));  // convert to alias names
-        }
-        iter = sysAvailableOutputs.keySet().iterator();
-        while(iter.hasNext()) {
-            String aliasName = iter.next();
+        // check for system outputs that went away
+        for(SystemPort port : outPorts.getPorts()) {
             // port disappeared
-            if(!outSet.contains(aliasName)) {
-                log.info("MIDI OUT port disappeared: " + aliasName);
-                try {
-                    String portName = StringUtils.makeInputName(aliasName);
-                    jackClient.unregisterMIDIInPort(portName);
-                    iter.remove();
-                    log.info("system MIDI OUT port unregistered as jack in: " + portName);
-                } catch (JackException e) {
-                    log.error("error removing Jack IN port: " + e.toString());
+            if(port.jackPort != null && port.seenScan != scanCount) {
+                String aliasName = port.getAliasName();
+                // keep the Jack port and its links in case it comes back
+                if(!outHolds.isHeld(aliasName)) {
+                    log.info("MIDI OUT port disappeared: " + aliasName + " - holding for " +
+                        holdMillis + " ms");
+                    closeSystemOutput(port);
+                    publishRouting();
+                }
+                outHolds.hold(aliasName, now);
+                if(!outHolds.isExpired(aliasName, now)) {
+                    continue;
                 }
+                outHolds.release(aliasName);
+                log.info("MIDI OUT port did not come back: " + aliasName);
+                port.jackPort = null;
+                // the process loop may still be reading from the port
+                final String portName = port.getJackPortName();
+                routing.retire("unregister " + portName, () -> {
+                    try {
+                        jackClient.unregisterMIDIInPort(portName);
+                        log.info("system MIDI OUT port unregistered as jack in: " + portName);
+                    } catch (JackException e) {
+                        log.error("error removing Jack IN port: " + e.toString());
+                    }
+                });
+                publishRouting();
             }
         }
     }
 
+    /**
+     * Gets the time to keep a system port open after its last link goes
+     * away.
+     * 
+     * @param aliasName the alias port name
+     * @return the time in milliseconds
+     */
+    private int getLingerMillis(String aliasName) {
+        Integer linger = lingerOverrides.get(aliasName);
+        return linger == null ? lingerMillis : linger;
+    }
+    
+    /**
+     * Wakes the main loop so it sees a new lingering port or retired
+     * route. When polling the loop is never asleep longer than a scan
+     * interval anyway.
+     */
+    private void wakeMainLoop() {
+        HotplugWatcher watcher = hotplug;
+        if(watcher != null) {
+            watcher.signalChange();
+        }
+    }
+    
+    /**
+     * Closes system ports that have lingered with no links for their full
+     * linger time. The caller must hold the lock.
+     * 
+     * @param now the current time in milliseconds
+     * @return the time the next lingering port is due or Long.MAX_VALUE
+     */
+    private long closeLingeringPorts(long now) {
+        long next = Long.MAX_VALUE;
+        boolean closed = false;
+        for(SystemPort port : inPorts.getPorts()) {
+            if(port.lingerDue == 0) {
+                continue;
+            }
+            if(port.lingerDue > now) {
+                next = Math.min(next, port.lingerDue);
+                continue;
+            }
+            log.info("closing lingering system port: " + port.getSysName());
+            closeSystemInput(port);
+            closed = true;
+        }
+        for(SystemPort port : outPorts.getPorts()) {
+            if(port.lingerDue == 0) {
+                continue;
+            }
+            if(port.lingerDue > now) {
+                next = Math.min(next, port.lingerDue);
+                continue;
+            }
+            log.info("closing lingering system port: " + port.getSysName());
+            closeSystemOutput(port);
+            closed = true;
+        }
+        if(closed) {
+            publishRouting();
+        }
+        return next;
+    }
+    
+    /**
+     * Opens the system port again for the links kept while its device was
+     * away. The caller must hold the lock.
+     * 
+     * @param portName our Jack port name
+     */
+    private void reconnectPort(String portName) {
+        String connectedPorts[] = jackClient.getConnectedPorts(portName);
+        if(connectedPorts.length == 0) {
+            return;
+        }
+        String parts[] = connectedPorts[0].split(":", 2);
+        connectPort(new JackPatchLink(portName, new JackPortName(parts[0],
+            parts.length < 2 ? "" : parts[1])));
+        publishRouting();
+    }
+    
+    /**
+     * Opens a system input on a worker thread. The route is removed if the
+     * device can not be opened. The caller must hold the lock.
+     * 
+     * @param port the system port
+     * @param midi the interface to open
+     */
+    private void openSystemInput(final SystemPort port, final SystemMidiInterface midi) {
+        final String sysPortName = port.getSysName();
+        opener.open("in " + sysPortName, () -> {
+            long start = System.nanoTime();
+            try {
+                midi.openMIDIInputPort(sysPortName, this);
+            } catch (MidiUnavailableException e) {
+                log.error("error opening system input: " + sysPortName + " - " + e.toString());
+                synchronized(lock) {
+                    // unless it was closed while opening
+                    if(port.midi == midi) {
+                        closeSystemInput(port);
+                        publishRouting();
+                    }
+                }
+                return;
+            }
+            long openNanos = System.nanoTime() - start;
+            port.getMetrics().deviceOpened(openNanos);
+            log.info("system input opened: " + sysPortName + " - took: " + (openNanos / 1000) + " us");
+        });
+    }
+    
+    /**
+     * Opens a system output on a worker thread. Events for the route are
+     * held until the open finishes. The route is removed if the device can
+     * not be opened. The caller must hold the lock.
+     * 
+     * @param port the system port
+     * @param midi the interface to open
+     * @param j2s the route to the output
+     */
+    private void openSystemOutput(final SystemPort port, final SystemMidiInterface midi,
+            final JackToSys j2s) {
+        final String sysPortName = port.getSysName();
+        opener.open("out " + sysPortName, () -> {
+            long start = System.nanoTime();
+            try {
+                midi.openMIDIOutputPort(sysPortName);
+            } catch (MidiUnavailableException e) {
+                log.error("error opening system output: " + sysPortName + " - " + e.toString());
+                synchronized(lock) {
+                    // unless it was closed while opening
+                    if(port.midi == midi) {
+                        closeSystemOutput(port);
+                        publishRouting();
+                    }
+                }
+                return;
+            }
+            long openNanos = System.nanoTime() - start;
+            port.getMetrics().deviceOpened(openNanos);
+            j2s.deviceOpened();
+            log.info("system output opened: " + sysPortName + " - took: " + (openNanos / 1000) + " us");
+        });
+    }
+    
+    /**
+     * Removes the route for a system input and closes it once the process
+     * loop is done with it. The caller must hold the lock and publish the
+     * routing afterwards.
+     * 
+     * @param port the system port
+     */
+    private void closeSystemInput(SystemPort port) {
+        closeSystemInput(port, port.getMetrics());
+    }
+    
+    /**
+     * Removes the route for a system input and closes it once the process
+     * loop is done with it, counting the close on the given metrics. The
+     * caller must hold the lock and publish the routing afterwards.
+     * 
+     * @param port the system port
+     * @param portMetrics the metrics the route was attached to
+     */
+    private void closeSystemInput(SystemPort port, final PortMetrics portMetrics) {
+        final String sysPortName = port.getSysName();
+        final SysToJackQueue queue = port.sysToJack;
+        port.sysToJack = null;
+        if(queue != null) {
+            clocks.removeClock(queue.getClock());
+        }
+        final SystemMidiInterface midi = port.midi;
+        port.midi = null;
+        port.lingerDue = 0;
+        routing.retire("close input " + sysPortName, () -> {
+            if(midi != null) {
+                // after the open if it is still running
+                opener.close("in " + sysPortName, () -> {
+                    midi.closeMIDIPorts();
+                    portMetrics.deviceClosed();
+                });
+            }
+            if(queue != null) {
+                portMetrics.detach(queue);
+            }
+        });
+    }
+    
+    /**
+     * Removes the route for a system output and closes it once the process
+     * loop is done with it. The caller must hold the lock and publish the
+     * routing afterwards.
+     * 
+     * @param port the system port
+     */
+    private void closeSystemOutput(SystemPort port) {
+        closeSystemOutput(port, port.getMetrics());
+    }
+    
+    /**
+     * Removes the route for a system output and closes it once the process
+     * loop is done with it, counting the close on the given metrics. The
+     * caller must hold the lock and publish the routing afterwards.
+     * 
+     * @param port the system port
+     * @param portMetrics the metrics the route was attached to
+     */
+    private void closeSystemOutput(SystemPort port, final PortMetrics portMetrics) {
+        final String sysPortName = port.getSysName();
+        final JackToSys j2s = port.jackToSys;
+        port.jackToSys = null;
+        if(j2s != null) {
+            clocks.removeClock(j2s.getClock());
+        }
+        final SystemMidiInterface midi = port.midi;
+        port.midi = null;
+        port.lingerDue = 0;
+        routing.retire("close output " + sysPortName, () -> {
+            if(j2s != null) {
+                j2s.close();
+                portMetrics.detach(j2s);
+            }
+            if(midi != null) {
+                // after the open if it is still running
+                opener.close("out " + sysPortName, () -> {
+                    midi.closeMIDIPorts();
+                    portMetrics.deviceClosed();
+                });
+            }
+        });
+    }
+    
+    /**
+     * Publishes the current routes to the process loop. The caller must
+     * hold the lock.
+     */
+    private void publishRouting() {
+        ArrayList<SysToJackQueue> sysToJack = new ArrayList<>();
+        ArrayList<MidiPortBuffer> idleJackPorts = new ArrayList<>();
+        for(SystemPort port : inPorts.getPorts()) {
+            if(port.sysToJack != null) {
+                sysToJack.add(port.sysToJack);
+            }
+            // held or not linked yet - still cleared every cycle
+            else if(port.jackPort != null) {
+                idleJackPorts.add(port.jackPort);
+            }
+        }
+        ArrayList<JackToSys> jackToSys = new ArrayList<>();
+        for(SystemPort port : outPorts.getPorts()) {
+            if(port.jackToSys != null) {
+                jackToSys.add(port.jackToSys);
+            }
+        }
+        RoutingSnapshot snapshot = routing.publish(sysToJack, jackToSys, idleJackPorts);
+        log.debug("routing epoch: " + snapshot.getEpoch() + " - to Jack: " +
+            snapshot.getSysToJack().length + " - from Jack: " + snapshot.getJackToSys().length +
+            " - idle: " + snapshot.getIdleJackPorts().length);
+    }
+    
+    /**
+     * Logs the throughput of every route that moved data since the last
+     * report.
+     */
+    private void reportThroughput() {
+        RoutingSnapshot snapshot = routing.getCurrent();
+        for(SysToJackQueue queue : snapshot.getSysToJack()) {
+            double rate = queue.getThroughput().sample();
+            if(rate > 0.0) {
+                log.info(String.format("to Jack: %s - %.0f bytes/sec - dropped: %d - oversized: %d" +
+                    " - shed: %d - over budget: %d - write errors: %d",
+                    queue.getSysPort().getInputDeviceNameOpened(), rate,
+                    queue.getDroppedEvents(), queue.getOversizedEvents(), queue.getShedEvents(),
+                    queue.getBudgetExhausted(), queue.getWriteErrors()));
+            }
+        }
+        long exhausted = processLoop.getCycleBudgetExhausted();
+        if(exhausted != reportedBudgetExhausted) {
+            log.warn("cycle event budget exhausted: " + (exhausted - reportedBudgetExhausted) + " cycles");
+            reportedBudgetExhausted = exhausted;
+        }
+        long clearErrors = processLoop.getIdleClearErrors();
+        if(clearErrors != reportedClearErrors) {
+            log.error("could not clear idle Jack ports: " + (clearErrors - reportedClearErrors) + " times");
+            reportedClearErrors = clearErrors;
+        }
+        for(JackToSys j2s : snapshot.getJackToSys()) {
+            double rate = j2s.getThroughput().sample();
+            double wireRate = j2s.getSysMidi().getOutputWire().getWireBytes().sample();
+            double utilization = MidiMessageUtils.getWireUtilization(wireRate);
+            if(rate > 0.0) {
+                log.info(String.format("from Jack: %s - %.0f bytes/sec - wire: %.0f bytes/sec" +
+                    " (%.1f%%) - dropped: %d - oversized: %d - coalesced: %d - errors: %d",
+                    j2s.getSysMidi().getOutputDeviceNameOpened(), rate, wireRate, utilization,
+                    j2s.getDroppedEvents(), j2s.getOversizedEvents(), j2s.getCoalescedEvents(),
+                    j2s.getErrors()));
+            }
+            RateShaper shaper = j2s.getShaper();
+            if(shaper != null && (shaper.getBacklog() > 0 || shaper.getDroppedEvents() > 0)) {
+                log.info(String.format("paced output: %s - backlog: %d - high water: %d - dropped: %d",
+                    j2s.getSysMidi().getOutputDeviceNameOpened(), shaper.getBacklog(),
+                    shaper.getHighWaterMark(), shaper.getDroppedEvents()));
+            }
+            if(utilization >= WIRE_WARN_PERCENT) {
+                log.warn(String.format("system output near saturation: %s - %.1f%% of 31.25 kbaud",
+                    j2s.getSysMidi().getOutputDeviceNameOpened(), utilization));
+            }
+        }
+    }
+    
     /**
      * Loads a list of port aliases from a file to use as port names
      * 
      * @param filename the filename of port aliases
+     * @param inAliases where to put the input aliases
+     * @param outAliases where to put the output aliases
+     * @param lingerTimes where to put the linger times
      * @throws IOException if there was a problem reading the file 
      */
-    private void loadSystemPortAliases(String filename) throws IOException {
+    private void loadSystemPortAliases(String filename, SystemPortAliases inAliases,
+            SystemPortAliases outAliases, HashMap<String, Integer> lingerTimes) throws IOException {
         log.info("loading system port aliases");
         BufferedReader in = new BufferedReader(new FileReader(filename));
         while(in.ready()) {
@@ -449,17 +1385,44 @@ public class AMidiJ implements JackClientListener, SystemMidiReceiveHandler {
             // in aliases
             if(parts[0].equalsIgnoreCase("in")) {
                 log.info("IN port alias: " + parts[1] + " = " + parts[2]);
-                inPortAliases.addAlias(parts[1], parts[2]);
+                inAliases.addAlias(parts[1], parts[2]);
             }
             // out aliases
             else if(parts[0].equalsIgnoreCase("out")) {
                 log.info("OUT port alias: " + parts[1] + " = " + parts[2]);
-                outPortAliases.addAlias(parts[1], parts[2]);
+                outAliases.addAlias(parts[1], parts[2]);
+            }
+            // linger time for one port
+            else if(parts[0].equalsIgnoreCase("linger")) {
+                try {
+                    lingerTimes.put(parts[1], Integer.parseInt(parts[2].trim()));
+                } catch (NumberFormatException e) {
+                    in.close();
+                    throw new IOException("malformed linger time: " + line);
+                }
+                log.info("port linger time: " + parts[1] + " = " + parts[2] + " ms");
             }
         }
         in.close();
     }
     
+    /**
+     * Parses the number from a name=value argument. Exits on error.
+     * 
+     * @param arg the argument
+     * @return the value
+     */
+    private int parseIntArg(String arg) {
+        String parts[] = arg.split("=");
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            log.error("malformed argment: " + arg);
+            System.exit(1);
+        }
+        return 0;
+    }
+    
     /**
      * Prints program usage.
      */
@@ -467,8 +1430,44 @@ public class AMidiJ implements JackClientListener, SystemMidiReceiveHandler {
         log.info("AMidiJ - usage:");
         log.info("  arguments:");
         log.info("    --help                  - print this message");
-        log.info("    --portaliases=filename  - load a set of system port aliases");
+        log.info("    --outputthread          - send to system ports from a separate thread");
+        log.info("    --sysexbuffer=bytes     - largest SysEx message to pass (default: " +
+            SysToJackQueue.DEFAULT_SYSEX_BUFFER_SIZE + ")");
+        log.info("    --coalesce=millis       - send only the newest controller, bend and pressure");
+        log.info("                              values to system ports within this window (default: 0)");
+        log.info("    --outputrate=bytes      - pace system ports to this many bytes/sec, notes and");
+        log.info("                              realtime first (default: 0 - off, DIN MIDI is " +
+            MidiProtocol.MIDI_WIRE_BYTES_PER_SECOND + ")");
+        log.info("    --outputbacklog=events  - most events waiting per lane while pacing (default: " +
+            RateShaper.DEFAULT_BACKLOG + ")");
+        log.info("    --portbudget=events     - most events per port per cycle (default: Jack buffer)");
+        log.info("    --cyclebudget=events    - most events for all ports per cycle (default: none)");
+        log.info("    --overload=policy       - when over budget or a pacing lane is full: defer,");
+        log.info("                              dropoldest or priority");
+        log.info("    --simulate=devices      - run on an in-memory Jack server with this many");
+        log.info("                              made up MIDI devices (default: 0 - off)");
+        log.info("    --simulaterate=events   - simulated traffic per port in events/sec (default: 0)");
+        log.info("    --simulatechurn=millis  - disconnect and reconnect a simulated link this often");
+        log.info("                              for soak testing, use with --linger=0 (default: 0 - off)");
+        log.info("    --hotplugdir=path       - scan when devices appear here (default: " +
+            HotplugWatcher.DEFAULT_DIR + ", empty polls every " + SCAN_MILLIS + " ms)");
+        log.info("    --procasound[=path]     - list ALSA devices from procfs and only use JavaSound");
+        log.info("                              to open them (default: off, path: " +
+            ProcAsoundMidiBackend.DEFAULT_DIR + ")");
+        log.info("    --scanmillis=millis     - time between scans while watching for devices (default: " +
+            FALLBACK_SCAN_MILLIS + ")");
+        log.info("    --holdmillis=millis     - keep the Jack port and links of a device that went");
+        log.info("                              away for this long (default: " +
+            HotplugHysteresis.DEFAULT_HOLD_MILLIS + ")");
+        log.info("    --settlemillis=millis   - use a device that came back after it stays this long");
+        log.info("                              (default: " + HotplugHysteresis.DEFAULT_SETTLE_MILLIS + ")");
+        log.info("    --linger=millis         - keep a system port open this long after the last Jack");
+        log.info("                              link goes away (default: " + LINGER_MILLIS + ")");
+        log.info("    --metricsport=port      - serve OpenMetrics text at http://127.0.0.1:port/metrics");
+        log.info("                              (default: 0 - off, JMX is always on)");
+        log.info("    --portaliases=filename  - load a set of system port aliases, reloaded when it changes");
         log.info("       format: {IN|OUT}=systemportname=alias");
+        log.info("           or: LINGER=alias=millis");
     }
     
     @Override
@@ -478,11 +1477,21 @@ public class AMidiJ implements JackClientListener, SystemMidiReceiveHandler {
             return;
         }
 //        log.debug("sys in - time: " + timestamp + " - " + MidiMessageUtils.messageToString(msg));
-        long jackFrameTime = jackClient.getCurrentFrameTime();
-//        log.debug("jackFrameTime: " + jackFrameTime);
-        SysToJackQueue queue = sysToJackQueues.get(source.getInputDeviceNameOpened());
+        SystemPort port = inPorts.get(source.getPortId());
+        // an interface waiting for its deferred close may still deliver
+        // while a new one feeds the port - only one may write the queue
+        if(port == null || port.midi != source) {
+            return;
+        }
+        SysToJackQueue queue = port.sysToJack;
         if(queue != null) {
-            queue.addQueue(new TimedMessage(msg, jackFrameTime));
+            // convert the device timestamp without calling into Jack
+            long jackFrameTime = queue.getClock().toFrames(timestamp);
+            if(jackFrameTime < 0) {
+                jackFrameTime = jackClient.getCurrentFrameTime();  // clocks not locked yet
+            }
+//            log.debug("jackFrameTime: " + jackFrameTime);
+            queue.addMessage(msg, jackFrameTime);
         }
     }
 }
@@ -0,0 +1,137 @@
+/*
+ * Alias File Watcher
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Watches the port alias file and runs a reload when it changes. The
+ * directory is watched rather than the file since most editors save by
+ * writing a new file and renaming it over the old one.
+ */
+public class AliasFileWatcher extends Thread {
+    public static final long SETTLE_MILLIS = 100;  // an editor save is several events
+    Logger log;
+    Path dir;
+    Path fileName;
+    Runnable reload;
+    WatchService watcher;
+    volatile boolean running;
+    volatile long reloads;  // only written by this thread
+    
+    /**
+     * Creates an AliasFileWatcher. The thread must be started by the caller.
+     * 
+     * @param filename the alias file
+     * @param reload what to run when the file changes
+     * @throws IOException if the directory can not be watched
+     */
+    public AliasFileWatcher(String filename, Runnable reload) throws IOException {
+        super("amidij-aliases");
+        log = LogManager.getLogger(this.getClass());
+        Path path = Paths.get(filename).toAbsolutePath();
+        dir = path.getParent();
+        fileName = path.getFileName();
+        this.reload = reload;
+        watcher = FileSystems.getDefault().newWatchService();
+        try {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            watcher.close();
+            throw e;
+        }
+        running = true;
+        reloads = 0;
+        setDaemon(true);
+    }
+    
+    /**
+     * Gets the number of times the file was reloaded.
+     * 
+     * @return the number of reloads
+     */
+    public long getReloads() {
+        return reloads;
+    }
+    
+    /**
+     * Stops the thread.
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            log.error(e.toString());
+        }
+    }
+    
+    @Override
+    public void run() {
+        log.info("watching port aliases: " + dir.resolve(fileName));
+        try {
+            WatchKey key = watcher.take();
+            while(running) {
+                // wait for the save to finish
+                boolean changed = false;
+                while(key != null) {
+                    for(WatchEvent<?> event : key.pollEvents()) {
+                        if(fileName.equals(event.context())) {
+                            changed = true;
+                        }
+                    }
+                    if(!key.reset()) {
+                        log.warn("alias directory went away: " + dir + " - no longer reloading");
+                        return;
+                    }
+                    key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if(changed) {
+                    reloads ++;
+                    // a bad reload must not stop the ones after it
+                    try {
+                        reload.run();
+                    } catch (RuntimeException e) {
+                        log.error("error reloading port aliases: " + e.toString());
+                    }
+                }
+                key = watcher.take();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+}
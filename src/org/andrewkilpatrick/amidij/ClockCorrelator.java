@@ -0,0 +1,174 @@
+/*
+ * Clock Correlator
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+import org.andrewkilpatrick.amidij.jack.JackBackend;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Samples device clocks against Jack frame time off the process thread
+ * so timestamps can be converted in both directions without native calls
+ * per message.
+ */
+public class ClockCorrelator extends Thread {
+    public static final int UPDATE_MILLIS = 100;  // time between samples
+    public static final double LOOP_BANDWIDTH = 0.05;  // Hz
+    public static final int REPORT_MILLIS = 60000;  // time between drift reports
+    public static final int SAMPLE_TRIES = 3;  // reads per sample to reject preemption
+    Logger log;
+    JackBackend jackClient;
+    DeviceClock systemClock;
+    CopyOnWriteArrayList<DeviceClock> clocks;
+    volatile boolean running;
+    
+    /**
+     * Creates a ClockCorrelator. The thread must be started by the caller.
+     * 
+     * @param jackClient the Jack client to read frame time from
+     */
+    public ClockCorrelator(JackBackend jackClient) {
+        super("amidij-clock");
+        log = LogManager.getLogger(this.getClass());
+        this.jackClient = jackClient;
+        clocks = new CopyOnWriteArrayList<>();
+        systemClock = createClock("system", () -> System.nanoTime() / 1000, null);
+        running = true;
+        setDaemon(true);
+    }
+    
+    /**
+     * Creates a clock and starts tracking it.
+     * 
+     * @param name the name for logging
+     * @param microsSource the device time source in microseconds
+     * @return the new clock
+     */
+    public DeviceClock createClock(String name, LongSupplier microsSource) {
+        return createClock(name, microsSource, systemClock);
+    }
+    
+    /**
+     * Stops tracking a clock.
+     * 
+     * @param clock the clock to remove
+     */
+    public void removeClock(DeviceClock clock) {
+        clocks.remove(clock);
+    }
+    
+    /**
+     * Gets the system clock which tracks System.nanoTime().
+     * 
+     * @return the system clock
+     */
+    public DeviceClock getSystemClock() {
+        return systemClock;
+    }
+    
+    /**
+     * Stops the thread.
+     */
+    public void shutdown() {
+        running = false;
+        interrupt();
+    }
+    
+    @Override
+    public void run() {
+        long nextReport = System.currentTimeMillis() + REPORT_MILLIS;
+        while(running) {
+            for(DeviceClock clock : clocks) {
+                // a device closing under us must not stop the others
+                try {
+                    sample(clock);
+                } catch (RuntimeException e) {
+                    log.error("error sampling clock: " + clock.getName() + " - " + e.toString());
+                }
+            }
+            if(System.currentTimeMillis() >= nextReport) {
+                report();
+                nextReport += REPORT_MILLIS;
+            }
+            try {
+                Thread.sleep(UPDATE_MILLIS);
+            } catch (InterruptedException e) {
+                // shutting down
+            }
+        }
+    }
+    
+    /**
+     * Logs the measured drift for each clock.
+     */
+    public void report() {
+        for(DeviceClock clock : clocks) {
+            if(clock.getModel() == null) {
+                continue;
+            }
+            log.info(String.format("clock drift: %s - %.1f ppm - resets: %d",
+                clock.getName(), clock.getDriftPpm(), clock.getResets()));
+        }
+    }
+    
+    /*
+     * private methods
+     */
+    private DeviceClock createClock(String name, LongSupplier microsSource, DeviceClock fallback) {
+        DeviceClock clock = new DeviceClock(name, microsSource, fallback);
+        clock.configure(jackClient.getSamplerate(), UPDATE_MILLIS / 1000.0, LOOP_BANDWIDTH);
+        clocks.add(clock);
+        return clock;
+    }
+    
+    /**
+     * Reads the device and Jack clocks as close together as possible and
+     * updates the loop. The read with the shortest wall time is kept so a
+     * preempted read does not add jitter.
+     */
+    private void sample(DeviceClock clock) {
+        long bestMicros = -1;
+        long bestFrames = -1;
+        long bestNanos = Long.MAX_VALUE;
+        for(int i = 0; i < SAMPLE_TRIES; i ++) {
+            long start = System.nanoTime();
+            long micros = clock.readMicros();
+            long frames = jackClient.getCurrentFrameTime();
+            long elapsed = System.nanoTime() - start;
+            if(micros < 0 || frames < 0) {
+                return;
+            }
+            if(elapsed < bestNanos) {
+                bestNanos = elapsed;
+                bestMicros = micros;
+                bestFrames = frames;
+            }
+        }
+        // anything more than a few periods off means a clock jumped
+        double maxError = Math.max(jackClient.getBufferSize(), 64) * 4.0;
+        clock.update(bestMicros, bestFrames, maxError);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Clock Model
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+/**
+ * An immutable linear mapping between a device clock in microseconds and
+ * Jack frame time. Instances are published by DeviceClock and can be used
+ * from any thread, including the process loop.
+ */
+public class ClockModel {
+    final long baseMicros;  // device time of the reference point
+    final double baseFrames;  // Jack frame time of the reference point
+    final double framesPerMicro;  // measured rate
+    final double driftPpm;  // measured rate compared to the nominal rate
+    
+    /**
+     * Creates a ClockModel.
+     * 
+     * @param baseMicros the device time of the reference point
+     * @param baseFrames the Jack frame time of the reference point
+     * @param framesPerMicro the measured rate in frames per microsecond
+     * @param nominalFramesPerMicro the nominal rate in frames per microsecond
+     */
+    public ClockModel(long baseMicros, double baseFrames, double framesPerMicro,
+            double nominalFramesPerMicro) {
+        this.baseMicros = baseMicros;
+        this.baseFrames = baseFrames;
+        this.framesPerMicro = framesPerMicro;
+        driftPpm = (framesPerMicro / nominalFramesPerMicro - 1.0) * 1000000.0;
+    }
+    
+    /**
+     * Converts a device time to Jack frame time.
+     * 
+     * @param micros the device time in microseconds
+     * @return the Jack frame time
+     */
+    public long toFrames(long micros) {
+        return (long)(baseFrames + framesPerMicro * (double)(micros - baseMicros));
+    }
+    
+    /**
+     * Converts a Jack frame time to device time.
+     * 
+     * @param frames the Jack frame time
+     * @return the device time in microseconds
+     */
+    public long toMicros(long frames) {
+        return baseMicros + (long)(((double)frames - baseFrames) / framesPerMicro);
+    }
+    
+    /**
+     * Gets the measured rate.
+     * 
+     * @return the rate in frames per microsecond
+     */
+    public double getFramesPerMicro() {
+        return framesPerMicro;
+    }
+    
+    /**
+     * Gets the measured drift against the nominal rate.
+     * 
+     * @return the drift in parts per million
+     */
+    public double getDriftPpm() {
+        return driftPpm;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Device Clock
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks one device clock against Jack frame time with a second order
+ * delay-locked loop. The loop is updated by the ClockCorrelator thread
+ * and the result is published as an immutable ClockModel.
+ */
+public class DeviceClock {
+    String name;
+    LongSupplier microsSource;  // device time in microseconds or -1
+    DeviceClock fallback;  // used when the device has no usable clock
+    volatile ClockModel model;  // null until the loop has a first sample
+    // loop state - correlator thread only
+    double loopB;
+    double loopC;
+    double nominalFramesPerMicro;
+    double framesPerMicro;
+    long lastMicros;
+    double lastFrames;
+    long samples;
+    long resets;
+    
+    /**
+     * Creates a DeviceClock.
+     * 
+     * @param name the name for logging
+     * @param microsSource the device time source in microseconds
+     * @param fallback the clock to use when the device time is not available
+     */
+    public DeviceClock(String name, LongSupplier microsSource, DeviceClock fallback) {
+        this.name = name;
+        this.microsSource = microsSource;
+        this.fallback = fallback;
+        model = null;
+        samples = 0;
+        resets = 0;
+    }
+    
+    /**
+     * Sets up the loop filter. This resets the loop.
+     * 
+     * @param samplerate the Jack samplerate
+     * @param updateSeconds the time between updates
+     * @param bandwidth the loop bandwidth in Hz
+     */
+    public void configure(int samplerate, double updateSeconds, double bandwidth) {
+        double omega = 2.0 * Math.PI * bandwidth * updateSeconds;
+        loopB = Math.sqrt(2.0) * omega;
+        loopC = omega * omega;
+        nominalFramesPerMicro = (double)samplerate / 1000000.0;
+        reset();
+    }
+    
+    /**
+     * Resets the loop so the next sample is taken as the reference.
+     */
+    public void reset() {
+        framesPerMicro = nominalFramesPerMicro;
+        samples = 0;
+        model = null;
+    }
+    
+    /**
+     * Reads the device time.
+     * 
+     * @return the device time in microseconds or -1 if not available
+     */
+    public long readMicros() {
+        return microsSource.getAsLong();
+    }
+    
+    /**
+     * Updates the loop with a new pair of readings. This is called by the
+     * correlator thread only.
+     * 
+     * @param micros the device time in microseconds
+     * @param frames the Jack frame time read at the same moment
+     * @param maxErrorFrames the error above which the loop is reset
+     */
+    public void update(long micros, long frames, double maxErrorFrames) {
+        if(micros < 0 || frames < 0) {
+            return;
+        }
+        if(samples == 0) {
+            lastMicros = micros;
+            lastFrames = frames;
+        }
+        else {
+            long dt = micros - lastMicros;
+            if(dt <= 0) {
+                return;
+            }
+            double predicted = lastFrames + framesPerMicro * (double)dt;
+            double error = (double)frames - predicted;
+            // the device or Jack clock jumped - start again
+            if(Math.abs(error) > maxErrorFrames) {
+                resets ++;
+                reset();
+                update(micros, frames, maxErrorFrames);
+                return;
+            }
+            lastFrames = predicted + loopB * error;
+            lastMicros = micros;
+            framesPerMicro += loopC * error / (double)dt;
+        }
+        samples ++;
+        model = new ClockModel(lastMicros, lastFrames, framesPerMicro, nominalFramesPerMicro);
+    }
+    
+    /**
+     * Converts a device time to Jack frame time. If the device time or
+     * the model is not available the fallback clock is used at the
+     * current time.
+     * 
+     * @param micros the device time in microseconds or -1
+     * @return the Jack frame time or -1 if it can't be worked out yet
+     */
+    public long toFrames(long micros) {
+        ClockModel m = model;
+        if(micros >= 0 && m != null) {
+            return m.toFrames(micros);
+        }
+        if(fallback != null) {
+            return fallback.toFrames(fallback.readMicros());
+        }
+        return -1;
+    }
+    
+    /**
+     * Converts a Jack frame time to device time.
+     * 
+     * @param frames the Jack frame time
+     * @return the device time in microseconds or -1 if not available
+     */
+    public long toMicros(long frames) {
+        ClockModel m = model;
+        if(m == null) {
+            return -1;
+        }
+        return m.toMicros(frames);
+    }
+    
+    /**
+     * Gets the current model.
+     * 
+     * @return the model or null if the loop has no samples yet
+     */
+    public ClockModel getModel() {
+        return model;
+    }
+    
+    /**
+     * Gets the measured drift against the nominal samplerate.
+     * 
+     * @return the drift in parts per million or 0 if not known
+     */
+    public double getDriftPpm() {
+        ClockModel m = model;
+        if(m == null) {
+            return 0.0;
+        }
+        return m.getDriftPpm();
+    }
+    
+    /**
+     * Gets the number of times the loop was reset because a clock jumped.
+     * 
+     * @return the number of resets
+     */
+    public long getResets() {
+        return resets;
+    }
+    
+    /**
+     * Gets the name.
+     * 
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+}
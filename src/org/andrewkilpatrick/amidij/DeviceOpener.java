@@ -0,0 +1,144 @@
+/*
+ * Device Opener
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Opens and closes system devices on worker threads so a slow device does
+ * not hold up the Jack notification thread. Tasks for the same device run
+ * one after the other in the order they were given, so a close always
+ * waits for the open before it. Tasks for different devices run at the
+ * same time.
+ */
+public class DeviceOpener {
+    public static final long IDLE_MILLIS = 1000;  // time an idle worker thread is kept
+    Logger log;
+    ExecutorService executor;
+    // guarded by this
+    HashMap<String, CompletableFuture<Void>> tails;  // device name, last task
+    HashSet<String> opening;  // device name
+    
+    /**
+     * Creates a DeviceOpener.
+     */
+    public DeviceOpener() {
+        log = LogManager.getLogger(this.getClass());
+        // tasks come in bursts when routes are reclaimed so idle threads go soon
+        executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, IDLE_MILLIS, TimeUnit.MILLISECONDS,
+            new SynchronousQueue<>(), r -> {
+                Thread t = new Thread(r, "amidij-device");
+                t.setDaemon(true);
+                return t;
+            });
+        tails = new HashMap<>();
+        opening = new HashSet<>();
+    }
+    
+    /**
+     * Queues a device to be opened unless it is already being opened.
+     * 
+     * @param name the device name
+     * @param task opens the device
+     * @return true if the task was queued, false if an open was already
+     * waiting
+     */
+    public synchronized boolean open(String name, Runnable task) {
+        if(!opening.add(name)) {
+            return false;
+        }
+        chain(name, () -> {
+            try {
+                task.run();
+            } finally {
+                synchronized(this) {
+                    opening.remove(name);
+                }
+            }
+        });
+        return true;
+    }
+    
+    /**
+     * Queues a device to be closed after anything already queued for it.
+     * 
+     * @param name the device name
+     * @param task closes the device
+     */
+    public synchronized void close(String name, Runnable task) {
+        chain(name, task);
+    }
+    
+    /**
+     * Checks if a device is waiting to be opened.
+     * 
+     * @param name the device name
+     * @return true if an open is queued or running
+     */
+    public synchronized boolean isOpening(String name) {
+        return opening.contains(name);
+    }
+    
+    /**
+     * Gets the number of devices with tasks queued or running.
+     * 
+     * @return the number of devices
+     */
+    public synchronized int getBusyCount() {
+        return tails.size();
+    }
+    
+    /**
+     * Runs a task after the last task for the same device.
+     */
+    private void chain(String name, Runnable task) {
+        Runnable safe = () -> {
+            // a failed task must not stop the ones after it
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("error in device task: " + name + " - " + e.toString());
+            }
+        };
+        CompletableFuture<Void> tail = tails.get(name);
+        CompletableFuture<Void> next = tail == null ? CompletableFuture.runAsync(safe, executor) :
+            tail.thenRunAsync(safe, executor);
+        tails.put(name, next);
+        next.whenComplete((v, e) -> {
+            synchronized(this) {
+                if(tails.get(name) == next) {
+                    tails.remove(name);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Hotplug Hysteresis
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import java.util.HashMap;
+
+/**
+ * Keeps track of system ports that went away so a device on a bad cable
+ * or hub does not unregister and register its Jack port on every flap.
+ * Each Jack port registration makes Jack reorder the graph for every
+ * client, so a storm of them causes xruns everywhere.
+ * 
+ * A port that goes away is held for the hold time before its Jack port
+ * is removed. A held port that comes back must stay for the settle time
+ * before it is used again. If it goes away again while settling it goes
+ * back to being held, still counting from when it first went away, so a
+ * device that never settles is removed once the hold time is up.
+ * 
+ * This is only used by the scan thread and is not thread safe.
+ */
+public class HotplugHysteresis {
+    public static final int DEFAULT_HOLD_MILLIS = 3000;
+    public static final int DEFAULT_SETTLE_MILLIS = 250;
+    final long holdMillis;
+    final long settleMillis;
+    HashMap<String, Hold> holds;  // port name, hold
+    
+    /**
+     * Creates a HotplugHysteresis.
+     * 
+     * @param holdMillis how long to keep a port that went away - 0 removes
+     * it on the first scan it is missing from
+     * @param settleMillis how long a held port must be back before it is
+     * used again
+     */
+    public HotplugHysteresis(long holdMillis, long settleMillis) {
+        this.holdMillis = holdMillis;
+        this.settleMillis = settleMillis;
+        holds = new HashMap<>();
+    }
+    
+    /**
+     * Checks if a port is being held.
+     * 
+     * @param name the port name
+     * @return true if the port went away and is being held
+     */
+    public boolean isHeld(String name) {
+        return holds.containsKey(name);
+    }
+    
+    /**
+     * Checks if any ports are being held.
+     * 
+     * @return true if ports are being held
+     */
+    public boolean hasHolds() {
+        return !holds.isEmpty();
+    }
+    
+    /**
+     * Holds a port that was missing from a scan. A port that was already
+     * held keeps the time it first went away.
+     * 
+     * @param name the port name
+     * @param now the current time in milliseconds
+     */
+    public void hold(String name, long now) {
+        Hold hold = holds.get(name);
+        if(hold == null) {
+            holds.put(name, new Hold(now));
+        }
+        else {
+            hold.returnedMillis = -1;
+        }
+    }
+    
+    /**
+     * Checks if a held port has been gone for the full hold time.
+     * 
+     * @param name the port name
+     * @param now the current time in milliseconds
+     * @return true if the port should be removed
+     */
+    public boolean isExpired(String name, long now) {
+        Hold hold = holds.get(name);
+        return hold != null && now - hold.missingMillis >= holdMillis;
+    }
+    
+    /**
+     * Notes that a held port was found by a scan.
+     * 
+     * @param name the port name
+     * @param now the current time in milliseconds
+     * @return true if the port has been back for the settle time and is
+     * no longer held, false if it is still settling
+     */
+    public boolean settle(String name, long now) {
+        Hold hold = holds.get(name);
+        if(hold == null) {
+            return true;
+        }
+        if(hold.returnedMillis < 0) {
+            hold.returnedMillis = now;
+        }
+        if(now - hold.returnedMillis < settleMillis) {
+            return false;
+        }
+        holds.remove(name);
+        return true;
+    }
+    
+    /**
+     * Stops holding a port.
+     * 
+     * @param name the port name
+     */
+    public void release(String name) {
+        holds.remove(name);
+    }
+    
+    /**
+     * Gets the time until a held port should be checked again.
+     * 
+     * @param now the current time in milliseconds
+     * @return the time in milliseconds, 0 if due now or Long.MAX_VALUE if
+     * nothing is held
+     */
+    public long getMillisUntilDue(long now) {
+        long due = Long.MAX_VALUE;
+        for(Hold hold : holds.values()) {
+            if(hold.returnedMillis < 0) {
+                due = Math.min(due, hold.missingMillis + holdMillis - now);
+            }
+            else {
+                due = Math.min(due, hold.returnedMillis + settleMillis - now);
+            }
+        }
+        return Math.max(0, due);
+    }
+    
+    static class Hold {
+        final long missingMillis;  // when the port first went away
+        long returnedMillis;  // when the port came back or -1 if still away
+        
+        Hold(long missingMillis) {
+            this.missingMillis = missingMillis;
+            returnedMillis = -1;
+        }
+    }
+}
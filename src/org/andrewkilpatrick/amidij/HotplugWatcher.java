@@ -0,0 +1,181 @@
+/*
+ * Hotplug Watcher
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Watches the sound device directory and wakes the scan loop when device
+ * nodes come and go, so a new device shows up right away instead of at
+ * the next poll.
+ * 
+ * Only creates and deletes are watched. Writing to a rawmidi node counts
+ * as a modify, so watching those would rescan on every message sent.
+ */
+public class HotplugWatcher extends Thread {
+    public static final String DEFAULT_DIR = "/dev/snd";
+    public static final long SETTLE_MILLIS = 20;  // a card adds several nodes at once
+    public static final long CONFIRM_MILLIS = 250;  // scan again after udev sets permissions
+    Logger log;
+    Path dir;
+    WatchService watcher;
+    volatile boolean running;
+    volatile long changes;  // only written by this thread
+    Object signal = new Object();
+    boolean changed;  // guarded by signal
+    
+    /**
+     * Creates a HotplugWatcher. The thread must be started by the caller.
+     * 
+     * @param dirName the directory to watch
+     * @throws IOException if the directory can not be watched
+     */
+    public HotplugWatcher(String dirName) throws IOException {
+        super("amidij-hotplug");
+        log = LogManager.getLogger(this.getClass());
+        dir = Paths.get(dirName);
+        watcher = FileSystems.getDefault().newWatchService();
+        try {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            watcher.close();
+            throw e;
+        }
+        running = true;
+        changes = 0;
+        changed = false;
+        setDaemon(true);
+    }
+    
+    /**
+     * Waits until a change is seen or the time runs out.
+     * 
+     * @param millis the longest time to wait
+     * @return true if there was a change, false if the time ran out
+     * @throws InterruptedException if the wait was interrupted
+     */
+    public boolean awaitChange(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        synchronized(signal) {
+            while(!changed) {
+                long wait = deadline - System.currentTimeMillis();
+                if(wait <= 0) {
+                    return false;
+                }
+                signal.wait(wait);
+            }
+            changed = false;
+            return true;
+        }
+    }
+    
+    /**
+     * Wakes anything waiting for a change.
+     */
+    public void signalChange() {
+        synchronized(signal) {
+            changed = true;
+            signal.notifyAll();
+        }
+    }
+    
+    /**
+     * Gets the number of changes seen in the directory.
+     * 
+     * @return the number of create and delete events
+     */
+    public long getChanges() {
+        return changes;
+    }
+    
+    /**
+     * Checks if the directory is still being watched. This is false once
+     * the thread has stopped, such as when the directory goes away.
+     * 
+     * @return true if changes are still seen
+     */
+    public boolean isWatching() {
+        return running;
+    }
+    
+    /**
+     * Stops the thread.
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            log.error(e.toString());
+        }
+    }
+    
+    @Override
+    public void run() {
+        log.info("watching for devices in: " + dir);
+        try {
+            WatchKey key = watcher.take();
+            while(running) {
+                // let the burst of nodes from one card settle
+                while(key != null) {
+                    changes += key.pollEvents().size();
+                    if(!key.reset()) {
+                        log.warn("device directory went away: " + dir + " - polling only");
+                        return;
+                    }
+                    key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                signalChange();
+                // the device may not be readable yet so look once more
+                key = watcher.poll(CONFIRM_MILLIS, TimeUnit.MILLISECONDS);
+                if(key == null) {
+                    signalChange();
+                    key = watcher.take();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        } finally {
+            // let the main loop see that nothing is watched any more
+            running = false;
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                log.error(e.toString());
+            }
+            signalChange();
+        }
+    }
+}
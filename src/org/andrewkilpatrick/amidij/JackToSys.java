@@ -22,22 +22,598 @@
  */
 package org.andrewkilpatrick.amidij;
 
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
 import org.andrewkilpatrick.amidij.alsaMidi.SystemMidiInterface;
-import org.jaudiolibs.jnajack.JackPort;
+import org.andrewkilpatrick.amidij.jack.MidiPortBuffer;
+import org.andrewkilpatrick.amidij.util.MidiCoalescer;
+import org.andrewkilpatrick.amidij.util.MidiEventRing;
+import org.andrewkilpatrick.amidij.util.MidiEventSink;
+import org.andrewkilpatrick.amidij.util.ThroughputMeter;
 
-public class JackToSys {
+public class JackToSys implements MidiEventSink, RouteCounters {
     SystemMidiInterface sysMidi;  // system MIDI interface
-    JackPort jackPort;  // to jack
+    MidiPortBuffer jackPort;  // from jack
+    DeviceClock clock;  // system port clock
+    // preallocated so the process loop does not allocate
+    ShortMessage shortMsg;  // reused message holder
+    SysexMessage sysexMsg;  // reused message holder
+    byte eventData[];  // scratch buffer for event data
+    byte sysexData[];  // scratch buffer for SysEx continuations
+    boolean sysexOpen;  // a SysEx split over several events is being sent
+    ThroughputMeter throughput;  // bytes read from Jack
+    MidiCoalescer coalescer;  // null if coalescing is off
+    MidiEventSink output;  // where events go after the coalescer
+    RateShaper shaper;  // null if output is not paced
+    // output thread mode
+    MidiEventRing ring;  // process thread to sender thread
+    JackToSysSender sender;
+    boolean eventsQueued;  // process thread only
+    // events read before the device was open when there is no sender thread
+    MidiEventRing pending;  // null once sent
+    byte pendingData[];
+    volatile boolean deviceOpen;
+    volatile long droppedEvents;  // only written by the process thread
+    volatile long oversizedEvents;  // only written by the process thread
+    volatile long errors;  // only written by the process thread
+    volatile long discardedEvents;  // only written by the sender thread when it stops
+    volatile int highWaterMark;  // only written by the process thread
+    volatile long readEvents;  // only written by the process thread
+    volatile long lastEventNanos;  // only written by the process thread
+    // passed to the system port - written by the process or sender thread
+    volatile long outputEvents;
+    volatile long outputBytes;
     
     /**
      * Creates a JackToSys instance.
      * 
      * @param sysMidi the system MIDI interface
-     * @param jackPort the jack port to read from
+     * @param jackPort the jack port buffer to read from
+     * @param clock the system port clock
+     * @param bufferSize the current Jack buffer size in frames
+     * @param sysexBufferSize the largest SysEx message to pass in bytes
+     * @param outputThread true to send to the system port from a separate
+     * thread, false to send directly from the process loop
+     * @param coalesceNanos how long to hold continuous data so only the
+     * newest value is sent, or 0 to send everything
+     * @param outputRate the wire bytes per second to pace output to, or 0
+     * to send as fast as possible - pacing needs a sender thread so one is
+     * started even if outputThread is false
+     * @param outputBacklog the most events to hold in each lane while pacing
+     * @param policy what to do when a pacing lane is full
      */
-    public JackToSys(SystemMidiInterface sysMidi, JackPort jackPort) {
+    public JackToSys(SystemMidiInterface sysMidi, MidiPortBuffer jackPort, DeviceClock clock,
+            int bufferSize, int sysexBufferSize, boolean outputThread, long coalesceNanos,
+            int outputRate, int outputBacklog, OverloadPolicy policy) {
         this.sysMidi = sysMidi;
         this.jackPort = jackPort;
+        this.clock = clock;
+        shortMsg = new ShortMessage();
+        sysexOpen = false;
+        throughput = new ThroughputMeter();
+        coalescer = null;
+        if(coalesceNanos > 0) {
+            coalescer = new MidiCoalescer(coalesceNanos);
+        }
+        output = this;
+        shaper = null;
+        ring = null;
+        sender = null;
+        eventsQueued = false;
+        pending = null;
+        deviceOpen = true;
+        droppedEvents = 0;
+        highWaterMark = 0;
+        readEvents = 0;
+        lastEventNanos = 0;
+        outputEvents = 0;
+        outputBytes = 0;
+        if(outputRate > 0) {
+            outputThread = true;
+        }
+        if(outputThread) {
+            ring = SysToJackQueue.createRing(bufferSize, sysexBufferSize);
+        }
+        if(outputRate > 0) {
+            shaper = new RateShaper(this, outputRate, outputBacklog, ring.getArenaSize(), policy);
+            output = shaper;
+        }
+        allocateBuffers(bufferSize);
+        if(outputThread) {
+            sender = new JackToSysSender(this, ring);
+            sender.start();
+        }
+    }
+    
+    /**
+     * Holds events until deviceOpened() is called. With a sender thread the
+     * events wait in its ring, otherwise they wait in a ring of the same
+     * size. Events that do not fit are dropped. This must be called before
+     * the route is published.
+     * 
+     * @param bufferSize the current Jack buffer size in frames
+     * @param sysexBufferSize the largest SysEx message to pass in bytes
+     */
+    public void awaitDeviceOpen(int bufferSize, int sysexBufferSize) {
+        deviceOpen = false;
+        if(sender == null) {
+            pending = SysToJackQueue.createRing(bufferSize, sysexBufferSize);
+            pendingData = new byte[pending.getArenaSize()];
+        }
+    }
+    
+    /**
+     * Sends the events held while the device was being opened. This is
+     * safe to call from any thread.
+     */
+    public void deviceOpened() {
+        deviceOpen = true;
+        if(sender != null) {
+            sender.setName("amidij-sender-" + sysMidi.getOutputDeviceNameOpened());
+            sender.wake();
+        }
+    }
+    
+    /**
+     * Checks if the system device is open.
+     * 
+     * @return true if events are sent, false if they are held
+     */
+    public boolean isDeviceOpen() {
+        return deviceOpen;
+    }
+    
+    /**
+     * Allocates the scratch buffer to hold the largest event that can
+     * fit in a Jack MIDI buffer. This is called when the buffer size
+     * changes and should never be called from the process loop.
+     * 
+     * @param bufferSize the Jack buffer size in frames
+     */
+    public void allocateBuffers(int bufferSize) {
+        // a Jack MIDI buffer is the same size as an audio buffer
+        int size = Math.max(bufferSize, 16) * Float.BYTES;
+        if(eventData == null || eventData.length != size) {
+            eventData = new byte[size];
+        }
+        // the sender thread may get events up to the size of the ring arena
+        if(ring != null) {
+            size = ring.getArenaSize();
+        }
+        if(sysexData == null || sysexData.length < size + 1) {
+            sysexData = new byte[size + 1];
+            // size the message up front so setMessage() never grows it
+            byte init[] = new byte[size + 1];
+            init[0] = (byte)0xf0;
+            init[size] = (byte)0xf7;
+            try {
+                sysexMsg = new SysexMessage(init, init.length);
+            } catch (InvalidMidiDataException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+    
+    /**
+     * Handles an event read from Jack. In output thread mode the event is
+     * copied into the ring for the sender thread, otherwise it is sent to
+     * the system port directly. This is called from the process loop.
+     * 
+     * @param timestamp the system port timestamp in microseconds or -1
+     * @param data the event data
+     * @param length the event length
+     * @throws InvalidMidiDataException if the event could not be sent
+     */
+    public void processEvent(long timestamp, byte data[], int length) throws InvalidMidiDataException {
+        if(sender == null) {
+            if(pending != null) {
+                // hold events until the device is open
+                if(!deviceOpen) {
+                    if(!pending.offer(timestamp, data, 0, length)) {
+                        droppedEvents ++;
+                    }
+                    return;
+                }
+                sendPending();
+            }
+            dispatchEvent(timestamp, data, length);
+            return;
+        }
+        if(!ring.offer(timestamp, data, 0, length)) {
+            droppedEvents ++;
+            return;
+        }
+        int depth = ring.size();
+        if(depth > highWaterMark) {
+            highWaterMark = depth;
+        }
+        eventsQueued = true;
+    }
+    
+    /**
+     * Counts the events read from Jack this cycle. This is called from the
+     * process loop.
+     * 
+     * @param events the number of events read
+     * @param nowNanos the System.nanoTime() of the cycle
+     */
+    public void addReadEvents(int events, long nowNanos) {
+        if(events > 0) {
+            readEvents += events;
+            lastEventNanos = nowNanos;
+        }
+    }
+    
+    /**
+     * Counts an event read from Jack that was too large for the event
+     * buffer. This is called from the process loop.
+     */
+    public void countOversizedEvent() {
+        oversizedEvents ++;
+    }
+    
+    /**
+     * Counts an event that could not be read from Jack or passed on. This
+     * is called from the process loop, which must not log.
+     */
+    public void countError() {
+        errors ++;
+    }
+    
+    /**
+     * Wakes the sender thread if any events were queued this cycle, or
+     * sends any held values that are due when there is no sender thread.
+     * This is called from the process loop at the end of each cycle.
+     * 
+     * @throws InvalidMidiDataException if a held value could not be sent
+     */
+    public void endCycle() throws InvalidMidiDataException {
+        if(sender == null) {
+            if(pending != null && deviceOpen) {
+                sendPending();
+            }
+            flushCoalesced(false);
+            return;
+        }
+        if(eventsQueued) {
+            eventsQueued = false;
+            sender.wake();
+        }
+    }
+    
+    /**
+     * Sends an event to the system port, or holds it in the coalescer if
+     * it is continuous data. Held values are sent before anything that is
+     * not held so the order of events on the wire is kept. When output is
+     * paced the event is queued in the shaper instead of being sent. This
+     * is called from the process loop or from the sender thread, but never
+     * both.
+     * 
+     * @param timestamp the system port timestamp in microseconds or -1
+     * @param data the event data
+     * @param length the event length
+     * @throws InvalidMidiDataException if the event could not be sent
+     */
+    void dispatchEvent(long timestamp, byte data[], int length) throws InvalidMidiDataException {
+        if(coalescer != null) {
+            if(length == 2 || length == 3) {
+                if(coalescer.offer(timestamp, data[0] & 0xff, data[1],
+                        length == 3 ? data[2] : 0)) {
+                    return;
+                }
+            }
+            if(coalescer.hasPending()) {
+                coalescer.flush(output);
+            }
+        }
+        output.sendEvent(timestamp, data, length);
+    }
+    
+    /**
+     * Sends held values to the system port. This is called from the same
+     * thread as dispatchEvent().
+     * 
+     * @param force true to send everything held, false to send only if the
+     * oldest value has waited for the full window
+     * @throws InvalidMidiDataException if a held value could not be sent
+     */
+    void flushCoalesced(boolean force) throws InvalidMidiDataException {
+        if(coalescer == null || !coalescer.hasPending()) {
+            return;
+        }
+        if(force || coalescer.isDue(System.nanoTime())) {
+            coalescer.flush(output);
+        }
+    }
+    
+    /**
+     * Sends as many events queued in the shaper as the rate allows. This
+     * is called from the sender thread.
+     * 
+     * @throws InvalidMidiDataException if an event could not be sent
+     */
+    void serviceShaper() throws InvalidMidiDataException {
+        if(shaper != null) {
+            shaper.service(System.nanoTime());
+        }
+    }
+    
+    /**
+     * Checks if the sender thread still has events to send.
+     * 
+     * @return true if events are waiting in the ring or the shaper
+     */
+    boolean hasQueuedOutput() {
+        return !ring.isEmpty() || (shaper != null && shaper.getBacklog() > 0);
+    }
+    
+    /**
+     * Drops the events still waiting in the ring and the shaper. This is
+     * called from the sender thread when it stops.
+     * 
+     * @return the number of events dropped
+     */
+    int dropQueuedOutput() {
+        int dropped = 0;
+        while(ring.skip()) {
+            dropped ++;
+        }
+        discardedEvents += dropped;
+        if(shaper != null) {
+            dropped += shaper.dropAll();
+        }
+        return dropped;
+    }
+    
+    /**
+     * Checks if the sender thread should take more events from the ring.
+     * 
+     * @return true if more events can be taken, false to leave them until
+     * the device is open or the shaper has room
+     */
+    boolean canAccept() {
+        return deviceOpen && (shaper == null || shaper.canAccept());
+    }
+    
+    /**
+     * Gets the time until held values or paced events should be sent.
+     * 
+     * @return the time in nanoseconds or Long.MAX_VALUE if nothing is
+     * waiting
+     */
+    long getNanosUntilOutput() {
+        long now = System.nanoTime();
+        long nanos = Long.MAX_VALUE;
+        if(coalescer != null) {
+            nanos = coalescer.getNanosUntilDue(now);
+        }
+        if(shaper != null) {
+            nanos = Math.min(nanos, shaper.getNanosUntilReady(now));
+        }
+        return nanos;
+    }
+    
+    /**
+     * Sends an event to the system port. This is called from the process
+     * loop or from the sender thread, but never both.
+     * 
+     * @param timestamp the system port timestamp in microseconds or -1
+     * @param data the event data
+     * @param length the event length
+     * @throws InvalidMidiDataException if the event could not be sent
+     */
+    @Override
+    public void sendEvent(long timestamp, byte data[], int length) throws InvalidMidiDataException {
+        int status = data[0] & 0xff;
+        // SysEx, or the rest of a SysEx that was split over several events
+        if(status == 0xf0 || (status < 0x80 && sysexOpen)) {
+            sendSysex(timestamp, data, length);
+            return;
+        }
+        switch(length) {
+            case 1:
+                shortMsg.setMessage(data[0] & 0xff);
+                break;
+            case 2:
+                shortMsg.setMessage(data[0] & 0xff, data[1] & 0xff, 0);
+                break;
+            case 3:
+                shortMsg.setMessage(data[0] & 0xff, data[1] & 0xff, data[2] & 0xff);
+                break;
+            default:
+                throw new InvalidMidiDataException("unsupported message length: " + length);
+        }
+        sysMidi.sendMessage(shortMsg, timestamp);
+        outputEvents ++;
+        outputBytes += length;
+    }
+    
+    /**
+     * Sends the events held while the device was being opened. This is
+     * called from the process loop.
+     */
+    private void sendPending() throws InvalidMidiDataException {
+        MidiEventRing events = pending;
+        pending = null;
+        while(!events.isEmpty()) {
+            long timestamp = events.peekTimestamp();
+            int length = events.poll(pendingData);
+            if(length > 0) {
+                dispatchEvent(timestamp, pendingData, length);
+            }
+        }
+    }
+    
+    /**
+     * Sends a SysEx message or part of one. Later parts are sent as 0xF7
+     * continuation messages.
+     */
+    private void sendSysex(long timestamp, byte data[], int length) throws InvalidMidiDataException {
+        SysexMessage msg = sysexMsg;
+        if((data[0] & 0xff) == 0xf0) {
+            msg.setMessage(data, length);
+        }
+        else {
+            byte buf[] = sysexData;
+            if(length + 1 > buf.length) {
+                sysexOpen = false;
+                throw new InvalidMidiDataException("SysEx continuation too long: " + length);
+            }
+            buf[0] = (byte)0xf7;
+            System.arraycopy(data, 0, buf, 1, length);
+            msg.setMessage(buf, length + 1);
+        }
+        sysexOpen = (data[length - 1] & 0xff) != 0xf7;
+        sysMidi.sendMessage(msg, timestamp);
+        outputEvents ++;
+        outputBytes += msg.getLength();
+    }
+    
+    /**
+     * Stops the sender thread if there is one. The sender thread sends
+     * the held values and what is left in the ring at the paced rate for
+     * up to JackToSysSender.DRAIN_MILLIS and drops the rest. This must not
+     * be called from the process loop.
+     */
+    public void close() {
+        if(sender != null) {
+            sender.shutdown();
+        }
+    }
+    
+    /**
+     * Checks if events are sent from a separate thread.
+     * 
+     * @return true if there is a sender thread, false otherwise
+     */
+    public boolean isOutputThread() {
+        return sender != null;
+    }
+    
+    /**
+     * Gets the meter for bytes read from Jack.
+     * 
+     * @return the throughput meter
+     */
+    public ThroughputMeter getThroughput() {
+        return throughput;
+    }
+    
+    /**
+     * Gets the number of events dropped because the ring was full.
+     * 
+     * @return the number of dropped events
+     */
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+    
+    /**
+     * Gets the most events that have been waiting in the ring.
+     * 
+     * @return the ring high water mark in events
+     */
+    @Override
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+    
+    @Override
+    public long getEventsIn() {
+        return readEvents;
+    }
+    
+    @Override
+    public long getBytesIn() {
+        return throughput.getTotal();
+    }
+    
+    @Override
+    public long getEventsOut() {
+        return outputEvents;
+    }
+    
+    @Override
+    public long getBytesOut() {
+        return outputBytes;
+    }
+    
+    /**
+     * Gets the number of events read from Jack that were too large for the
+     * event buffer.
+     * 
+     * @return the number of oversized events
+     */
+    public long getOversizedEvents() {
+        return oversizedEvents;
+    }
+    
+    @Override
+    public long getDrops() {
+        long drops = droppedEvents + oversizedEvents + discardedEvents;
+        if(shaper == null) {
+            return drops;
+        }
+        return drops + shaper.getDroppedEvents();
+    }
+    
+    @Override
+    public long getLostEvents() {
+        return 0;  // Jack only loses events written to a port
+    }
+    
+    @Override
+    public long getErrors() {
+        return errors;
+    }
+    
+    @Override
+    public long getLastEventNanos() {
+        return lastEventNanos;
+    }
+    
+    /**
+     * Gets the number of events sent by the sender thread.
+     * 
+     * @return the number of events sent or 0 if there is no sender thread
+     */
+    public long getSentEvents() {
+        if(sender == null) {
+            return 0;
+        }
+        return sender.getSentEvents();
+    }
+    
+    /**
+     * Gets the number of continuous messages replaced by a newer value.
+     * 
+     * @return the number of coalesced events or 0 if coalescing is off
+     */
+    public long getCoalescedEvents() {
+        if(coalescer == null) {
+            return 0;
+        }
+        return coalescer.getCoalescedEvents();
+    }
+    
+    /**
+     * Gets the output rate shaper.
+     * 
+     * @return the shaper or null if output is not paced
+     */
+    public RateShaper getShaper() {
+        return shaper;
+    }
+    
+    /**
+     * Gets the system port clock.
+     * 
+     * @return the clock
+     */
+    public DeviceClock getClock() {
+        return clock;
     }
     
     /**
@@ -50,11 +626,20 @@ public class JackToSys {
     }
     
     /**
-     * Gets the JackPort.
+     * Gets the Jack port buffer.
      * 
-     * @return the JackPort
+     * @return the Jack port buffer
      */
-    public JackPort getJackPort() {
+    public MidiPortBuffer getJackPort() {
         return jackPort;
     }
+    
+    /**
+     * Gets the scratch buffer for event data.
+     * 
+     * @return the scratch buffer
+     */
+    public byte[] getEventData() {
+        return eventData;
+    }
 }
@@ -0,0 +1,175 @@
+/*
+ * Jack to System MIDI Sender
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ *
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.midi.InvalidMidiDataException;
+
+import org.andrewkilpatrick.amidij.util.MidiEventRing;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Drains the ring for one JackToSys route and sends the events to the
+ * system port, so a slow or blocking device never stalls the Jack cycle.
+ */
+public class JackToSysSender extends Thread {
+    public static final long IDLE_NANOS = 10000000;  // wake up at least this often
+    public static final long DRAIN_MILLIS = 500;  // max time to send what is left when stopping
+    public static final long SHUTDOWN_MILLIS = 1000;  // max wait for the thread to stop
+    Logger log;
+    JackToSys route;
+    MidiEventRing ring;
+    byte eventData[];
+    volatile boolean running;
+    volatile long sentEvents;  // only written by this thread
+    long reportedDrops;
+    
+    /**
+     * Creates a JackToSysSender. The thread must be started by the caller.
+     * 
+     * @param route the route to send for
+     * @param ring the ring to drain
+     */
+    public JackToSysSender(JackToSys route, MidiEventRing ring) {
+        super("amidij-sender-" + route.getSysMidi().getOutputDeviceNameOpened());
+        log = LogManager.getLogger(this.getClass());
+        this.route = route;
+        this.ring = ring;
+        eventData = new byte[ring.getArenaSize()];
+        running = true;
+        sentEvents = 0;
+        reportedDrops = 0;
+        setDaemon(true);
+    }
+    
+    @Override
+    public void run() {
+        while(running) {
+            drain();
+            flush(false);
+            service();
+            LockSupport.parkNanos(this, Math.min(IDLE_NANOS, route.getNanosUntilOutput()));
+        }
+        // send what is left at the paced rate for a while, unless the
+        // device never opened, then drop the rest
+        long deadline = System.nanoTime() + DRAIN_MILLIS * 1000000;
+        while(route.isDeviceOpen() && System.nanoTime() < deadline) {
+            drain();
+            flush(true);
+            service();
+            if(!route.hasQueuedOutput()) {
+                break;
+            }
+            LockSupport.parkNanos(this, Math.min(IDLE_NANOS, route.getNanosUntilOutput()));
+        }
+        int discarded = route.dropQueuedOutput();
+        log.info("sender stopped: " + getName() + " - sent: " + sentEvents +
+            " - dropped: " + route.getDroppedEvents() + " - discarded: " + discarded +
+            " - high water: " + route.getHighWaterMark());
+    }
+    
+    /**
+     * Wakes the thread to drain the ring. This is safe to call from the
+     * process loop.
+     */
+    public void wake() {
+        LockSupport.unpark(this);
+    }
+    
+    /**
+     * Stops the thread after it sends what it can of what is left in the
+     * ring. Nothing is sent from the calling thread.
+     */
+    public void shutdown() {
+        running = false;
+        wake();
+        try {
+            join(SHUTDOWN_MILLIS);
+        } catch (InterruptedException e) {
+            log.error(e.toString());
+        }
+        if(isAlive()) {
+            log.warn("sender did not stop: " + getName());
+        }
+    }
+    
+    /**
+     * Gets the number of events sent.
+     * 
+     * @return the number of events sent
+     */
+    public long getSentEvents() {
+        return sentEvents;
+    }
+    
+    /**
+     * Sends values held by the route's coalescer.
+     * 
+     * @param force true to send everything, false to send only if due
+     */
+    private void flush(boolean force) {
+        try {
+            route.flushCoalesced(force);
+        } catch (InvalidMidiDataException e) {
+            log.error(e.toString());
+        }
+    }
+    
+    /**
+     * Sends events queued in the route's rate shaper at the paced rate.
+     */
+    private void service() {
+        try {
+            route.serviceShaper();
+        } catch (InvalidMidiDataException e) {
+            log.error(e.toString());
+        }
+    }
+    
+    /**
+     * Sends everything in the ring, or queues it if output is paced.
+     */
+    private void drain() {
+        while(!ring.isEmpty() && route.canAccept()) {
+            long timestamp = ring.peekTimestamp();
+            int length = ring.poll(eventData);
+            if(length < 1) {
+                continue;
+            }
+            try {
+                route.dispatchEvent(timestamp, eventData, length);
+                sentEvents ++;
+            } catch (InvalidMidiDataException e) {
+                log.error(e.toString());
+            }
+        }
+        long drops = route.getDroppedEvents();
+        if(drops != reportedDrops) {
+            log.warn("output ring overflow: " + getName() + " - dropped: " +
+                (drops - reportedDrops) + " - high water: " + route.getHighWaterMark());
+            reportedDrops = drops;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Metrics HTTP Server
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the metrics in the OpenMetrics text format at /metrics. The
+ * server only listens on the loopback address.
+ */
+public class MetricsHttpServer implements HttpHandler {
+    public static final String PATH = "/metrics";
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+    Logger log;
+    MetricsRegistry metrics;
+    HttpServer server;
+    
+    /**
+     * Creates a MetricsHttpServer. The server must be started by the caller.
+     * 
+     * @param metrics the metrics to serve
+     * @param port the TCP port to listen on
+     * @throws IOException if the port could not be opened
+     */
+    public MetricsHttpServer(MetricsRegistry metrics, int port) throws IOException {
+        log = LogManager.getLogger(this.getClass());
+        this.metrics = metrics;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(PATH, this);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "amidij-metrics");
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+    
+    /**
+     * Starts serving requests.
+     */
+    public void start() {
+        server.start();
+        log.info("metrics at http://" + server.getAddress().getHostString() + ":" +
+            server.getAddress().getPort() + PATH);
+    }
+    
+    /**
+     * Stops serving requests.
+     */
+    public void stop() {
+        server.stop(0);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if(!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte body[] = metrics.toOpenMetrics().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } finally {
+            exchange.close();
+        }
+    }
+}
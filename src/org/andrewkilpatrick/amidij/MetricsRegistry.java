@@ -0,0 +1,293 @@
+/*
+ * Metrics Registry
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Holds the PortMetrics for every system port by alias name and the
+ * bridge wide counters. Everything is registered with the platform MBean
+ * server and can be written out in the OpenMetrics text format.
+ */
+public class MetricsRegistry implements MetricsRegistryMBean {
+    public static final String DOMAIN = "org.andrewkilpatrick.amidij";
+    public static final String PREFIX = "amidij_";
+    Logger log;
+    MBeanServer mbeans;
+    ConcurrentHashMap<String, PortMetrics> inputs;  // alias port name, metrics
+    ConcurrentHashMap<String, PortMetrics> outputs;  // alias port name, metrics
+    // only written by the poll thread
+    volatile long scans;
+    volatile long lastScanNanos;
+    volatile long maxScanNanos;
+    
+    /**
+     * Creates a MetricsRegistry and registers it with the platform MBean
+     * server.
+     */
+    public MetricsRegistry() {
+        log = LogManager.getLogger(this.getClass());
+        mbeans = ManagementFactory.getPlatformMBeanServer();
+        inputs = new ConcurrentHashMap<>();
+        outputs = new ConcurrentHashMap<>();
+        scans = 0;
+        lastScanNanos = 0;
+        maxScanNanos = 0;
+        register(this, DOMAIN + ":type=Bridge");
+    }
+    
+    /**
+     * Gets the metrics for a system input, creating them the first time.
+     * 
+     * @param aliasName the alias port name
+     * @return the metrics
+     */
+    public PortMetrics getInput(String aliasName) {
+        return getPort(inputs, aliasName, PortMetrics.DIRECTION_INPUT);
+    }
+    
+    /**
+     * Gets the metrics for a system output, creating them the first time.
+     * 
+     * @param aliasName the alias port name
+     * @return the metrics
+     */
+    public PortMetrics getOutput(String aliasName) {
+        return getPort(outputs, aliasName, PortMetrics.DIRECTION_OUTPUT);
+    }
+    
+    /**
+     * Removes the metrics for a system input and unregisters them. Routes
+     * still attached keep counting on the old object.
+     * 
+     * @param aliasName the alias port name
+     */
+    public void removeInput(String aliasName) {
+        removePort(inputs, aliasName, PortMetrics.DIRECTION_INPUT);
+    }
+    
+    /**
+     * Removes the metrics for a system output and unregisters them. Routes
+     * still attached keep counting on the old object.
+     * 
+     * @param aliasName the alias port name
+     */
+    public void removeOutput(String aliasName) {
+        removePort(outputs, aliasName, PortMetrics.DIRECTION_OUTPUT);
+    }
+    
+    /**
+     * Unregisters the bridge and every port from the platform MBean server
+     * so another registry can be created in the same JVM.
+     */
+    public void unregister() {
+        for(String aliasName : inputs.keySet()) {
+            removeInput(aliasName);
+        }
+        for(String aliasName : outputs.keySet()) {
+            removeOutput(aliasName);
+        }
+        unregister(DOMAIN + ":type=Bridge");
+    }
+    
+    /**
+     * Records how long a scan for system ports took. This is called from
+     * the poll thread only.
+     * 
+     * @param nanos the scan time in nanoseconds
+     */
+    public void recordScan(long nanos) {
+        scans ++;
+        lastScanNanos = nanos;
+        if(nanos > maxScanNanos) {
+            maxScanNanos = nanos;
+        }
+    }
+    
+    @Override
+    public int getInputPorts() {
+        return inputs.size();
+    }
+    
+    @Override
+    public int getOutputPorts() {
+        return outputs.size();
+    }
+    
+    @Override
+    public long getScans() {
+        return scans;
+    }
+    
+    @Override
+    public long getLastScanMicros() {
+        return lastScanNanos / 1000;
+    }
+    
+    @Override
+    public long getMaxScanMicros() {
+        return maxScanNanos / 1000;
+    }
+    
+    /**
+     * Writes all metrics in the OpenMetrics text format.
+     * 
+     * @return the metrics text
+     */
+    public String toOpenMetrics() {
+        // sorted so the output is stable between scrapes
+        TreeMap<String, PortMetrics> ports = new TreeMap<>();
+        for(PortMetrics port : inputs.values()) {
+            ports.put(PortMetrics.DIRECTION_INPUT + ":" + port.getPortName(), port);
+        }
+        for(PortMetrics port : outputs.values()) {
+            ports.put(PortMetrics.DIRECTION_OUTPUT + ":" + port.getPortName(), port);
+        }
+        StringBuilder out = new StringBuilder();
+        writeFamily(out, ports, "port_events_in", "counter", "Events taken from the source.",
+            PortMetrics::getEventsIn);
+        writeFamily(out, ports, "port_bytes_in", "counter", "Bytes taken from the source.",
+            PortMetrics::getBytesIn);
+        writeFamily(out, ports, "port_events_out", "counter", "Events passed to the destination.",
+            PortMetrics::getEventsOut);
+        writeFamily(out, ports, "port_bytes_out", "counter", "Bytes passed to the destination.",
+            PortMetrics::getBytesOut);
+        writeFamily(out, ports, "port_drops", "counter", "Events dropped for any reason.",
+            PortMetrics::getDrops);
+        writeFamily(out, ports, "port_jack_lost_events", "counter", "Events Jack reported as lost.",
+            PortMetrics::getLostEvents);
+        writeFamily(out, ports, "port_errors", "counter", "Events that could not be read or passed on.",
+            PortMetrics::getErrors);
+        writeFamily(out, ports, "port_device_opens", "counter", "Times the system device was opened.",
+            PortMetrics::getDeviceOpens);
+        writeFamily(out, ports, "port_device_closes", "counter", "Times the system device was closed.",
+            PortMetrics::getDeviceCloses);
+        writeFamily(out, ports, "port_flaps", "counter",
+            "Times the system device came back before its Jack port was removed.", PortMetrics::getFlaps);
+        writeFamily(out, ports, "port_open_seconds", "gauge", "Time the last open of the system device took.",
+            port -> port.getDeviceOpens() == 0 ? -1 : port.getLastOpenMicros() / 1000000.0);
+        writeFamily(out, ports, "port_open_max_seconds", "gauge", "Longest time an open of the system device took.",
+            port -> port.getDeviceOpens() == 0 ? -1 : port.getMaxOpenMicros() / 1000000.0);
+        writeFamily(out, ports, "port_high_water_mark", "gauge", "Most events waiting in the route.",
+            PortMetrics::getHighWaterMark);
+        writeFamily(out, ports, "port_seconds_since_last_event", "gauge",
+            "Time since an event was taken from the source.", PortMetrics::getSecondsSinceLastEvent);
+        writeHeader(out, "scans", "counter", "Scans for system ports.");
+        out.append(PREFIX).append("scans_total ").append(scans).append('\n');
+        writeHeader(out, "scan_seconds", "gauge", "Time the last scan for system ports took.");
+        out.append(PREFIX).append("scan_seconds ").append(lastScanNanos / 1000000000.0).append('\n');
+        writeHeader(out, "scan_max_seconds", "gauge", "Longest time a scan for system ports took.");
+        out.append(PREFIX).append("scan_max_seconds ").append(maxScanNanos / 1000000000.0).append('\n');
+        out.append("# EOF\n");
+        return out.toString();
+    }
+    
+    /*
+     * private methods
+     */
+    private PortMetrics getPort(ConcurrentHashMap<String, PortMetrics> ports,
+            String aliasName, String direction) {
+        return ports.computeIfAbsent(aliasName, name -> {
+            PortMetrics port = new PortMetrics(name, direction);
+            register(port, getPortName(direction, name));
+            return port;
+        });
+    }
+    
+    private void removePort(ConcurrentHashMap<String, PortMetrics> ports,
+            String aliasName, String direction) {
+        if(ports.remove(aliasName) != null) {
+            unregister(getPortName(direction, aliasName));
+        }
+    }
+    
+    private static String getPortName(String direction, String aliasName) {
+        return DOMAIN + ":type=Port,direction=" + direction + ",name=" + ObjectName.quote(aliasName);
+    }
+    
+    private void register(Object mbean, String name) {
+        try {
+            mbeans.registerMBean(mbean, new ObjectName(name));
+        } catch (JMException e) {
+            log.error("error registering MBean: " + name + " - " + e.toString());
+        }
+    }
+    
+    private void unregister(String name) {
+        try {
+            mbeans.unregisterMBean(new ObjectName(name));
+        } catch (JMException e) {
+            log.error("error unregistering MBean: " + name + " - " + e.toString());
+        }
+    }
+    
+    private void writeHeader(StringBuilder out, String name, String type, String help) {
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+    }
+    
+    /**
+     * Writes one metric family with a sample for each port. Counters get
+     * the _total suffix and values below 0 mean there is nothing to report
+     * yet so they are left out.
+     */
+    private void writeFamily(StringBuilder out, Map<String, PortMetrics> ports, String name,
+            String type, String help, ToDoubleFunction<PortMetrics> value) {
+        boolean counter = type.equals("counter");
+        writeHeader(out, name, type, help);
+        for(PortMetrics port : ports.values()) {
+            double v = value.applyAsDouble(port);
+            if(v < 0) {
+                continue;
+            }
+            out.append(PREFIX).append(name);
+            if(counter) {
+                out.append("_total");
+            }
+            out.append("{port=\"").append(escapeLabel(port.getPortName()));
+            out.append("\",direction=\"").append(port.getDirection()).append("\"} ");
+            if(counter) {
+                out.append((long)v);
+            }
+            else {
+                out.append(v);
+            }
+            out.append('\n');
+        }
+    }
+    
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Overload Policy
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+/**
+ * What the process loop does when a port has more events queued than
+ * its per-cycle budget allows.
+ */
+public enum OverloadPolicy {
+    DEFER("defer"),  // leave the rest for the next cycle
+    DROP_OLDEST("dropoldest"),  // drop the oldest events beyond the budget
+    DROP_BY_PRIORITY("priority");  // shed aftertouch first, defer the rest
+    
+    String name;
+    
+    private OverloadPolicy(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Gets the name used on the command line.
+     * 
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Gets a policy by its command line name.
+     * 
+     * @param name the name
+     * @return the policy or null if not found
+     */
+    public static OverloadPolicy fromName(String name) {
+        for(OverloadPolicy policy : values()) {
+            if(policy.name.equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        return null;
+    }
+}
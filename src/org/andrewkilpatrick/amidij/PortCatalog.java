@@ -0,0 +1,261 @@
+/*
+ * Port Catalog
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.andrewkilpatrick.amidij.util.StringUtils;
+
+/**
+ * Gives every system port seen in one direction a dense int ID and builds
+ * its alias and Jack port names once, with tables to get back from any of
+ * the names to the port. Ports are never removed, so an ID stays the same
+ * when a device goes away and comes back.
+ * 
+ * Changes are made by the control threads. get() does not lock so it can
+ * be used on the device receive threads. When the aliases change, ports
+ * are renamed in place and keep their IDs. The metrics of an alias no
+ * port has any more are removed.
+ */
+public class PortCatalog {
+    SystemPortAliases aliases;  // guarded by this
+    final MetricsRegistry metrics;
+    final boolean systemInput;  // system inputs are Jack out ports
+    volatile SystemPort ports[];  // by ID - replaced when a port is added
+    // guarded by this
+    HashMap<String, SystemPort> bySysName;
+    HashMap<String, SystemPort> byAliasName;
+    HashMap<String, SystemPort> byJackPortName;
+    
+    /**
+     * Creates a PortCatalog.
+     * 
+     * @param aliases the aliases for this direction
+     * @param metrics the registry to get port metrics from
+     * @param systemInput true for system inputs, false for system outputs
+     */
+    public PortCatalog(SystemPortAliases aliases, MetricsRegistry metrics, boolean systemInput) {
+        this.aliases = aliases;
+        this.metrics = metrics;
+        this.systemInput = systemInput;
+        ports = new SystemPort[0];
+        bySysName = new HashMap<>();
+        byAliasName = new HashMap<>();
+        byJackPortName = new HashMap<>();
+    }
+    
+    /**
+     * Gets the port for a system name, adding it the first time.
+     * 
+     * @param sysName the raw system port name
+     * @return the port
+     */
+    public synchronized SystemPort intern(String sysName) {
+        SystemPort port = bySysName.get(sysName);
+        if(port != null) {
+            return port;
+        }
+        String aliasName = aliases.getAliasForSysNameOrSysName(sysName);
+        // another name already has this alias
+        port = byAliasName.get(aliasName);
+        if(port == null) {
+            String jackPortName = makeJackPortName(aliasName);
+            SystemPort newPorts[] = Arrays.copyOf(ports, ports.length + 1);
+            port = new SystemPort(ports.length, sysName, aliasName, jackPortName,
+                getMetrics(aliasName));
+            newPorts[port.getId()] = port;
+            ports = newPorts;
+            byAliasName.put(aliasName, port);
+            byJackPortName.put(jackPortName, port);
+        }
+        bySysName.put(sysName, port);
+        return port;
+    }
+    
+    /**
+     * Switches to a new set of aliases. Ports already in the catalog keep
+     * their names until they are renamed.
+     * 
+     * @param aliases the new aliases
+     */
+    public synchronized void setAliases(SystemPortAliases aliases) {
+        this.aliases = aliases;
+    }
+    
+    /**
+     * Gets the alias name a port should have with the current aliases.
+     * 
+     * @param port the port
+     * @return the alias or raw name
+     */
+    public synchronized String getAliasName(SystemPort port) {
+        return aliases.getAliasForSysNameOrSysName(port.getSysName());
+    }
+    
+    /**
+     * Renames ports for new aliases. The ID and everything but the names
+     * and metrics stay the same. The old names of all the ports are let go
+     * before any new name is checked, so ports can swap or rotate aliases.
+     * A port is left alone if its new alias or Jack port name is kept by
+     * another port or wanted by more than one.
+     * 
+     * @param aliasNames the new alias or raw name for each port to rename
+     * @return the ports renamed in the order given
+     */
+    public synchronized ArrayList<SystemPort> rename(LinkedHashMap<SystemPort, String> aliasNames) {
+        LinkedHashMap<SystemPort, String> changes = new LinkedHashMap<>();
+        for(Map.Entry<SystemPort, String> entry : aliasNames.entrySet()) {
+            SystemPort port = entry.getKey();
+            byAliasName.remove(port.getAliasName());
+            byJackPortName.remove(port.getJackPortName());
+            changes.put(port, entry.getValue());
+        }
+        // a port that keeps its names can block another, so check again
+        boolean dropped = true;
+        while(dropped) {
+            dropped = false;
+            HashMap<String, Integer> wantedAliases = new HashMap<>();
+            HashMap<String, Integer> wantedJackPorts = new HashMap<>();
+            for(String aliasName : changes.values()) {
+                wantedAliases.merge(aliasName, 1, Integer::sum);
+                wantedJackPorts.merge(makeJackPortName(aliasName), 1, Integer::sum);
+            }
+            Iterator<Map.Entry<SystemPort, String>> iter = changes.entrySet().iterator();
+            while(iter.hasNext()) {
+                Map.Entry<SystemPort, String> entry = iter.next();
+                String aliasName = entry.getValue();
+                String jackPortName = makeJackPortName(aliasName);
+                if(byAliasName.containsKey(aliasName) || byJackPortName.containsKey(jackPortName) ||
+                        wantedAliases.get(aliasName) > 1 || wantedJackPorts.get(jackPortName) > 1) {
+                    SystemPort port = entry.getKey();
+                    byAliasName.put(port.getAliasName(), port);
+                    byJackPortName.put(port.getJackPortName(), port);
+                    iter.remove();
+                    dropped = true;
+                }
+            }
+        }
+        ArrayList<SystemPort> renamed = new ArrayList<>();
+        ArrayList<String> oldAliasNames = new ArrayList<>();
+        for(Map.Entry<SystemPort, String> entry : changes.entrySet()) {
+            SystemPort port = entry.getKey();
+            String aliasName = entry.getValue();
+            oldAliasNames.add(port.getAliasName());
+            port.rename(aliasName, makeJackPortName(aliasName), getMetrics(aliasName));
+            byAliasName.put(aliasName, port);
+            byJackPortName.put(port.getJackPortName(), port);
+            renamed.add(port);
+        }
+        // let go of the metrics for aliases that were not taken over
+        for(String aliasName : oldAliasNames) {
+            if(!byAliasName.containsKey(aliasName)) {
+                removeMetrics(aliasName);
+            }
+        }
+        return renamed;
+    }
+    
+    /**
+     * Gets a port by ID. This does not lock.
+     * 
+     * @param id the port ID
+     * @return the port or null if there is no port with this ID
+     */
+    public SystemPort get(int id) {
+        SystemPort current[] = ports;
+        if(id < 0 || id >= current.length) {
+            return null;
+        }
+        return current[id];
+    }
+    
+    /**
+     * Gets all ports in ID order. The array must not be modified.
+     * 
+     * @return the ports
+     */
+    public SystemPort[] getPorts() {
+        return ports;
+    }
+    
+    /**
+     * Gets a port by alias name.
+     * 
+     * @param aliasName the alias or raw name
+     * @return the port or null if not found
+     */
+    public synchronized SystemPort getByAliasName(String aliasName) {
+        return byAliasName.get(aliasName);
+    }
+    
+    /**
+     * Gets a port by our Jack port name.
+     * 
+     * @param jackPortName the Jack port name without the client name
+     * @return the port or null if not found
+     */
+    public synchronized SystemPort getByJackPortName(String jackPortName) {
+        return byJackPortName.get(jackPortName);
+    }
+    
+    /**
+     * Gets the number of ports.
+     * 
+     * @return the number of ports
+     */
+    public int size() {
+        return ports.length;
+    }
+    
+    /*
+     * private methods
+     */
+    private String makeJackPortName(String aliasName) {
+        // system inputs are Jack out ports
+        if(systemInput) {
+            return StringUtils.makeOutputName(aliasName);
+        }
+        return StringUtils.makeInputName(aliasName);
+    }
+    
+    private PortMetrics getMetrics(String aliasName) {
+        if(systemInput) {
+            return metrics.getInput(aliasName);
+        }
+        return metrics.getOutput(aliasName);
+    }
+    
+    private void removeMetrics(String aliasName) {
+        if(systemInput) {
+            metrics.removeInput(aliasName);
+        }
+        else {
+            metrics.removeOutput(aliasName);
+        }
+    }
+}
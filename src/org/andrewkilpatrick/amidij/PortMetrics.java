@@ -0,0 +1,287 @@
+/*
+ * Port Metrics
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import java.util.ArrayList;
+
+/**
+ * The counters for one system port in one direction, kept by alias name
+ * for the life of the program. The routes do the counting with their own
+ * single writer counters so nothing here is touched by the process loop.
+ * Routes are attached while they are open and their totals are folded in
+ * when they are detached, so the counters keep going up when a device is
+ * closed and opened again.
+ */
+public class PortMetrics implements PortMetricsMBean {
+    public static final String DIRECTION_INPUT = "input";  // system input to Jack
+    public static final String DIRECTION_OUTPUT = "output";  // Jack to system output
+    final String portName;
+    final String direction;
+    // guarded by this
+    ArrayList<RouteCounters> routes;  // open routes
+    long closedEventsIn;
+    long closedBytesIn;
+    long closedEventsOut;
+    long closedBytesOut;
+    long closedDrops;
+    long closedLostEvents;
+    long closedErrors;
+    int closedHighWaterMark;
+    long closedLastEventNanos;
+    long deviceOpens;
+    long deviceCloses;
+    long flaps;
+    long lastOpenNanos;
+    long maxOpenNanos;
+    
+    /**
+     * Creates a PortMetrics.
+     * 
+     * @param portName the alias name of the port
+     * @param direction DIRECTION_INPUT or DIRECTION_OUTPUT
+     */
+    public PortMetrics(String portName, String direction) {
+        this.portName = portName;
+        this.direction = direction;
+        routes = new ArrayList<>();
+        closedEventsIn = 0;
+        closedBytesIn = 0;
+        closedEventsOut = 0;
+        closedBytesOut = 0;
+        closedDrops = 0;
+        closedLostEvents = 0;
+        closedErrors = 0;
+        closedHighWaterMark = 0;
+        closedLastEventNanos = 0;
+        deviceOpens = 0;
+        deviceCloses = 0;
+        flaps = 0;
+        lastOpenNanos = 0;
+        maxOpenNanos = 0;
+    }
+    
+    /**
+     * Adds an open route to the counters.
+     * 
+     * @param route the route
+     */
+    public synchronized void attach(RouteCounters route) {
+        if(!routes.contains(route)) {
+            routes.add(route);
+        }
+    }
+    
+    /**
+     * Removes a route and keeps its totals. This must only be called once
+     * the route is no longer in use.
+     * 
+     * @param route the route
+     */
+    public synchronized void detach(RouteCounters route) {
+        if(!routes.remove(route)) {
+            return;
+        }
+        closedEventsIn += route.getEventsIn();
+        closedBytesIn += route.getBytesIn();
+        closedEventsOut += route.getEventsOut();
+        closedBytesOut += route.getBytesOut();
+        closedDrops += route.getDrops();
+        closedLostEvents += route.getLostEvents();
+        closedErrors += route.getErrors();
+        closedHighWaterMark = Math.max(closedHighWaterMark, route.getHighWaterMark());
+        closedLastEventNanos = latest(closedLastEventNanos, route.getLastEventNanos());
+    }
+    
+    /**
+     * Gets the number of open routes.
+     * 
+     * @return the number of routes attached
+     */
+    public synchronized int getRouteCount() {
+        return routes.size();
+    }
+    
+    /**
+     * Counts the system device being opened.
+     * 
+     * @param openNanos the time the open took in nanoseconds
+     */
+    public synchronized void deviceOpened(long openNanos) {
+        deviceOpens ++;
+        lastOpenNanos = openNanos;
+        if(openNanos > maxOpenNanos) {
+            maxOpenNanos = openNanos;
+        }
+    }
+    
+    /**
+     * Counts the system device being closed.
+     */
+    public synchronized void deviceClosed() {
+        deviceCloses ++;
+    }
+    
+    /**
+     * Counts the system device coming back while its Jack port was held.
+     */
+    public synchronized void deviceReturned() {
+        flaps ++;
+    }
+    
+    @Override
+    public String getPortName() {
+        return portName;
+    }
+    
+    @Override
+    public String getDirection() {
+        return direction;
+    }
+    
+    @Override
+    public synchronized long getEventsIn() {
+        long total = closedEventsIn;
+        for(RouteCounters route : routes) {
+            total += route.getEventsIn();
+        }
+        return total;
+    }
+    
+    @Override
+    public synchronized long getBytesIn() {
+        long total = closedBytesIn;
+        for(RouteCounters route : routes) {
+            total += route.getBytesIn();
+        }
+        return total;
+    }
+    
+    @Override
+    public synchronized long getEventsOut() {
+        long total = closedEventsOut;
+        for(RouteCounters route : routes) {
+            total += route.getEventsOut();
+        }
+        return total;
+    }
+    
+    @Override
+    public synchronized long getBytesOut() {
+        long total = closedBytesOut;
+        for(RouteCounters route : routes) {
+            total += route.getBytesOut();
+        }
+        return total;
+    }
+    
+    @Override
+    public synchronized long getDrops() {
+        long total = closedDrops;
+        for(RouteCounters route : routes) {
+            total += route.getDrops();
+        }
+        return total;
+    }
+    
+    @Override
+    public synchronized int getHighWaterMark() {
+        int max = closedHighWaterMark;
+        for(RouteCounters route : routes) {
+            max = Math.max(max, route.getHighWaterMark());
+        }
+        return max;
+    }
+    
+    @Override
+    public synchronized long getLostEvents() {
+        long total = closedLostEvents;
+        for(RouteCounters route : routes) {
+            total += route.getLostEvents();
+        }
+        return total;
+    }
+    
+    @Override
+    public synchronized long getErrors() {
+        long total = closedErrors;
+        for(RouteCounters route : routes) {
+            total += route.getErrors();
+        }
+        return total;
+    }
+    
+    @Override
+    public synchronized long getDeviceOpens() {
+        return deviceOpens;
+    }
+    
+    @Override
+    public synchronized long getDeviceCloses() {
+        return deviceCloses;
+    }
+    
+    @Override
+    public synchronized long getFlaps() {
+        return flaps;
+    }
+    
+    @Override
+    public synchronized long getLastOpenMicros() {
+        return lastOpenNanos / 1000;
+    }
+    
+    @Override
+    public synchronized long getMaxOpenMicros() {
+        return maxOpenNanos / 1000;
+    }
+    
+    /**
+     * Gets the time since an event was last taken from the source.
+     * 
+     * @return the time in seconds or -1 if there has been no event
+     */
+    @Override
+    public synchronized double getSecondsSinceLastEvent() {
+        long last = closedLastEventNanos;
+        for(RouteCounters route : routes) {
+            last = latest(last, route.getLastEventNanos());
+        }
+        if(last == 0) {
+            return -1.0;
+        }
+        return (double)(System.nanoTime() - last) / 1000000000.0;
+    }
+    
+    /**
+     * Picks the later of two System.nanoTime() values where 0 means none.
+     */
+    private static long latest(long a, long b) {
+        if(a == 0) {
+            return b;
+        }
+        if(b == 0) {
+            return a;
+        }
+        return b - a > 0 ? b : a;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Process Loop
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import javax.sound.midi.InvalidMidiDataException;
+
+import org.andrewkilpatrick.amidij.jack.MidiPortBuffer;
+import org.jaudiolibs.jnajack.JackException;
+
+/**
+ * Moves MIDI between the system ports and the Jack port buffers for one
+ * process cycle. This is everything the Jack process callback does, kept
+ * apart from the Jack client so it can be driven without a Jack server.
+ */
+public class ProcessLoop {
+    RoutingTable routing;
+    ProcessStats stats;
+    // budget - 0 means only limited by the Jack buffer
+    int portBudget;  // events per port per cycle
+    int cycleBudget;  // events for all ports per cycle
+    OverloadPolicy overloadPolicy;
+    long cycleCount;  // process thread only
+    volatile long cycleBudgetExhausted;  // only written by the process thread
+    volatile long idleClearErrors;  // only written by the process thread
+    
+    /**
+     * Creates a ProcessLoop.
+     * 
+     * @param routing the routes to process
+     * @param stats where to record cycle statistics
+     * @param portBudget the most events per port per cycle or 0
+     * @param cycleBudget the most events for all ports per cycle or 0
+     * @param overloadPolicy what to do with events over budget
+     */
+    public ProcessLoop(RoutingTable routing, ProcessStats stats, int portBudget,
+            int cycleBudget, OverloadPolicy overloadPolicy) {
+        this.routing = routing;
+        this.stats = stats;
+        this.portBudget = portBudget;
+        this.cycleBudget = cycleBudget;
+        this.overloadPolicy = overloadPolicy;
+        cycleCount = 0;
+        cycleBudgetExhausted = 0;
+        idleClearErrors = 0;
+    }
+    
+    /**
+     * Runs one cycle. This is called from the process thread.
+     * 
+     * @param lastFrameCount the frame time at the start of the cycle
+     * @param nframes the number of frames in the cycle
+     */
+    public void process(long lastFrameCount, int nframes) {
+        long startNanos = System.nanoTime();
+        int events = 0;  // moved this cycle
+        RoutingSnapshot routes = routing.acquire();
+        
+        // process MIDI inputs (to Jack)
+        SysToJackQueue queues[] = routes.getSysToJack();
+        int cycleRemaining = cycleBudget > 0 ? cycleBudget : Integer.MAX_VALUE;
+        // rotate the start so no port is always last for the global budget
+        int start = queues.length > 0 ? (int)(cycleCount % queues.length) : 0;
+        for(int i = 0; i < queues.length; i ++) {
+            SysToJackQueue queue = queues[(start + i) % queues.length];
+            int ownBudget = portBudget > 0 ? portBudget : Integer.MAX_VALUE;
+            // running out of the cycle budget defers, it never sheds
+            int budget = Math.min(ownBudget, cycleRemaining);
+            int written = queue.processCycle(lastFrameCount, nframes, budget, ownBudget,
+                overloadPolicy, stats.getResidencyNanos());
+            cycleRemaining -= written;
+            events += written;
+        }
+        if(cycleRemaining == 0 && cycleBudget > 0) {
+            cycleBudgetExhausted ++;
+        }
+        cycleCount ++;
+        
+        // Jack does not clear out ports, so one without a route would
+        // repeat the events it was last given
+        MidiPortBuffer idle[] = routes.getIdleJackPorts();
+        for(int i = 0; i < idle.length; i ++) {
+            try {
+                idle[i].clear();
+            } catch (JackException e) {
+                idleClearErrors ++;
+            }
+        }
+        
+        // process MIDI outputs (from Jack)
+        JackToSys outputs[] = routes.getJackToSys();
+        for(int i = 0; i < outputs.length; i ++) {
+            JackToSys j2s = outputs[i];
+            MidiPortBuffer port = j2s.getJackPort();
+            DeviceClock clock = j2s.getClock();
+            byte data[] = j2s.getEventData();
+            int read = 0;  // bytes
+            int readEvents = 0;
+            // poll for new data
+            try {
+                int eventCount = port.getEventCount();
+                for(int j = 0; j < eventCount; j++) {
+                    int size = port.readEvent(j, data);
+                    if(size > data.length) {
+                        j2s.countOversizedEvent();
+                        continue;
+                    }
+                    read += size;
+                    readEvents ++;
+                    // push back 1 buffer period like the input side
+                    long eventTime = lastFrameCount + port.getEventTime() + nframes;  // frames
+                    long timestamp = clock.toMicros(eventTime);
+                    if(timestamp < 0) {
+                        timestamp = -1;
+                    }
+                    events ++;
+                    try {
+                        j2s.processEvent(timestamp, data, size);
+                    } catch (InvalidMidiDataException e) {
+                        j2s.countError();
+                    }
+                }
+            } catch (JackException e) {
+                j2s.countError();
+            }
+            j2s.getThroughput().add(read);
+            j2s.addReadEvents(readEvents, startNanos);
+            try {
+                j2s.endCycle();
+            } catch (InvalidMidiDataException e) {
+                j2s.countError();
+            }
+        }
+        stats.endCycle(startNanos, events);
+    }
+    
+    /**
+     * Gets the number of cycles where the cycle event budget ran out.
+     * 
+     * @return the number of cycles
+     */
+    public long getCycleBudgetExhausted() {
+        return cycleBudgetExhausted;
+    }
+    
+    /**
+     * Gets the number of times a Jack out port without a route could not
+     * be cleared.
+     * 
+     * @return the number of errors
+     */
+    public long getIdleClearErrors() {
+        return idleClearErrors;
+    }
+}
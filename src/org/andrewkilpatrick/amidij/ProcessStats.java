@@ -0,0 +1,214 @@
+/*
+ * Process Loop Statistics
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import org.andrewkilpatrick.amidij.util.LogHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Records how long each process cycle takes, how many events it moves and
+ * how long events wait between the system MIDI thread and the Jack port.
+ * Recording is done from the process loop without allocating. When Jack
+ * reports an xrun the histograms and the last few cycles are copied so
+ * they can be logged later from another thread.
+ */
+public class ProcessStats {
+    public static final int RECENT_CYCLES = 16;  // cycles kept for xrun reports
+    Logger log;
+    // written by the process loop only
+    LogHistogram cycleNanos;
+    LogHistogram cycleEvents;
+    LogHistogram residencyNanos;
+    final long recentNanos[];
+    final int recentEvents[];
+    volatile long cycles;
+    volatile long periodNanos;  // length of one Jack period
+    // report copies - only used by the report thread
+    LogHistogram cycleNanosCopy;
+    LogHistogram cycleEventsCopy;
+    LogHistogram residencyNanosCopy;
+    LogHistogram cycleNanosLast;
+    LogHistogram cycleEventsLast;
+    LogHistogram residencyNanosLast;
+    // xrun snapshot - guarded by xrunLock
+    Object xrunLock = new Object();
+    long xruns;
+    long reportedXruns;
+    long xrunCycle;
+    LogHistogram xrunCycleNanos;
+    final long xrunRecentNanos[];
+    final int xrunRecentEvents[];
+    
+    /**
+     * Creates a ProcessStats.
+     */
+    public ProcessStats() {
+        log = LogManager.getLogger(this.getClass());
+        cycleNanos = new LogHistogram();
+        cycleEvents = new LogHistogram();
+        residencyNanos = new LogHistogram();
+        recentNanos = new long[RECENT_CYCLES];
+        recentEvents = new int[RECENT_CYCLES];
+        cycles = 0;
+        periodNanos = 0;
+        cycleNanosCopy = new LogHistogram();
+        cycleEventsCopy = new LogHistogram();
+        residencyNanosCopy = new LogHistogram();
+        cycleNanosLast = new LogHistogram();
+        cycleEventsLast = new LogHistogram();
+        residencyNanosLast = new LogHistogram();
+        xruns = 0;
+        reportedXruns = 0;
+        xrunCycle = 0;
+        xrunCycleNanos = new LogHistogram();
+        xrunRecentNanos = new long[RECENT_CYCLES];
+        xrunRecentEvents = new int[RECENT_CYCLES];
+    }
+    
+    /**
+     * Sets the length of one Jack period so cycle times can be reported
+     * against the deadline.
+     * 
+     * @param bufferSize the Jack buffer size in frames
+     * @param sampleRate the Jack sample rate
+     */
+    public void setPeriod(int bufferSize, int sampleRate) {
+        if(sampleRate > 0) {
+            periodNanos = (long)bufferSize * 1000000000L / sampleRate;
+        }
+    }
+    
+    /**
+     * Records a finished cycle. (process loop only)
+     * 
+     * @param startNanos the System.nanoTime() at the start of the cycle
+     * @param events the number of events moved in the cycle
+     */
+    public void endCycle(long startNanos, int events) {
+        long nanos = System.nanoTime() - startNanos;
+        cycleNanos.record(nanos);
+        cycleEvents.record(events);
+        long cycle = cycles;
+        int i = (int)(cycle % RECENT_CYCLES);
+        recentNanos[i] = nanos;
+        recentEvents[i] = events;
+        cycles = cycle + 1;
+    }
+    
+    /**
+     * Gets the histogram for event residency so queues can record into it
+     * directly. (process loop only)
+     * 
+     * @return the residency histogram in nanoseconds
+     */
+    public LogHistogram getResidencyNanos() {
+        return residencyNanos;
+    }
+    
+    /**
+     * Counts an xrun and copies the cycle time histogram and the last few
+     * cycles. This is called from the Jack notification thread.
+     */
+    public void xrun() {
+        synchronized(xrunLock) {
+            xruns ++;
+            long cycle = cycles;
+            xrunCycle = cycle;
+            cycleNanos.copyTo(xrunCycleNanos);
+            // oldest first
+            for(int i = 0; i < RECENT_CYCLES; i ++) {
+                int j = (int)((cycle + i) % RECENT_CYCLES);
+                xrunRecentNanos[i] = recentNanos[j];
+                xrunRecentEvents[i] = recentEvents[j];
+            }
+        }
+    }
+    
+    /**
+     * Gets the number of xruns.
+     * 
+     * @return the number of xruns
+     */
+    public long getXruns() {
+        synchronized(xrunLock) {
+            return xruns;
+        }
+    }
+    
+    /**
+     * Logs the histograms since the last report and the snapshot for the
+     * latest xrun if there was one. Only one thread should call this.
+     */
+    public void report() {
+        cycleNanos.copyTo(cycleNanosCopy);
+        cycleEvents.copyTo(cycleEventsCopy);
+        residencyNanos.copyTo(residencyNanosCopy);
+        cycleNanosCopy.subtract(cycleNanosLast);
+        cycleEventsCopy.subtract(cycleEventsLast);
+        residencyNanosCopy.subtract(residencyNanosLast);
+        if(cycleNanosCopy.getCount() > 0) {
+            long period = periodNanos;
+            String load = "";
+            if(period > 0) {
+                load = String.format(" - worst: %.1f%% of %d us period",
+                    cycleNanosCopy.getMax() * 100.0 / period, period / 1000);
+            }
+            log.info("cycle time us - " + cycleNanosCopy.toSummary(1000) + load);
+            log.info("events per cycle - " + cycleEventsCopy.toSummary(1));
+        }
+        if(residencyNanosCopy.getCount() > 0) {
+            log.info("to Jack residency us - " + residencyNanosCopy.toSummary(1000));
+        }
+        // move the totals up to the snapshot just reported - copying the
+        // live histograms again would lose what was recorded since
+        cycleNanosLast.add(cycleNanosCopy);
+        cycleEventsLast.add(cycleEventsCopy);
+        residencyNanosLast.add(residencyNanosCopy);
+        reportXruns();
+    }
+    
+    /**
+     * Logs the snapshot for the latest xrun if there were any since the
+     * last report.
+     */
+    private void reportXruns() {
+        synchronized(xrunLock) {
+            if(xruns == reportedXruns) {
+                return;
+            }
+            StringBuilder recent = new StringBuilder();
+            for(int i = 0; i < RECENT_CYCLES; i ++) {
+                if(i > 0) {
+                    recent.append(' ');
+                }
+                recent.append(xrunRecentNanos[i] / 1000).append('/').append(xrunRecentEvents[i]);
+            }
+            log.warn("xruns: " + (xruns - reportedXruns) + " - total: " + xruns +
+                " - latest at cycle: " + xrunCycle);
+            log.warn("cycles before xrun (us/events): " + recent);
+            log.warn("cycle time us at xrun - " + xrunCycleNanos.toSummary(1000));
+            reportedXruns = xruns;
+        }
+    }
+}
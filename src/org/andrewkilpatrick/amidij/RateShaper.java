@@ -0,0 +1,247 @@
+/*
+ * Output Rate Shaper
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import javax.sound.midi.InvalidMidiDataException;
+
+import org.andrewkilpatrick.amidij.util.MidiEventRing;
+import org.andrewkilpatrick.amidij.util.MidiEventSink;
+import org.andrewkilpatrick.amidij.util.MidiMessageUtils;
+import org.andrewkilpatrick.amidij.util.TokenBucket;
+
+/**
+ * Paces the events for one JackToSys route to a fixed number of wire
+ * bytes per second so small device FIFOs are not overrun by bursts.
+ * Timing sensitive messages wait in a priority lane that is always sent
+ * ahead of the bulk lane. Both lanes are bounded and the overload policy
+ * decides what happens when one is full. This is only used from the
+ * route's sender thread.
+ */
+public class RateShaper implements MidiEventSink {
+    public static final int DEFAULT_BACKLOG = 1024;  // events per lane
+    public static final int BURST_MILLIS = 10;  // bytes that may be sent back to back
+    public static final int PRIORITY_ARENA_SIZE = 64;  // priority events are never long
+    JackToSys route;
+    OverloadPolicy policy;
+    TokenBucket bucket;
+    MidiEventRing priorityLane;
+    MidiEventRing bulkLane;
+    byte eventData[];
+    int runningStatus;  // to work out the wire cost of the next event
+    volatile long droppedEvents;  // only written by the sender thread
+    volatile int highWaterMark;  // only written by the sender thread
+    
+    /**
+     * Creates a RateShaper.
+     * 
+     * @param route the route to send to
+     * @param bytesPerSecond the wire rate to pace to
+     * @param backlog the most events each lane can hold
+     * @param arenaSize the largest event in bytes
+     * @param policy what to do when a lane is full
+     */
+    public RateShaper(JackToSys route, int bytesPerSecond, int backlog, int arenaSize,
+            OverloadPolicy policy) {
+        this.route = route;
+        this.policy = policy;
+        bucket = new TokenBucket(bytesPerSecond,
+            Math.max(3, bytesPerSecond * BURST_MILLIS / 1000));
+        priorityLane = new MidiEventRing(backlog, PRIORITY_ARENA_SIZE);
+        bulkLane = new MidiEventRing(backlog, arenaSize);
+        eventData = new byte[Math.max(3, bulkLane.getArenaSize())];
+        runningStatus = 0;
+        droppedEvents = 0;
+        highWaterMark = 0;
+    }
+    
+    /**
+     * Queues an event in the priority or bulk lane. If the lane is full
+     * the oldest events are dropped to make room with the drop oldest
+     * policy, or with the priority policy for the bulk lane. Otherwise the
+     * new event is dropped.
+     * 
+     * @param timestamp the system port timestamp in microseconds or -1
+     * @param data the event data
+     * @param length the event length
+     */
+    @Override
+    public void sendEvent(long timestamp, byte data[], int length) {
+        boolean priority = MidiMessageUtils.isPriorityMessage(data[0] & 0xff,
+            length > 1 ? data[1] : 0);
+        MidiEventRing lane = priority ? priorityLane : bulkLane;
+        boolean queued = lane.offer(timestamp, data, 0, length);
+        if(!queued && (policy == OverloadPolicy.DROP_OLDEST ||
+                (policy == OverloadPolicy.DROP_BY_PRIORITY && !priority))) {
+            while(!queued && lane.skip()) {
+                droppedEvents ++;
+                queued = lane.offer(timestamp, data, 0, length);
+            }
+        }
+        if(!queued) {
+            droppedEvents ++;
+            return;
+        }
+        int depth = priorityLane.size() + bulkLane.size();
+        if(depth > highWaterMark) {
+            highWaterMark = depth;
+        }
+    }
+    
+    /**
+     * Checks if the sender should take more events from the route's ring.
+     * With the defer policy events are left in the ring while a lane is
+     * full, so the ring fills up instead of the lanes dropping events.
+     * 
+     * @return true if more events can be queued, false otherwise
+     */
+    public boolean canAccept() {
+        switch(policy) {
+            case DROP_OLDEST:
+                return true;
+            case DROP_BY_PRIORITY:
+                return !isFull(priorityLane);
+            default:
+                return !isFull(priorityLane) && !isFull(bulkLane);
+        }
+    }
+    
+    /**
+     * Sends as many queued events as the rate allows, priority lane first.
+     * 
+     * @param nowNanos the current System.nanoTime()
+     * @throws InvalidMidiDataException if an event could not be sent - the
+     * event is dropped
+     */
+    public void service(long nowNanos) throws InvalidMidiDataException {
+        bucket.refill(nowNanos);
+        MidiEventRing lane = nextLane();
+        while(lane != null) {
+            if(!bucket.take(getNextCost(lane))) {
+                return;
+            }
+            sendNext(lane);
+            lane = nextLane();
+        }
+    }
+    
+    /**
+     * Drops everything queued. This is used when the sender thread is
+     * stopping and has run out of time to send at the paced rate.
+     * 
+     * @return the number of events dropped
+     */
+    public int dropAll() {
+        int dropped = 0;
+        while(priorityLane.skip()) {
+            dropped ++;
+        }
+        while(bulkLane.skip()) {
+            dropped ++;
+        }
+        droppedEvents += dropped;
+        return dropped;
+    }
+    
+    /**
+     * Gets the time until the next queued event can be sent.
+     * 
+     * @param nowNanos the current System.nanoTime()
+     * @return the time in nanoseconds, 0 if it can be sent now or
+     * Long.MAX_VALUE if nothing is queued
+     */
+    public long getNanosUntilReady(long nowNanos) {
+        MidiEventRing lane = nextLane();
+        if(lane == null) {
+            return Long.MAX_VALUE;
+        }
+        return bucket.getNanosUntil(getNextCost(lane), nowNanos);
+    }
+    
+    /**
+     * Gets the number of events waiting in both lanes. This may be called
+     * from any thread but is only an estimate.
+     * 
+     * @return the number of events waiting
+     */
+    public int getBacklog() {
+        return priorityLane.size() + bulkLane.size();
+    }
+    
+    /**
+     * Gets the number of events dropped because a lane was full.
+     * 
+     * @return the number of dropped events
+     */
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+    
+    /**
+     * Gets the most events that have been waiting in both lanes.
+     * 
+     * @return the backlog high water mark in events
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+    
+    /**
+     * Gets the lane to send from next.
+     */
+    private MidiEventRing nextLane() {
+        if(!priorityLane.isEmpty()) {
+            return priorityLane;
+        }
+        if(!bulkLane.isEmpty()) {
+            return bulkLane;
+        }
+        return null;
+    }
+    
+    /**
+     * Gets the wire cost of the next event in a lane.
+     */
+    private int getNextCost(MidiEventRing lane) {
+        return MidiMessageUtils.getWireLength(lane.peekStatus(), lane.peekLength(), runningStatus);
+    }
+    
+    /**
+     * Sends the next event in a lane to the system port.
+     */
+    private void sendNext(MidiEventRing lane) throws InvalidMidiDataException {
+        long timestamp = lane.peekTimestamp();
+        int length = lane.poll(eventData);
+        if(length < 1) {
+            return;
+        }
+        runningStatus = MidiMessageUtils.getRunningStatus(eventData[0] & 0xff, runningStatus);
+        route.sendEvent(timestamp, eventData, length);
+    }
+    
+    /**
+     * Checks if a lane has no free slots.
+     */
+    private static boolean isFull(MidiEventRing lane) {
+        return lane.size() >= lane.getCapacity();
+    }
+}
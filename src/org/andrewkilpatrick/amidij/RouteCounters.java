@@ -0,0 +1,96 @@
+/*
+ * Route Counters
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+/**
+ * The counters every route keeps for monitoring. In is what the route
+ * took from its source and out is what it passed to its destination.
+ * Each counter is only written by one thread so reading it is safe from
+ * any thread.
+ */
+public interface RouteCounters {
+    
+    /**
+     * Gets the number of events taken from the source.
+     * 
+     * @return the number of events
+     */
+    public long getEventsIn();
+    
+    /**
+     * Gets the number of bytes taken from the source.
+     * 
+     * @return the number of bytes
+     */
+    public long getBytesIn();
+    
+    /**
+     * Gets the number of events passed to the destination.
+     * 
+     * @return the number of events
+     */
+    public long getEventsOut();
+    
+    /**
+     * Gets the number of bytes passed to the destination.
+     * 
+     * @return the number of bytes
+     */
+    public long getBytesOut();
+    
+    /**
+     * Gets the number of events dropped for any reason.
+     * 
+     * @return the number of events
+     */
+    public long getDrops();
+    
+    /**
+     * Gets the most events that have been waiting in the route.
+     * 
+     * @return the high water mark in events
+     */
+    public int getHighWaterMark();
+    
+    /**
+     * Gets the number of events Jack reported as lost.
+     * 
+     * @return the number of events
+     */
+    public long getLostEvents();
+    
+    /**
+     * Gets the number of events that could not be read or passed on
+     * because of an error.
+     * 
+     * @return the number of events
+     */
+    public long getErrors();
+    
+    /**
+     * Gets the time the last event was taken from the source.
+     * 
+     * @return the System.nanoTime() of the last event or 0 if there was none
+     */
+    public long getLastEventNanos();
+}
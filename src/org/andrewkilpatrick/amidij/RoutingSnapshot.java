@@ -0,0 +1,94 @@
+/*
+ * Routing Snapshot
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ *
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import java.util.Collection;
+
+import org.andrewkilpatrick.amidij.jack.MidiPortBuffer;
+
+/**
+ * An immutable view of the routes used by the process loop. A new
+ * snapshot is built for every routing change so the process loop
+ * never sees a collection being modified.
+ */
+public class RoutingSnapshot {
+    final long epoch;
+    final SysToJackQueue sysToJack[];
+    final JackToSys jackToSys[];
+    final MidiPortBuffer idleJackPorts[];
+    
+    /**
+     * Creates a RoutingSnapshot.
+     * 
+     * @param epoch the routing epoch this snapshot belongs to
+     * @param sysToJack the system to Jack routes
+     * @param jackToSys the Jack to system routes
+     * @param idleJackPorts the registered Jack out ports with no route,
+     * which still have to be cleared every cycle
+     */
+    public RoutingSnapshot(long epoch, Collection<SysToJackQueue> sysToJack,
+            Collection<JackToSys> jackToSys, Collection<MidiPortBuffer> idleJackPorts) {
+        this.epoch = epoch;
+        this.sysToJack = sysToJack.toArray(new SysToJackQueue[0]);
+        this.jackToSys = jackToSys.toArray(new JackToSys[0]);
+        this.idleJackPorts = idleJackPorts.toArray(new MidiPortBuffer[0]);
+    }
+    
+    /**
+     * Gets the routing epoch.
+     * 
+     * @return the epoch
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+    
+    /**
+     * Gets the system to Jack routes. The array must not be modified.
+     * 
+     * @return the system to Jack routes
+     */
+    public SysToJackQueue[] getSysToJack() {
+        return sysToJack;
+    }
+    
+    /**
+     * Gets the Jack to system routes. The array must not be modified.
+     * 
+     * @return the Jack to system routes
+     */
+    public JackToSys[] getJackToSys() {
+        return jackToSys;
+    }
+    
+    /**
+     * Gets the Jack out ports with no route. Jack does not clear out port
+     * buffers so the process loop clears these every cycle. The array
+     * must not be modified.
+     * 
+     * @return the idle Jack out ports
+     */
+    public MidiPortBuffer[] getIdleJackPorts() {
+        return idleJackPorts;
+    }
+}
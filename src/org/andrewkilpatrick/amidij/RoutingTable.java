@@ -0,0 +1,174 @@
+/*
+ * Routing Table
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ *
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.andrewkilpatrick.amidij.jack.MidiPortBuffer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Publishes routing snapshots to the process thread and defers freeing
+ * anything the process thread might still be using.
+ * 
+ * The process thread calls acquire() at the start of every cycle, which
+ * acknowledges the epoch of the snapshot it is about to use. Anything
+ * retired while epoch N is current belongs to the next snapshot, N + 1,
+ * which must not use it. It is released once the process thread has
+ * acknowledged N + 1, since by then the cycle that could have seen the
+ * old snapshot has finished. The process thread never locks.
+ */
+public class RoutingTable {
+    Logger log;
+    volatile RoutingSnapshot current;
+    volatile long ackedEpoch;  // written by the process thread only
+    LinkedList<RetiredAction> retired;  // guarded by this
+    
+    /**
+     * Creates a RoutingTable with no routes.
+     */
+    public RoutingTable() {
+        log = LogManager.getLogger(this.getClass());
+        current = new RoutingSnapshot(0, new ArrayList<SysToJackQueue>(),
+            new ArrayList<JackToSys>(), new ArrayList<MidiPortBuffer>());
+        ackedEpoch = 0;
+        retired = new LinkedList<>();
+    }
+    
+    /**
+     * Publishes a new set of routes.
+     * 
+     * @param sysToJack the system to Jack routes
+     * @param jackToSys the Jack to system routes
+     * @return the new snapshot
+     */
+    public RoutingSnapshot publish(Collection<SysToJackQueue> sysToJack,
+            Collection<JackToSys> jackToSys) {
+        return publish(sysToJack, jackToSys, new ArrayList<MidiPortBuffer>());
+    }
+    
+    /**
+     * Publishes a new set of routes and the Jack out ports with no route.
+     * 
+     * @param sysToJack the system to Jack routes
+     * @param jackToSys the Jack to system routes
+     * @param idleJackPorts the registered Jack out ports with no route
+     * @return the new snapshot
+     */
+    public synchronized RoutingSnapshot publish(Collection<SysToJackQueue> sysToJack,
+            Collection<JackToSys> jackToSys, Collection<MidiPortBuffer> idleJackPorts) {
+        current = new RoutingSnapshot(current.getEpoch() + 1, sysToJack, jackToSys,
+            idleJackPorts);
+        return current;
+    }
+    
+    /**
+     * Gets the current snapshot for control threads. This does not
+     * acknowledge the epoch.
+     * 
+     * @return the current snapshot
+     */
+    public RoutingSnapshot getCurrent() {
+        return current;
+    }
+    
+    /**
+     * Gets the current snapshot and acknowledges its epoch. This must only
+     * be called by the process thread at the start of a cycle.
+     * 
+     * @return the current snapshot
+     */
+    public RoutingSnapshot acquire() {
+        RoutingSnapshot snapshot = current;
+        if(snapshot.getEpoch() != ackedEpoch) {
+            ackedEpoch = snapshot.getEpoch();
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Schedules an action to run once the process thread can no longer
+     * see the current snapshot or any older one. Call this before
+     * publishing the snapshot that stops using the resource - the action
+     * does not run until something is published.
+     * 
+     * @param name the name of the action for logging
+     * @param action the action to run
+     */
+    public synchronized void retire(String name, Runnable action) {
+        retired.addLast(new RetiredAction(current.getEpoch() + 1, name, action));
+    }
+    
+    /**
+     * Runs any retired actions that are safe to run. This is called from
+     * control threads only.
+     */
+    public void reclaim() {
+        LinkedList<RetiredAction> ready = new LinkedList<>();
+        synchronized(this) {
+            long acked = ackedEpoch;
+            Iterator<RetiredAction> iter = retired.iterator();
+            while(iter.hasNext()) {
+                RetiredAction action = iter.next();
+                if(action.epoch > acked) {
+                    break;
+                }
+                ready.addLast(action);
+                iter.remove();
+            }
+        }
+        for(RetiredAction action : ready) {
+            log.debug("reclaiming: " + action.name);
+            action.action.run();
+        }
+    }
+    
+    /**
+     * Gets the number of retired actions waiting to run.
+     * 
+     * @return the number of pending actions
+     */
+    public synchronized int getPendingCount() {
+        return retired.size();
+    }
+    
+    /*
+     * An action waiting for the process thread to move past an epoch.
+     */
+    class RetiredAction {
+        final long epoch;
+        final String name;
+        final Runnable action;
+        
+        RetiredAction(long epoch, String name, Runnable action) {
+            this.epoch = epoch;
+            this.name = name;
+            this.action = action;
+        }
+    }
+}
@@ -22,44 +22,365 @@
  */
 package org.andrewkilpatrick.amidij;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
 
 import org.andrewkilpatrick.amidij.alsaMidi.SystemMidiInterface;
-import org.jaudiolibs.jnajack.JackPort;
+import org.andrewkilpatrick.amidij.jack.MidiPortBuffer;
+import org.andrewkilpatrick.amidij.util.LogHistogram;
+import org.andrewkilpatrick.amidij.util.MidiEventRing;
+import org.andrewkilpatrick.amidij.util.MidiMessageUtils;
+import org.andrewkilpatrick.amidij.util.ThroughputMeter;
+import org.jaudiolibs.jnajack.JackException;
 
-public class SysToJackQueue {
+public class SysToJackQueue implements RouteCounters {
+    public static final int MIN_CAPACITY = 256;  // events
+    public static final int MIN_ARENA_SIZE = 4096;  // bytes
+    public static final int DEFAULT_SYSEX_BUFFER_SIZE = 65536;  // bytes
     SystemMidiInterface sysPort;  // from system
-    JackPort jackPort;  // to jack
-    ConcurrentLinkedQueue<TimedMessage> messageQueue;
+    MidiPortBuffer jackPort;  // to jack
+    DeviceClock clock;  // system port clock
+    MidiEventRing ring;  // system receiver thread to Jack process thread
+    byte eventData[];  // scratch buffer for the process loop
+    // only written by the producer
+    volatile long droppedEvents;
+    volatile long receivedEvents;
+    volatile long receivedBytes;
+    volatile long lastEventNanos;
+    ThroughputMeter throughput;  // bytes written to Jack
+    // only written by the process loop
+    volatile long oversizedEvents;  // too large for the Jack buffer
+    volatile long shedEvents;  // dropped by the overload policy
+    volatile long budgetExhausted;  // cycles that ran out of budget
+    volatile long writeErrors;  // Jack refused the event
+    volatile long writtenEvents;
+    volatile long lostEvents;  // reported lost by Jack
+    volatile int highWaterMark;  // events waiting at the start of a cycle
+    // SysEx reassembly - producer only
+    byte sysexData[];
+    int sysexLength;
+    long sysexTimestamp;
+    boolean sysexOpen;
+    boolean sysexOverflow;
     
     /**
-     * Creates a SysToJack queue.
+     * Creates a SysToJack queue. The queue is sized from the Jack buffer
+     * size when it is created and is never resized afterwards.
      * 
      * @param sysPort the system port
-     * @param jackPort the jack port to send to
+     * @param jackPort the jack port buffer to send to
+     * @param clock the system port clock
+     * @param bufferSize the current Jack buffer size in frames
+     * @param sysexBufferSize the largest SysEx message to pass in bytes
      */
-    public SysToJackQueue(SystemMidiInterface sysPort, JackPort jackPort) {
+    public SysToJackQueue(SystemMidiInterface sysPort, MidiPortBuffer jackPort, DeviceClock clock,
+            int bufferSize, int sysexBufferSize) {
         this.sysPort = sysPort;
         this.jackPort = jackPort;
-        messageQueue = new ConcurrentLinkedQueue<>();
+        this.clock = clock;
+        ring = createRing(bufferSize, sysexBufferSize);
+        eventData = new byte[ring.getArenaSize()];
+        droppedEvents = 0;
+        receivedEvents = 0;
+        receivedBytes = 0;
+        lastEventNanos = 0;
+        throughput = new ThroughputMeter();
+        oversizedEvents = 0;
+        shedEvents = 0;
+        budgetExhausted = 0;
+        writeErrors = 0;
+        writtenEvents = 0;
+        lostEvents = 0;
+        highWaterMark = 0;
+        sysexData = new byte[Math.max(sysexBufferSize, MIN_ARENA_SIZE)];
+        sysexLength = 0;
+        sysexTimestamp = 0;
+        sysexOpen = false;
+        sysexOverflow = false;
     }
     
     /**
-     * Adds a message into the queue.
+     * Creates an event ring sized to hold several periods of full Jack
+     * MIDI buffers.
+     * 
+     * @param bufferSize the Jack buffer size in frames
+     * @param sysexBufferSize the largest SysEx message the ring must hold
+     * @return the new ring
+     */
+    public static MidiEventRing createRing(int bufferSize, int sysexBufferSize) {
+        // a Jack MIDI buffer holds bufferSize * 4 bytes and each event takes
+        // at least 8 bytes of that, so this holds several full periods
+        int capacity = Math.max(MIN_CAPACITY, bufferSize * 4);
+        int arenaSize = Math.max(MIN_ARENA_SIZE, bufferSize * Float.BYTES * 4);
+        arenaSize = Math.max(arenaSize, sysexBufferSize);
+        return new MidiEventRing(capacity, arenaSize);
+    }
+    
+    /**
+     * Adds a message into the queue. This must only be called from the
+     * system MIDI receive thread.
      * 
      * @param msg the message to add
+     * @param timestamp the timestamp in Jack frames
+     * @return true if the message was added, false if the queue is full
+     */
+    public boolean addMessage(MidiMessage msg, long timestamp) {
+        boolean added;
+        receivedEvents ++;
+        receivedBytes += msg.getLength();
+        lastEventNanos = System.nanoTime();
+        if(msg instanceof SysexMessage) {
+            return addSysex((SysexMessage)msg, timestamp);
+        }
+        if(msg instanceof ShortMessage) {
+            ShortMessage sm = (ShortMessage)msg;
+            added = ring.offerShort(timestamp, sm.getStatus(),
+                sm.getData1(), sm.getData2(), sm.getLength());
+        }
+        else {
+            added = ring.offer(timestamp, msg.getMessage(), 0, msg.getLength());
+        }
+        if(!added) {
+            droppedEvents ++;
+        }
+        return added;
+    }
+    
+    /**
+     * Adds a SysEx message or fragment. Fragments are collected until the
+     * closing 0xF7 and the whole message is added at the time of the first
+     * fragment. Messages larger than the SysEx buffer are dropped.
+     * 
+     * @param msg the SysEx message or continuation
+     * @param timestamp the timestamp in Jack frames
+     * @return true if the message was accepted, false if it was dropped
+     */
+    private boolean addSysex(SysexMessage msg, long timestamp) {
+        byte raw[] = msg.getMessage();
+        int length = msg.getLength();
+        int start;
+        if(length < 1) {
+            return false;
+        }
+        // start of a new message
+        if((raw[0] & 0xff) == 0xf0) {
+            if(sysexOpen) {
+                droppedEvents ++;  // previous message was never finished
+            }
+            sysexOpen = true;
+            sysexOverflow = false;
+            sysexLength = 0;
+            sysexTimestamp = timestamp;
+            start = 0;
+        }
+        // continuation - the 0xF7 status is not part of the data
+        else {
+            if(!sysexOpen) {
+                droppedEvents ++;
+                return false;
+            }
+            start = 1;
+        }
+        int count = length - start;
+        if(sysexLength + count > sysexData.length) {
+            sysexOverflow = true;
+        }
+        else {
+            System.arraycopy(raw, start, sysexData, sysexLength, count);
+            sysexLength += count;
+        }
+        // end of the message
+        if((raw[length - 1] & 0xff) == 0xf7) {
+            sysexOpen = false;
+            if(sysexOverflow) {
+                droppedEvents ++;
+                return false;
+            }
+            if(!ring.offer(sysexTimestamp, sysexData, 0, sysexLength)) {
+                droppedEvents ++;
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Writes queued messages to the Jack port for one cycle. This is called
+     * from the process loop only.
+     * 
+     * The port is limited to eventBudget events and to the space left in
+     * the Jack buffer. The port's own limit is its budget or the number of
+     * short events the Jack buffer can hold, whichever is less. When the
+     * queue holds more than that, or the buffer fills up, the policy
+     * decides what happens to the rest. Anything held back only by the
+     * rest of eventBudget, which includes what is left of the cycle
+     * budget, is left for the next cycle.
+     * 
+     * @param lastFrameCount the frame time at the start of the cycle
+     * @param nframes the number of frames in the cycle
+     * @param eventBudget the most events to write this cycle
+     * @param portBudget the port's own budget the policy is applied
+     * against - Integer.MAX_VALUE to be limited by the Jack buffer only
+     * @param policy the overload policy
+     * @param residency records how long each written event was queued
+     * @return the number of events written
+     */
+    public int processCycle(long lastFrameCount, int nframes, int eventBudget, int portBudget,
+            OverloadPolicy policy, LogHistogram residency) {
+        long nowNanos = System.nanoTime();
+        int byteBudget;
+        try {
+            jackPort.clear();
+            // space for the next event plus its header
+            byteBudget = jackPort.getMaxEventSize() + MidiPortBuffer.JACK_EVENT_HEADER;
+        } catch (JackException e) {
+            writeErrors ++;
+            return 0;
+        }
+        int backlog = ring.size();
+        if(backlog > highWaterMark) {
+            highWaterMark = backlog;
+        }
+        // the most the port can write on its own - short events fit inline
+        int portLimit = Math.min(portBudget, byteBudget / MidiPortBuffer.JACK_EVENT_HEADER);
+        // drop the oldest so the newest events make it out
+        if(policy == OverloadPolicy.DROP_OLDEST) {
+            while(backlog > portLimit && ring.skip()) {
+                shedEvents ++;
+                backlog --;
+            }
+        }
+        byte data[] = eventData;
+        int events = 0;
+        int written = 0;  // bytes
+        boolean exhausted = false;
+        boolean full = false;  // stopped by the Jack buffer
+        while(!ring.isEmpty()) {
+            // over budget - shed low priority messages as they come up
+            if(policy == OverloadPolicy.DROP_BY_PRIORITY && backlog > portLimit - events &&
+                    MidiMessageUtils.isSheddableStatus(ring.peekStatus())) {
+                ring.skip();
+                shedEvents ++;
+                backlog --;
+                continue;
+            }
+            if(events >= eventBudget) {
+                exhausted = true;
+                break;
+            }
+            int length = ring.peekLength();
+            int cost = MidiPortBuffer.JACK_EVENT_HEADER +
+                (length > MidiPortBuffer.JACK_EVENT_INLINE ? length : 0);
+            if(cost > byteBudget) {
+                // it will never fit so drop it, otherwise try next cycle
+                if(events == 0) {
+                    skipMessage();
+                    backlog --;
+                    continue;
+                }
+                exhausted = true;
+                full = true;
+                break;
+            }
+            int offset = (int)(ring.peekTimestamp() - lastFrameCount);  // offset in frames
+            residency.record(nowNanos - ring.peekEnqueueNanos());
+            length = ring.poll(data);
+            backlog --;
+            if(length < 1) {
+                continue;
+            }
+            offset += nframes;  // push forward 1 buffer period
+            // clamp to valid range
+            if(offset < 0) {
+                offset = 0;
+            }
+            else if(offset >= nframes) {
+                offset = nframes - 1;
+            }
+            try {
+                jackPort.writeEvent(offset, data, length);
+            } catch (JackException e) {
+                // the buffer is full after all - count it and stop
+                writeErrors ++;
+                exhausted = true;
+                full = true;
+                countLostEvents();
+                break;
+            }
+            byteBudget -= cost;
+            written += length;
+            events ++;
+        }
+        // the buffer filled early - shed the low priority messages up next
+        if(full && policy == OverloadPolicy.DROP_BY_PRIORITY) {
+            while(!ring.isEmpty() && MidiMessageUtils.isSheddableStatus(ring.peekStatus())) {
+                ring.skip();
+                shedEvents ++;
+            }
+        }
+        if(exhausted) {
+            budgetExhausted ++;
+        }
+        if(events > 0) {
+            writtenEvents += events;
+        }
+        throughput.add(written);
+        return events;
+    }
+    
+    /**
+     * Adds the events Jack lost in this cycle to the count. This is only
+     * called after a write failed so Jack is not asked every cycle.
+     */
+    private void countLostEvents() {
+        try {
+            int lost = jackPort.getLostEventCount();
+            if(lost > 0) {
+                lostEvents += lost;
+            }
+        } catch (JackException e) {
+            writeErrors ++;
+        }
+    }
+    
+    /**
+     * Gets the timestamp of the next message. A message must be available.
+     * 
+     * @return the timestamp in Jack frames
+     */
+    public long peekTimestamp() {
+        return ring.peekTimestamp();
+    }
+    
+    /**
+     * Gets the length of the next message. A message must be available.
+     * 
+     * @return the length in bytes
+     */
+    public int peekLength() {
+        return ring.peekLength();
+    }
+    
+    /**
+     * Removes the next message without reading it. This is used for
+     * messages that can never fit in a Jack buffer.
      */
-    public void addQueue(TimedMessage msg) {
-        messageQueue.add(msg);
+    public void skipMessage() {
+        if(ring.skip()) {
+            oversizedEvents ++;
+        }
     }
     
     /**
      * Removes a message from the queue.
      * 
-     * @return the message removed
+     * @param dest the buffer to copy the message into
+     * @return the message length, 0 if the message did not fit in dest,
+     * or -1 if the queue is empty
      */
-    public TimedMessage removeQueue() {
-        return messageQueue.remove();
+    public int removeMessage(byte dest[]) {
+        return ring.poll(dest);
     }
 
     /**
@@ -68,10 +389,125 @@ public class SysToJackQueue {
      * @return true if there are messages available, false otherwise
      */
     public boolean messageAvailable() {
-        if(messageQueue.size() > 0) {
-            return true;
-        }
-        return false;
+        return !ring.isEmpty();
+    }
+    
+    /**
+     * Gets the number of messages dropped because the queue was full.
+     * 
+     * @return the number of dropped messages
+     */
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+    
+    /**
+     * Gets the number of messages dropped because they were too large
+     * for the Jack buffer.
+     * 
+     * @return the number of oversized messages
+     */
+    public long getOversizedEvents() {
+        return oversizedEvents;
+    }
+    
+    /**
+     * Gets the number of messages dropped by the overload policy.
+     * 
+     * @return the number of shed messages
+     */
+    public long getShedEvents() {
+        return shedEvents;
+    }
+    
+    /**
+     * Gets the number of cycles that ran out of budget.
+     * 
+     * @return the number of cycles
+     */
+    public long getBudgetExhausted() {
+        return budgetExhausted;
+    }
+    
+    /**
+     * Gets the number of messages Jack refused to write.
+     * 
+     * @return the number of write errors
+     */
+    public long getWriteErrors() {
+        return writeErrors;
+    }
+    
+    @Override
+    public long getEventsIn() {
+        return receivedEvents;
+    }
+    
+    @Override
+    public long getBytesIn() {
+        return receivedBytes;
+    }
+    
+    @Override
+    public long getEventsOut() {
+        return writtenEvents;
+    }
+    
+    @Override
+    public long getBytesOut() {
+        return throughput.getTotal();
+    }
+    
+    @Override
+    public long getDrops() {
+        return droppedEvents + oversizedEvents + shedEvents;
+    }
+    
+    @Override
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+    
+    @Override
+    public long getLostEvents() {
+        return lostEvents;
+    }
+    
+    @Override
+    public long getErrors() {
+        return writeErrors;
+    }
+    
+    @Override
+    public long getLastEventNanos() {
+        return lastEventNanos;
+    }
+    
+    /**
+     * Gets the meter for bytes written to Jack.
+     * 
+     * @return the throughput meter
+     */
+    public ThroughputMeter getThroughput() {
+        return throughput;
+    }
+    
+    /**
+     * Gets the scratch buffer for event data.
+     * 
+     * @return the scratch buffer
+     */
+    public byte[] getEventData() {
+        return eventData;
+    }
+    
+    /**
+     * Gets the system port clock.
+     * 
+     * @return the clock
+     */
+    public DeviceClock getClock() {
+        return clock;
     }
     
     /**
@@ -84,11 +520,11 @@ public class SysToJackQueue {
     }
     
     /**
-     * Gets the JackPort.
+     * Gets the Jack port buffer.
      * 
-     * @return the JackPort
+     * @return the Jack port buffer
      */
-    public JackPort getJackPort() {
+    public MidiPortBuffer getJackPort() {
         return jackPort;
     }
 }
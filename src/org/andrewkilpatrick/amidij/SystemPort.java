@@ -0,0 +1,137 @@
+/*
+ * System Port
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import org.andrewkilpatrick.amidij.alsaMidi.SystemMidiInterface;
+import org.andrewkilpatrick.amidij.jack.MidiPortBuffer;
+
+/**
+ * One system port in one direction, with its names worked out once when
+ * it is first seen and the state that used to be spread over maps keyed
+ * by those names. The ID is dense and never reused, so tables of ports
+ * are plain arrays.
+ * 
+ * Everything but the input route and the interface is guarded by the
+ * AMidiJ lock. Those two are also read by the device receive threads.
+ */
+public class SystemPort {
+    final int id;
+    final String sysName;  // raw system port name
+    String aliasName;  // alias or raw name
+    String jackPortName;  // our Jack port name
+    PortMetrics metrics;
+    MidiPortBuffer jackPort;  // registered Jack port or null
+    volatile SystemMidiInterface midi;  // open or opening device or null
+    long lingerDue;  // time to close with no links - 0 if not lingering
+    long seenScan;  // last scan the device was listed in
+    JackToSys jackToSys;  // route to a system output
+    volatile SysToJackQueue sysToJack;  // route from a system input
+    
+    /**
+     * Creates a SystemPort.
+     * 
+     * @param id the port ID
+     * @param sysName the raw system port name
+     * @param aliasName the alias or raw name
+     * @param jackPortName our Jack port name
+     * @param metrics the metrics for the port
+     */
+    public SystemPort(int id, String sysName, String aliasName, String jackPortName,
+            PortMetrics metrics) {
+        this.id = id;
+        this.sysName = sysName;
+        this.aliasName = aliasName;
+        this.jackPortName = jackPortName;
+        this.metrics = metrics;
+        jackPort = null;
+        midi = null;
+        lingerDue = 0;
+        seenScan = -1;
+        jackToSys = null;
+        sysToJack = null;
+    }
+    
+    /**
+     * Gets the port ID.
+     * 
+     * @return the ID
+     */
+    public int getId() {
+        return id;
+    }
+    
+    /**
+     * Gets the raw system port name.
+     * 
+     * @return the system name
+     */
+    public String getSysName() {
+        return sysName;
+    }
+    
+    /**
+     * Gets the alias name, which is the raw name if there is no alias.
+     * 
+     * @return the alias name
+     */
+    public String getAliasName() {
+        return aliasName;
+    }
+    
+    /**
+     * Gets our Jack port name.
+     * 
+     * @return the Jack port name without the client name
+     */
+    public String getJackPortName() {
+        return jackPortName;
+    }
+    
+    /**
+     * Gets the metrics for the port.
+     * 
+     * @return the metrics
+     */
+    public PortMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Gives the port the names and metrics for a new alias. The caller
+     * must hold the AMidiJ lock.
+     * 
+     * @param aliasName the new alias or raw name
+     * @param jackPortName the new Jack port name
+     * @param metrics the metrics for the new alias
+     */
+    void rename(String aliasName, String jackPortName, PortMetrics metrics) {
+        this.aliasName = aliasName;
+        this.jackPortName = jackPortName;
+        this.metrics = metrics;
+    }
+    
+    @Override
+    public String toString() {
+        return aliasName;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Device Scan
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.alsaMidi;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * The device names found by one scan and what changed since the scan
+ * before it.
+ */
+public class DeviceScan {
+    public static final DeviceScan EMPTY = new DeviceScan(Collections.emptyList(),
+        Collections.emptyList(), Collections.emptyList(), Collections.emptyList(),
+        Collections.emptyList(), Collections.emptyList());
+    final List<String> inputs;
+    final List<String> outputs;
+    final List<String> addedInputs;
+    final List<String> removedInputs;
+    final List<String> addedOutputs;
+    final List<String> removedOutputs;
+    
+    /**
+     * Creates a DeviceScan and works out the changes.
+     * 
+     * @param previous the previous scan
+     * @param inputs the input device names found
+     * @param outputs the output device names found
+     */
+    public DeviceScan(DeviceScan previous, List<String> inputs, List<String> outputs) {
+        this(inputs, outputs, diff(inputs, previous.inputs), diff(previous.inputs, inputs),
+            diff(outputs, previous.outputs), diff(previous.outputs, outputs));
+    }
+    
+    private DeviceScan(List<String> inputs, List<String> outputs, List<String> addedInputs,
+            List<String> removedInputs, List<String> addedOutputs, List<String> removedOutputs) {
+        this.inputs = Collections.unmodifiableList(inputs);
+        this.outputs = Collections.unmodifiableList(outputs);
+        this.addedInputs = addedInputs;
+        this.removedInputs = removedInputs;
+        this.addedOutputs = addedOutputs;
+        this.removedOutputs = removedOutputs;
+    }
+    
+    /**
+     * Gets a scan with the same devices as this one and no changes.
+     * 
+     * @return the scan
+     */
+    public DeviceScan unchanged() {
+        if(!isChanged()) {
+            return this;
+        }
+        return new DeviceScan(inputs, outputs, Collections.emptyList(), Collections.emptyList(),
+            Collections.emptyList(), Collections.emptyList());
+    }
+    
+    /**
+     * Gets the input device names found.
+     * 
+     * @return the input device names
+     */
+    public List<String> getInputs() {
+        return inputs;
+    }
+    
+    /**
+     * Gets the output device names found.
+     * 
+     * @return the output device names
+     */
+    public List<String> getOutputs() {
+        return outputs;
+    }
+    
+    /**
+     * Gets the input device names that were not in the previous scan.
+     * 
+     * @return the new input device names
+     */
+    public List<String> getAddedInputs() {
+        return addedInputs;
+    }
+    
+    /**
+     * Gets the input device names that were in the previous scan only.
+     * 
+     * @return the input device names that went away
+     */
+    public List<String> getRemovedInputs() {
+        return removedInputs;
+    }
+    
+    /**
+     * Gets the output device names that were not in the previous scan.
+     * 
+     * @return the new output device names
+     */
+    public List<String> getAddedOutputs() {
+        return addedOutputs;
+    }
+    
+    /**
+     * Gets the output device names that were in the previous scan only.
+     * 
+     * @return the output device names that went away
+     */
+    public List<String> getRemovedOutputs() {
+        return removedOutputs;
+    }
+    
+    /**
+     * Checks if anything was added or removed since the previous scan.
+     * 
+     * @return true if something changed, false otherwise
+     */
+    public boolean isChanged() {
+        return !addedInputs.isEmpty() || !removedInputs.isEmpty() ||
+            !addedOutputs.isEmpty() || !removedOutputs.isEmpty();
+    }
+    
+    /**
+     * Gets the names in a that are not in b.
+     */
+    private static List<String> diff(List<String> a, List<String> b) {
+        LinkedHashSet<String> result = new LinkedHashSet<>(a);
+        result.removeAll(new HashSet<>(b));
+        return Collections.unmodifiableList(new LinkedList<>(result));
+    }
+}
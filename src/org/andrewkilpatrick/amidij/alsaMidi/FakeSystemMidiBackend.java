@@ -0,0 +1,233 @@
+/*
+ * Fake System MIDI Backend
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.alsaMidi;
+
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.ShortMessage;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Made up MIDI devices that live in memory. Devices can be added and
+ * removed at any time and every open input receives note on / off pairs
+ * at a fixed rate, timestamped in device microseconds like JavaSound.
+ */
+public class FakeSystemMidiBackend implements SystemMidiBackend, Runnable {
+    public static final int TRAFFIC_MILLIS = 1;  // time between traffic bursts
+    Logger log;
+    final long startNanos;  // device time zero
+    CopyOnWriteArrayList<String> deviceNames;
+    CopyOnWriteArrayList<FakeSystemMidiInterface> openInputs;
+    MidiDeviceManager devices;  // only tracks open interfaces
+    DeviceScan lastScan;  // guarded by this
+    Thread trafficThread;
+    volatile boolean running;
+    volatile int trafficRate;  // events per second per open input
+    int trafficNote;
+    
+    /**
+     * Creates a FakeSystemMidiBackend with no devices. The traffic thread
+     * is not started.
+     */
+    public FakeSystemMidiBackend() {
+        log = LogManager.getLogger(this.getClass());
+        startNanos = System.nanoTime();
+        deviceNames = new CopyOnWriteArrayList<>();
+        openInputs = new CopyOnWriteArrayList<>();
+        devices = new MidiDeviceManager();
+        lastScan = DeviceScan.EMPTY;
+        running = false;
+        trafficRate = 0;
+        trafficNote = 0;
+    }
+    
+    /**
+     * Adds a device with one input and one output.
+     * 
+     * @param name the device name
+     */
+    public void addDevice(String name) {
+        if(deviceNames.addIfAbsent(name)) {
+            log.info("fake MIDI device added: " + name);
+        }
+    }
+    
+    /**
+     * Removes a device. Interfaces that have it open stop receiving and
+     * fail to send.
+     * 
+     * @param name the device name
+     */
+    public void removeDevice(String name) {
+        if(deviceNames.remove(name)) {
+            log.info("fake MIDI device removed: " + name);
+        }
+    }
+    
+    /**
+     * Checks if a device is present.
+     * 
+     * @param name the device name
+     * @return true if the device is present, false otherwise
+     */
+    public boolean hasDevice(String name) {
+        return deviceNames.contains(name);
+    }
+    
+    /**
+     * Sets the traffic sent to each open input.
+     * 
+     * @param eventsPerSecond the events per second per input - 0 is off
+     */
+    public void setTrafficRate(int eventsPerSecond) {
+        trafficRate = eventsPerSecond;
+    }
+    
+    /**
+     * Starts sending traffic to open inputs.
+     */
+    public synchronized void start() {
+        if(running) {
+            return;
+        }
+        running = true;
+        trafficThread = new Thread(this, "fake midi traffic");
+        trafficThread.setDaemon(true);
+        trafficThread.start();
+    }
+    
+    /**
+     * Stops sending traffic and waits for the traffic thread to finish.
+     */
+    public synchronized void stop() {
+        if(!running) {
+            return;
+        }
+        running = false;
+        try {
+            trafficThread.join();
+        } catch (InterruptedException e) {
+            log.error(e.toString());
+        }
+        trafficThread = null;
+    }
+    
+    /**
+     * Gets the device clock shared by all fake devices.
+     * 
+     * @return the position in microseconds
+     */
+    public long getMicrosecondPosition() {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+    
+    @Override
+    public synchronized DeviceScan scan() {
+        ArrayList<String> names = new ArrayList<>(deviceNames);
+        lastScan = new DeviceScan(lastScan, names, names);
+        return lastScan;
+    }
+
+    @Override
+    public SystemMidiInterface createInterface() throws MidiUnavailableException {
+        return new FakeSystemMidiInterface(this);
+    }
+    
+    @Override
+    public MidiDeviceManager getDeviceManager() {
+        return devices;
+    }
+    
+    @Override
+    public void shutdown() {
+        stop();
+        devices.shutdown();
+    }
+    
+    /*
+     * The traffic thread.
+     */
+    @Override
+    public void run() {
+        long last = System.nanoTime();
+        double credit = 0.0;
+        while(running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(TRAFFIC_MILLIS));
+            long now = System.nanoTime();
+            credit += (double)trafficRate * (now - last) / 1000000000.0;
+            last = now;
+            int events = (int)credit;
+            credit -= events;
+            if(events == 0) {
+                continue;
+            }
+            for(FakeSystemMidiInterface midi : openInputs) {
+                if(!hasDevice(midi.getInputDeviceNameOpened())) {
+                    continue;
+                }
+                for(int i = 0; i < events; i ++) {
+                    try {
+                        boolean on = (trafficNote & 0x01) == 0;
+                        ShortMessage msg = new ShortMessage(on ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF,
+                            0, 36 + ((trafficNote >> 1) % 48), on ? 100 : 0);
+                        midi.deliver(msg, getMicrosecondPosition());
+                        trafficNote ++;
+                    } catch (InvalidMidiDataException e) {
+                        log.error(e.toString());
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Finds a device the same way JavaSound ports are opened.
+     * 
+     * @param name the name or the start of the name
+     * @return the device name or null if not found
+     */
+    String findDevice(String name) {
+        String found = null;
+        for(String devName : deviceNames) {
+            if(devName.toLowerCase().trim().startsWith(name.toLowerCase().trim())) {
+                found = devName;
+            }
+        }
+        return found;
+    }
+    
+    void inputOpened(FakeSystemMidiInterface midi) {
+        openInputs.addIfAbsent(midi);
+    }
+    
+    void inputClosed(FakeSystemMidiInterface midi) {
+        openInputs.remove(midi);
+    }
+}
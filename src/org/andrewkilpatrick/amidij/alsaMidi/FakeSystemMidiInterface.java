@@ -0,0 +1,162 @@
+/*
+ * Fake System MIDI Interface
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.alsaMidi;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiUnavailableException;
+
+/**
+ * A MIDI handler for a FakeSystemMidiBackend device. Sent messages are
+ * counted and then dropped.
+ */
+public class FakeSystemMidiInterface extends SystemMidiInterface {
+    final FakeSystemMidiBackend backend;
+    volatile boolean inputOpen;
+    volatile boolean outputOpen;
+    long sentMessages;
+    long sentBytes;
+    
+    /**
+     * Creates a FakeSystemMidiInterface with no ports open.
+     * 
+     * @param backend the backend that has the devices
+     * @throws MidiUnavailableException never
+     */
+    public FakeSystemMidiInterface(FakeSystemMidiBackend backend) throws MidiUnavailableException {
+        super(null, backend.devices);
+        this.backend = backend;
+        inputOpen = false;
+        outputOpen = false;
+        sentMessages = 0;
+        sentBytes = 0;
+    }
+    
+    @Override
+    public void openMIDIInputPort(String inDevName,
+            SystemMidiReceiveHandler receiveHandler) throws MidiUnavailableException {
+        String devName = backend.findDevice(inDevName);
+        if(devName == null) {
+            throw new MidiUnavailableException("MIDI input not found: " + inDevName);
+        }
+        log.info("opening fake MIDI in port: " + devName);
+        inputDeviceName = inDevName;
+        mrh = receiveHandler;
+        inputOpen = true;
+        backend.inputOpened(this);
+        devices.portsOpened(this);
+    }
+    
+    @Override
+    public void openMIDIOutputPort(String outDevName) throws MidiUnavailableException {
+        String devName = backend.findDevice(outDevName);
+        if(devName == null) {
+            throw new MidiUnavailableException("MIDI output not found: " + outDevName);
+        }
+        log.info("opening fake MIDI out port: " + devName);
+        outputDeviceName = outDevName;
+        outputOpen = true;
+        outputWire.reset();
+        devices.portsOpened(this);
+    }
+    
+    @Override
+    public void closeMIDIPorts() {
+        log.info("closing fake MIDI port...");
+        backend.inputClosed(this);
+        inputOpen = false;
+        outputOpen = false;
+        devices.portsClosed(this);
+    }
+    
+    @Override
+    public void close() {
+        outputOpen = false;
+    }
+    
+    @Override
+    public long getInputDevicePosition() {
+        if(!inputOpen) {
+            return -1;
+        }
+        return backend.getMicrosecondPosition();
+    }
+    
+    @Override
+    public long getOutputDevicePosition() {
+        if(!outputOpen) {
+            return -1;
+        }
+        return backend.getMicrosecondPosition();
+    }
+    
+    @Override
+    public void sendMessage(MidiMessage msg) throws InvalidMidiDataException {
+        sendMessage(msg, -1);
+    }
+    
+    @Override
+    public void sendMessage(MidiMessage msg, long timestamp) throws InvalidMidiDataException {
+        if(!outputOpen) {
+            throw new InvalidMidiDataException("output port is not enabled");
+        }
+        if(!backend.hasDevice(outputDeviceName)) {
+            throw new InvalidMidiDataException("output device is gone: " + outputDeviceName);
+        }
+        sentMessages ++;
+        sentBytes += msg.getLength();
+        outputWire.account(msg.getStatus(), msg.getLength());
+    }
+    
+    /**
+     * Gets the number of messages sent.
+     * 
+     * @return the number of messages
+     */
+    public long getSentMessages() {
+        return sentMessages;
+    }
+    
+    /**
+     * Gets the number of bytes sent.
+     * 
+     * @return the number of bytes
+     */
+    public long getSentBytes() {
+        return sentBytes;
+    }
+    
+    /**
+     * Passes a message from the device to the receive handler. The real
+     * driver fixes up pitch bend in send() so the fake skips it.
+     * 
+     * @param msg the message
+     * @param timestamp the device timestamp in microseconds
+     */
+    void deliver(MidiMessage msg, long timestamp) {
+        SystemMidiReceiveHandler handler = mrh;
+        if(inputOpen && handler != null) {
+            handler.messageReceived(msg, timestamp, this);
+        }
+    }
+}
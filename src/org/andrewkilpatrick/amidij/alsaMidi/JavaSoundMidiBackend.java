@@ -0,0 +1,63 @@
+/*
+ * JavaSound MIDI Backend
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.alsaMidi;
+
+import javax.sound.midi.MidiUnavailableException;
+
+/**
+ * Lists and opens devices with javax.sound.midi. Device handles are
+ * cached between scans in a MidiDeviceRegistry and opened and closed
+ * through a MidiDeviceManager.
+ */
+public class JavaSoundMidiBackend implements SystemMidiBackend {
+    MidiDeviceRegistry registry;
+    MidiDeviceManager devices;
+    
+    /**
+     * Creates a JavaSoundMidiBackend.
+     */
+    public JavaSoundMidiBackend() {
+        registry = new MidiDeviceRegistry();
+        devices = new MidiDeviceManager();
+    }
+
+    @Override
+    public DeviceScan scan() throws MidiUnavailableException {
+        return registry.refresh();
+    }
+
+    @Override
+    public SystemMidiInterface createInterface() throws MidiUnavailableException {
+        return new SystemMidiInterface(registry, devices);
+    }
+
+    @Override
+    public MidiDeviceManager getDeviceManager() {
+        return devices;
+    }
+
+    @Override
+    public void shutdown() {
+        devices.shutdown();
+    }
+}
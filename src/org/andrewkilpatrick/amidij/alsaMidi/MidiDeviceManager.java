@@ -0,0 +1,171 @@
+/*
+ * MIDI Device Manager
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.alsaMidi;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiUnavailableException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Owns the open JavaSound devices for a backend. A device is opened when
+ * the first interface uses it and closed when the last one lets go, with
+ * a separate count for each direction. The interfaces with ports open are
+ * tracked so they can all be closed by one shutdown sequence instead of a
+ * shutdown hook for every interface.
+ */
+public class MidiDeviceManager {
+    Logger log;
+    // guarded by this
+    IdentityHashMap<MidiDevice, Handle> handles;  // open devices
+    LinkedHashSet<SystemMidiInterface> interfaces;  // interfaces with ports open
+    boolean shutdown;
+    
+    /**
+     * Creates a MidiDeviceManager.
+     */
+    public MidiDeviceManager() {
+        log = LogManager.getLogger(this.getClass());
+        handles = new IdentityHashMap<>();
+        interfaces = new LinkedHashSet<>();
+        shutdown = false;
+    }
+    
+    /**
+     * Takes a reference to a device and opens it if it is not open yet.
+     * 
+     * @param dev the device
+     * @param input true for an input reference, false for output
+     * @throws MidiUnavailableException if the device could not be opened
+     */
+    public synchronized void acquire(MidiDevice dev, boolean input) throws MidiUnavailableException {
+        if(shutdown) {
+            throw new MidiUnavailableException("shutting down");
+        }
+        Handle handle = handles.get(dev);
+        if(handle == null) {
+            dev.open();
+            handle = new Handle();
+            handles.put(dev, handle);
+        }
+        if(input) {
+            handle.inputRefs ++;
+        }
+        else {
+            handle.outputRefs ++;
+        }
+    }
+    
+    /**
+     * Drops a reference to a device and closes it if nothing else uses it.
+     * 
+     * @param dev the device
+     * @param input true for an input reference, false for output
+     */
+    public synchronized void release(MidiDevice dev, boolean input) {
+        Handle handle = handles.get(dev);
+        if(handle == null) {
+            return;
+        }
+        if(input && handle.inputRefs > 0) {
+            handle.inputRefs --;
+        }
+        else if(!input && handle.outputRefs > 0) {
+            handle.outputRefs --;
+        }
+        if(handle.inputRefs == 0 && handle.outputRefs == 0) {
+            handles.remove(dev);
+            dev.close();
+        }
+    }
+    
+    /**
+     * Notes that an interface has a port open.
+     * 
+     * @param midi the interface
+     */
+    public synchronized void portsOpened(SystemMidiInterface midi) {
+        interfaces.add(midi);
+    }
+    
+    /**
+     * Notes that an interface has closed its ports.
+     * 
+     * @param midi the interface
+     */
+    public synchronized void portsClosed(SystemMidiInterface midi) {
+        interfaces.remove(midi);
+    }
+    
+    /**
+     * Gets the number of open devices.
+     * 
+     * @return the number of devices
+     */
+    public synchronized int getOpenDeviceCount() {
+        return handles.size();
+    }
+    
+    /**
+     * Gets the number of interfaces with ports open.
+     * 
+     * @return the number of interfaces
+     */
+    public synchronized int getOpenInterfaceCount() {
+        return interfaces.size();
+    }
+    
+    /**
+     * Closes every interface and then any device still open. Nothing can
+     * be opened afterwards.
+     */
+    public void shutdown() {
+        ArrayList<SystemMidiInterface> open;
+        synchronized(this) {
+            shutdown = true;
+            open = new ArrayList<>(interfaces);
+        }
+        // the interfaces call back in to release their devices
+        for(SystemMidiInterface midi : open) {
+            midi.closeMIDIPorts();
+        }
+        synchronized(this) {
+            for(MidiDevice dev : handles.keySet()) {
+                log.warn("closing device left open: " + dev.getDeviceInfo().getName());
+                dev.close();
+            }
+            handles.clear();
+            interfaces.clear();
+        }
+    }
+    
+    static class Handle {
+        int inputRefs;
+        int outputRefs;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * MIDI Device Registry
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.alsaMidi;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.TreeMap;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiDevice.Info;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+
+/**
+ * Keeps the JavaSound device handles between scans so each scan asks
+ * MidiSystem for the device list once and only looks up handles for
+ * devices it has not seen before. Ports are opened by looking the name
+ * up in an index instead of searching every device.
+ */
+public class MidiDeviceRegistry {
+    
+    /**
+     * Where the devices come from. This is MidiSystem except when
+     * benchmarking.
+     */
+    public interface DeviceSource {
+        
+        public Info[] getDeviceInfo();
+        
+        public MidiDevice getDevice(Info info) throws MidiUnavailableException;
+    }
+    
+    public static final DeviceSource SYSTEM = new DeviceSource() {
+        @Override
+        public Info[] getDeviceInfo() {
+            return MidiSystem.getMidiDeviceInfo();
+        }
+
+        @Override
+        public MidiDevice getDevice(Info info) throws MidiUnavailableException {
+            return MidiSystem.getMidiDevice(info);
+        }
+    };
+    DeviceSource source;
+    Info lastInfos[];  // the device list from the last scan
+    HashMap<Info, MidiDevice> devices;  // cached handles from the last scan
+    TreeMap<String, Integer> inputIndex;  // normalized name, last position in lastInfos
+    TreeMap<String, Integer> outputIndex;  // normalized name, last position in lastInfos
+    DeviceScan lastScan;
+    boolean invalid;  // refresh before the next lookup
+    
+    /**
+     * Creates a MidiDeviceRegistry for the system devices.
+     */
+    public MidiDeviceRegistry() {
+        this(SYSTEM);
+    }
+    
+    /**
+     * Creates a MidiDeviceRegistry.
+     * 
+     * @param source where to get devices from
+     */
+    public MidiDeviceRegistry(DeviceSource source) {
+        this.source = source;
+        devices = new HashMap<>();
+        inputIndex = new TreeMap<>();
+        outputIndex = new TreeMap<>();
+        lastInfos = new Info[0];
+        lastScan = DeviceScan.EMPTY;
+        invalid = false;
+    }
+    
+    /**
+     * Gets the current devices and works out what changed since the last
+     * call.
+     * 
+     * @return the scan result
+     * @throws MidiUnavailableException if a new device could not be looked up
+     */
+    public synchronized DeviceScan refresh() throws MidiUnavailableException {
+        Info infos[] = source.getDeviceInfo();
+        // providers hand back the same Info for a device that is still there
+        if(Arrays.equals(infos, lastInfos)) {
+            invalid = false;
+            lastScan = lastScan.unchanged();
+            return lastScan;
+        }
+        HashMap<Info, MidiDevice> found = new HashMap<>();
+        TreeMap<String, Integer> inIndex = new TreeMap<>();
+        TreeMap<String, Integer> outIndex = new TreeMap<>();
+        LinkedList<String> inputNames = new LinkedList<>();
+        LinkedList<String> outputNames = new LinkedList<>();
+        for(int i = 0; i < infos.length; i ++) {
+            MidiDevice dev = devices.get(infos[i]);
+            if(dev == null) {
+                dev = source.getDevice(infos[i]);
+            }
+            found.put(infos[i], dev);
+            String name = infos[i].getName();
+            // -1 = unlimited number of ports
+            if(dev.getMaxTransmitters() != 0) {
+                inputNames.addLast(name);
+                inIndex.put(normalize(name), i);
+            }
+            if(dev.getMaxReceivers() != 0) {
+                outputNames.addLast(name);
+                outIndex.put(normalize(name), i);
+            }
+        }
+        lastInfos = infos;
+        invalid = false;
+        devices = found;
+        inputIndex = inIndex;
+        outputIndex = outIndex;
+        lastScan = new DeviceScan(lastScan, inputNames, outputNames);
+        return lastScan;
+    }
+    
+    /**
+     * Marks the cached handles as out of date so the next lookup refreshes
+     * them first. This is for when something other than refresh() keeps
+     * track of the devices.
+     */
+    public synchronized void invalidate() {
+        invalid = true;
+    }
+    
+    /**
+     * Gets the result of the last scan.
+     * 
+     * @return the last scan
+     */
+    public synchronized DeviceScan getLastScan() {
+        return lastScan;
+    }
+    
+    /**
+     * Finds an input device by name or the start of its name.
+     * 
+     * @param name the device name
+     * @return the device or null if not found
+     * @throws MidiUnavailableException if the devices had to be refreshed
+     * and a new device could not be looked up
+     */
+    public synchronized MidiDevice findInput(String name) throws MidiUnavailableException {
+        if(invalid) {
+            refresh();
+        }
+        return find(inputIndex, name);
+    }
+    
+    /**
+     * Finds an output device by name or the start of its name.
+     * 
+     * @param name the device name
+     * @return the device or null if not found
+     * @throws MidiUnavailableException if the devices had to be refreshed
+     * and a new device could not be looked up
+     */
+    public synchronized MidiDevice findOutput(String name) throws MidiUnavailableException {
+        if(invalid) {
+            refresh();
+        }
+        return find(outputIndex, name);
+    }
+    
+    /**
+     * Gets the number of devices seen in the last scan.
+     * 
+     * @return the number of devices
+     */
+    public synchronized int getDeviceCount() {
+        return devices.size();
+    }
+    
+    /**
+     * Looks up the last device in the system's order whose name starts
+     * with the name, which is how ports have always been matched.
+     */
+    private MidiDevice find(TreeMap<String, Integer> index, String name) {
+        String key = normalize(name);
+        int last = -1;
+        for(int pos : index.subMap(key, true, key + Character.MAX_VALUE, true).values()) {
+            last = Math.max(last, pos);
+        }
+        return last < 0 ? null : devices.get(lastInfos[last]);
+    }
+    
+    private static String normalize(String name) {
+        return name.toLowerCase().trim();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Proc Asound MIDI Backend
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.alsaMidi;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sound.midi.MidiUnavailableException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Lists ALSA rawmidi devices by reading /proc/asound, which is a few
+ * small file reads instead of a full JavaSound enumeration. Devices are
+ * named the way the JavaSound ALSA provider names them - the card id and
+ * the hw:card,device,subdevice address - so aliases keep working. Only
+ * opening a port goes through MidiSystem.
+ * 
+ * Software devices like Gervill and the Real Time Sequencer are not
+ * listed since they do not show up in /proc/asound.
+ */
+public class ProcAsoundMidiBackend implements SystemMidiBackend {
+    public static final String DEFAULT_DIR = "/proc/asound";
+    Logger log;
+    File dir;
+    MidiDeviceRegistry registry;  // only refreshed when opening
+    MidiDeviceManager devices;
+    DeviceScan lastScan;
+    
+    /**
+     * Creates a ProcAsoundMidiBackend.
+     * 
+     * @param dir the directory to read - normally /proc/asound
+     */
+    public ProcAsoundMidiBackend(String dir) {
+        log = LogManager.getLogger(this.getClass());
+        this.dir = new File(dir);
+        registry = new MidiDeviceRegistry();
+        registry.invalidate();
+        devices = new MidiDeviceManager();
+        lastScan = DeviceScan.EMPTY;
+    }
+
+    @Override
+    public synchronized DeviceScan scan() throws MidiUnavailableException {
+        ArrayList<String> inputs = new ArrayList<>();
+        ArrayList<String> outputs = new ArrayList<>();
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(new File(dir, "cards")));
+            try {
+                String line;
+                while((line = in.readLine()) != null) {
+                    readCard(line, inputs, outputs);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new MidiUnavailableException("error reading " + dir + ": " + e.getMessage());
+        }
+        lastScan = new DeviceScan(lastScan, inputs, outputs);
+        if(lastScan.isChanged()) {
+            // handles from JavaSound may belong to a device that went away
+            registry.invalidate();
+        }
+        return lastScan;
+    }
+
+    @Override
+    public SystemMidiInterface createInterface() throws MidiUnavailableException {
+        return new SystemMidiInterface(registry, devices);
+    }
+
+    @Override
+    public MidiDeviceManager getDeviceManager() {
+        return devices;
+    }
+
+    @Override
+    public void shutdown() {
+        devices.shutdown();
+    }
+    
+    /**
+     * Reads the rawmidi devices of a card from a line of the cards file.
+     * Card lines look like: " 1 [Uno            ]: USB-Audio - USB Uno MIDI Interface"
+     * and are followed by a description line which is skipped.
+     */
+    private void readCard(String line, List<String> inputs, List<String> outputs) throws IOException {
+        int open = line.indexOf('[');
+        int close = line.indexOf("]:");
+        if(open < 0 || close < open) {
+            return;
+        }
+        int card;
+        try {
+            card = Integer.parseInt(line.substring(0, open).trim());
+        } catch (NumberFormatException e) {
+            return;
+        }
+        String id = line.substring(open + 1, close).trim();
+        String files[] = new File(dir, "card" + card).list();
+        if(files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for(int i = 0; i < files.length; i ++) {
+            if(!files[i].startsWith("midi")) {
+                continue;
+            }
+            int device;
+            try {
+                device = Integer.parseInt(files[i].substring(4));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            readRawmidi(new File(dir, "card" + card + "/" + files[i]), id, card, device,
+                inputs, outputs);
+        }
+    }
+    
+    /**
+     * Reads the substreams of a rawmidi device. Each substream starts with
+     * an unindented "Input n" or "Output n" line.
+     */
+    private void readRawmidi(File file, String id, int card, int device,
+            List<String> inputs, List<String> outputs) throws IOException {
+        BufferedReader in;
+        try {
+            in = new BufferedReader(new FileReader(file));
+        } catch (IOException e) {
+            // removed since the directory was listed
+            log.debug("rawmidi device went away: " + file);
+            return;
+        }
+        try {
+            String line;
+            while((line = in.readLine()) != null) {
+                if(line.startsWith("Input ")) {
+                    inputs.add(makeName(id, card, device, line.substring(6)));
+                }
+                else if(line.startsWith("Output ")) {
+                    outputs.add(makeName(id, card, device, line.substring(7)));
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+    
+    private static String makeName(String id, int card, int device, String subdevice) {
+        return id + " [hw:" + card + "," + device + "," + subdevice.trim() + "]";
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * System MIDI Backend
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.alsaMidi;
+
+import javax.sound.midi.MidiUnavailableException;
+
+/**
+ * The system side of the bridge. JavaSoundMidiBackend lists and opens
+ * real devices and FakeSystemMidiBackend makes up devices in memory.
+ */
+public interface SystemMidiBackend {
+
+    /**
+     * Gets the current input and output device names and what changed
+     * since the last scan.
+     * 
+     * @return the scan result
+     * @throws MidiUnavailableException if there is a problem getting port names
+     */
+    public DeviceScan scan() throws MidiUnavailableException;
+    
+    /**
+     * Creates a MIDI interface with no ports open.
+     * 
+     * @return the interface
+     * @throws MidiUnavailableException if there is an error getting MIDI port info
+     */
+    public SystemMidiInterface createInterface() throws MidiUnavailableException;
+    
+    /**
+     * Gets the manager that owns the open devices and interfaces.
+     * 
+     * @return the device manager
+     */
+    public MidiDeviceManager getDeviceManager();
+    
+    /**
+     * Closes every port that is still open. This is called once when the
+     * program exits.
+     */
+    public void shutdown();
+}
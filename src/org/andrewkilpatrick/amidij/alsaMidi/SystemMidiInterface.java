@@ -34,6 +34,7 @@ import javax.sound.midi.Receiver;
 import javax.sound.midi.ShortMessage;
 import javax.sound.midi.Transmitter;
 
+import org.andrewkilpatrick.amidij.util.MidiWireEncoder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -47,27 +48,42 @@ public class SystemMidiInterface implements Receiver {
 	Logger log;
 	// input
 	String inputDeviceName = "";
-    MidiDevice inputDevice = null;
+    volatile MidiDevice inputDevice = null;  // cleared by closeMIDIPorts()
     Transmitter in = null;
     SystemMidiReceiveHandler mrh = null;
 	// output
     String outputDeviceName = "";
-	MidiDevice outputDevice = null;
+	volatile MidiDevice outputDevice = null;  // cleared by closeMIDIPorts()
 	Receiver out = null;
+	MidiWireEncoder outputWire = new MidiWireEncoder();  // output wire bytes
+	MidiDeviceRegistry registry;  // null to search MidiSystem when opening
+	MidiDeviceManager devices;  // opens and closes the devices
+	int portId = -1;  // the owner's ID for the port this is opened for
 	
 	/**
-	 * Creates a MIDIHandler with no ports open.
+	 * Creates a MIDIHandler with no ports open and its own device manager.
+	 * The ports must be closed by the caller.
 	 * 
 	 * @throws MidiUnavailableException if there is an error getting MIDI port info
 	 */
 	public SystemMidiInterface() throws MidiUnavailableException {
+		this(null, new MidiDeviceManager());
+	}
+	
+	/**
+	 * Creates a MIDIHandler with no ports open that finds devices in a
+	 * registry and shares them through a device manager.
+	 * 
+	 * @param registry the registry to find devices in or null to search
+	 * MidiSystem
+	 * @param devices the device manager
+	 * @throws MidiUnavailableException if there is an error getting MIDI port info
+	 */
+	public SystemMidiInterface(MidiDeviceRegistry registry, MidiDeviceManager devices)
+			throws MidiUnavailableException {
 		log = LogManager.getLogger(this.getClass());
-		Thread t = new Thread() {
-			public void run() {
-				closeMIDIPorts();
-			}
-		};
-		Runtime.getRuntime().addShutdownHook(t);
+		this.registry = registry;
+		this.devices = devices;
 	}
 
 	/**
@@ -140,6 +156,15 @@ public class SystemMidiInterface implements Receiver {
 	 */
 	public void openMIDIInputPort(String inDevName,
 	        SystemMidiReceiveHandler receiveHandler) throws MidiUnavailableException {
+		if(registry != null) {
+			MidiDevice dev = registry.findInput(inDevName);
+			if(dev == null) {
+				throw new MidiUnavailableException("MIDI input not found: " + inDevName);
+			}
+			log.info("opening MIDI in port: " + dev.getDeviceInfo().getName());
+			openInput(dev, inDevName, receiveHandler);
+			return;
+		}
 		// get device by searching names
 		Info midiDevices[] = MidiSystem.getMidiDeviceInfo();
 		int inputDevNum = -1;
@@ -157,14 +182,28 @@ public class SystemMidiInterface implements Receiver {
 		if(inputDevNum >= 0) {
 			log.info("opening MIDI in port: "
 					+ midiDevices[inputDevNum].getName());
-			inputDevice = MidiSystem.getMidiDevice(midiDevices[inputDevNum]);
-			inputDevice.open();
-			inputDeviceName = inDevName;
-			in = inputDevice.getTransmitter();
-			this.mrh = receiveHandler;
-			in.setReceiver(this);
+			openInput(MidiSystem.getMidiDevice(midiDevices[inputDevNum]), inDevName, receiveHandler);
 		}
 	}
+	
+	/**
+	 * Opens an input device and starts receiving from it.
+	 */
+	private synchronized void openInput(MidiDevice dev, String inDevName,
+	        SystemMidiReceiveHandler receiveHandler) throws MidiUnavailableException {
+		devices.acquire(dev, true);
+		try {
+			in = dev.getTransmitter();
+		} catch (MidiUnavailableException e) {
+			devices.release(dev, true);
+			throw e;
+		}
+		inputDevice = dev;
+		inputDeviceName = inDevName;
+		this.mrh = receiveHandler;
+		in.setReceiver(this);
+		devices.portsOpened(this);
+	}
 
    /**
      * Open MIDI output port by name.
@@ -173,6 +212,15 @@ public class SystemMidiInterface implements Receiver {
      * @throws MidiUnavailableException if there is a problem opening the port
      */
     public void openMIDIOutputPort(String outDevName) throws MidiUnavailableException {
+        if(registry != null) {
+            MidiDevice dev = registry.findOutput(outDevName);
+            if(dev == null) {
+                throw new MidiUnavailableException("MIDI output not found: " + outDevName);
+            }
+            log.info("opening MIDI out port: " + dev.getDeviceInfo().getName());
+            openOutput(dev, outDevName);
+            return;
+        }
         // get device by searching names
         Info midiDevices[] = MidiSystem.getMidiDeviceInfo();
         int outputDevNum = -1;
@@ -190,26 +238,49 @@ public class SystemMidiInterface implements Receiver {
         if(outputDevNum >= 0) {
             log.info("opening MIDI out port: "
                     + midiDevices[outputDevNum].getName());
-            outputDevice = MidiSystem.getMidiDevice(midiDevices[outputDevNum]);
-            outputDevice.open();
-            outputDeviceName = outDevName;
-            out = outputDevice.getReceiver();
+            openOutput(MidiSystem.getMidiDevice(midiDevices[outputDevNum]), outDevName);
         }
     }
+    
+    /**
+     * Opens an output device for sending.
+     */
+    private synchronized void openOutput(MidiDevice dev, String outDevName) throws MidiUnavailableException {
+        devices.acquire(dev, false);
+        try {
+            out = dev.getReceiver();
+        } catch (MidiUnavailableException e) {
+            devices.release(dev, false);
+            throw e;
+        }
+        outputDevice = dev;
+        outputDeviceName = outDevName;
+        outputWire.reset();
+        devices.portsOpened(this);
+    }
 	
 	/**
-	 * Closes the MIDI ports.
+	 * Closes the MIDI ports and lets go of their devices.
 	 */
-	public void closeMIDIPorts() {
+	public synchronized void closeMIDIPorts() {
 		log.info("closing MIDI port...");
 		if(in != null) {
 			in.close();
 			in = null;
 		}
+		if(inputDevice != null) {
+			devices.release(inputDevice, true);
+			inputDevice = null;
+		}
 		if(out != null) {
 			out.close();
 			out = null;
 		}
+		if(outputDevice != null) {
+			devices.release(outputDevice, false);
+			outputDevice = null;
+		}
+		devices.portsClosed(this);
 	}
 	
 	/**
@@ -229,29 +300,52 @@ public class SystemMidiInterface implements Receiver {
 	public String getOutputDeviceNameOpened() {
 		return outputDeviceName;
 	}
+	
+	/**
+	 * Sets the owner's ID for the port this is opened for, so the receive
+	 * handler can find the port without looking up the device name.
+	 * 
+	 * @param portId the port ID
+	 */
+	public void setPortId(int portId) {
+		this.portId = portId;
+	}
+	
+	/**
+	 * Gets the owner's ID for the port this is opened for.
+	 * 
+	 * @return the port ID or -1 if not set
+	 */
+	public int getPortId() {
+		return portId;
+	}
 
 	/**
-	 * Gets the input device position in microseconds
+	 * Gets the input device position in microseconds. This is safe to call
+	 * while the ports are being closed.
 	 * 
-	 * @return the position in microseconds
+	 * @return the position in microseconds or -1 if the port is not open
 	 */
 	public long getInputDevicePosition() {
-	    if(in == null) {
+	    MidiDevice dev = inputDevice;  // may be closed at any time
+	    if(dev == null) {
 	        return -1;
 	    }
-	    return inputDevice.getMicrosecondPosition();
+	    return dev.getMicrosecondPosition();
 	}
 	
 	/**
-	 * Gets the output device position in microseconds.
+	 * Gets the output device position in microseconds. This is safe to
+	 * call while the ports are being closed.
 	 * 
-	 * @return the position in microseconds
+	 * @return the position in microseconds or -1 if the port is not open
 	 */
 	public long getOutputDevicePosition() {
-	    if(out == null) {
+	    MidiDevice dev = outputDevice;  // may be closed at any time
+	    if(dev == null) {
 	        return -1;
 	    }
-	    return outputDevice.getMicrosecondPosition();
+	    return dev.getMicrosecondPosition();
 	}
 	
 	/**
@@ -265,6 +359,7 @@ public class SystemMidiInterface implements Receiver {
 			throw new InvalidMidiDataException("output port is not enabled");
 		}
 		out.send(msg, -1);
+		outputWire.account(msg.getStatus(), msg.getLength());
 	}
 
    /**
@@ -279,20 +374,31 @@ public class SystemMidiInterface implements Receiver {
             throw new InvalidMidiDataException("output port is not enabled");
         }
         out.send(msg, timestamp);
+        outputWire.account(msg.getStatus(), msg.getLength());
+    }
+    
+    /**
+     * Gets the running status and byte count for the output port. The
+     * driver sends the bytes so running status is only used to count them.
+     * 
+     * @return the output wire encoder
+     */
+    public MidiWireEncoder getOutputWire() {
+        return outputWire;
     }
 
 	/**
 	 * Event handler for messages received by the MIDI port.
 	 */
 	@Override
-	public void close() {
+	public synchronized void close() {
 		log.info("MIDI output closing.");
 		if (out != null) {
 			out.close();
 			out = null;
 		}
 		if (outputDevice != null) {
-			outputDevice.close();
+			devices.release(outputDevice, false);
 			outputDevice = null;
 		}
 	}
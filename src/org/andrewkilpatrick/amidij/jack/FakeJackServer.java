@@ -0,0 +1,412 @@
+/*
+ * Fake Jack Server
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.jack;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jaudiolibs.jnajack.JackException;
+
+/**
+ * An in-memory Jack server with a single client. A cycle thread calls the
+ * process callback once per period and notifications are delivered on a
+ * separate thread the same way Jack does it. Registered ports can be
+ * connected to made up peer ports automatically and Jack inputs that are
+ * connected can be loaded with traffic at a fixed rate.
+ */
+public class FakeJackServer implements JackBackend, Runnable {
+    public static final String PEER_CLIENT_NAME = "fake";
+    public static final int DEFAULT_SAMPLERATE = 48000;
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+    public static final int MAX_INPUT_EVENTS = 256;  // per port per cycle
+    Logger log;
+    final String clientName;
+    final int samplerate;
+    final int bufferSize;
+    final long periodNanos;
+    volatile JackClientListener jcl;
+    ConcurrentHashMap<String, FakeMidiPortBuffer> registeredInPorts;  // port name, buffer
+    ConcurrentHashMap<String, FakeMidiPortBuffer> registeredOutPorts;  // port name, buffer
+    ConcurrentHashMap<String, Set<JackPortName>> connections;  // our port name, peer ports
+    ExecutorService notifier;
+    Thread cycleThread;
+    volatile boolean running;
+    volatile boolean autoConnect;
+    // frame time - written by the cycle thread
+    volatile long frameCount;
+    volatile long lastFrameCount;
+    volatile long cycleStartNanos;
+    volatile long cycles;
+    // input traffic - used by the cycle thread only
+    volatile int inputRate;  // events per second per connected port
+    double inputCredit;
+    int inputNote;
+    final byte inputMsg[];
+    
+    /**
+     * Creates a FakeJackServer. The cycle thread is not started.
+     * 
+     * @param clientName the client name
+     * @param samplerate the samplerate
+     * @param bufferSize the buffer size in frames
+     */
+    public FakeJackServer(String clientName, int samplerate, int bufferSize) {
+        log = LogManager.getLogger(this.getClass());
+        this.clientName = clientName;
+        this.samplerate = samplerate;
+        this.bufferSize = bufferSize;
+        periodNanos = (long)bufferSize * 1000000000L / samplerate;
+        jcl = null;
+        registeredInPorts = new ConcurrentHashMap<>();
+        registeredOutPorts = new ConcurrentHashMap<>();
+        connections = new ConcurrentHashMap<>();
+        notifier = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "fake jack notify");
+            t.setDaemon(true);
+            return t;
+        });
+        running = false;
+        autoConnect = false;
+        frameCount = 0;
+        lastFrameCount = 0;
+        cycleStartNanos = System.nanoTime();
+        cycles = 0;
+        inputRate = 0;
+        inputCredit = 0.0;
+        inputNote = 0;
+        inputMsg = new byte[3];
+        log.info("fake Jack server - samplerate: " + samplerate + " - buffer size: " + bufferSize);
+    }
+    
+    /**
+     * Starts running process cycles in real time.
+     */
+    public synchronized void start() {
+        if(running) {
+            return;
+        }
+        running = true;
+        cycleThread = new Thread(this, "fake jack process");
+        cycleThread.setDaemon(true);
+        cycleThread.setPriority(Thread.MAX_PRIORITY);
+        cycleThread.start();
+    }
+    
+    /**
+     * Stops running process cycles and waits for the last one to finish.
+     */
+    public synchronized void stop() {
+        if(!running) {
+            return;
+        }
+        running = false;
+        try {
+            cycleThread.join();
+        } catch (InterruptedException e) {
+            log.error(e.toString());
+        }
+        cycleThread = null;
+    }
+    
+    /**
+     * Sets whether newly registered ports are connected to a peer port.
+     * 
+     * @param autoConnect true to connect new ports, false otherwise
+     */
+    public void setAutoConnect(boolean autoConnect) {
+        this.autoConnect = autoConnect;
+    }
+    
+    /**
+     * Sets the traffic loaded into each connected Jack input port.
+     * 
+     * @param eventsPerSecond the events per second per port - 0 is off
+     */
+    public void setInputRate(int eventsPerSecond) {
+        inputRate = eventsPerSecond;
+    }
+    
+    /**
+     * Connects one of our ports to a peer port.
+     * 
+     * @param ourPortName our port name
+     * @param peer the peer port
+     */
+    @Override
+    public void connect(String ourPortName, JackPortName peer) {
+        Set<JackPortName> peers = connections.get(ourPortName);
+        if(peers == null || !peers.add(peer)) {
+            return;
+        }
+        JackPatchLink link = new JackPatchLink(ourPortName, peer);
+        notifier.execute(() -> {
+            JackClientListener listener = jcl;
+            if(listener != null) {
+                listener.portConnected(link);
+            }
+        });
+    }
+    
+    /**
+     * Disconnects one of our ports from a peer port.
+     * 
+     * @param ourPortName our port name
+     * @param peer the peer port
+     */
+    public void disconnect(String ourPortName, JackPortName peer) {
+        Set<JackPortName> peers = connections.get(ourPortName);
+        if(peers == null || !peers.remove(peer)) {
+            return;
+        }
+        JackPatchLink link = new JackPatchLink(ourPortName, peer);
+        notifier.execute(() -> {
+            JackClientListener listener = jcl;
+            if(listener != null) {
+                listener.portDisconnected(link);
+            }
+        });
+    }
+    
+    /**
+     * Runs one process cycle on the calling thread.
+     * 
+     * @return false if the listener asked to stop, true otherwise
+     */
+    public boolean cycle() {
+        cycleStartNanos = System.nanoTime();
+        lastFrameCount = frameCount;
+        loadInputs();
+        boolean result = true;
+        JackClientListener listener = jcl;
+        if(listener != null) {
+            result = listener.process(bufferSize);
+        }
+        frameCount += bufferSize;
+        cycles ++;
+        return result;
+    }
+    
+    /**
+     * Gets the number of process cycles run.
+     * 
+     * @return the number of cycles
+     */
+    public long getCycles() {
+        return cycles;
+    }
+    
+    /**
+     * Gets the buffer for one of our ports.
+     * 
+     * @param name the port name
+     * @return the buffer or null if the port is not registered
+     */
+    public FakeMidiPortBuffer getPortBuffer(String name) {
+        FakeMidiPortBuffer buffer = registeredInPorts.get(name);
+        if(buffer == null) {
+            buffer = registeredOutPorts.get(name);
+        }
+        return buffer;
+    }
+    
+    /*
+     * The cycle thread. A cycle that finishes late is reported as an xrun
+     * and the schedule restarts from now.
+     */
+    @Override
+    public void run() {
+        long next = System.nanoTime();
+        while(running) {
+            if(!cycle()) {
+                log.warn("process callback returned false - stopping");
+                running = false;
+                break;
+            }
+            next += periodNanos;
+            long wait = next - System.nanoTime();
+            if(wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            else if(wait < -periodNanos) {
+                next = System.nanoTime();
+                notifier.execute(() -> {
+                    JackClientListener listener = jcl;
+                    if(listener != null) {
+                        listener.xrunOccurred();
+                    }
+                });
+            }
+        }
+    }
+
+    @Override
+    public void registerJackClientListener(JackClientListener listener) {
+        jcl = listener;
+    }
+    
+    @Override
+    public int getSamplerate() {
+        return samplerate;
+    }
+    
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+    
+    @Override
+    public long getLastFrameCount() {
+        return lastFrameCount;
+    }
+    
+    @Override
+    public long getCurrentFrameTime() {
+        long elapsed = System.nanoTime() - cycleStartNanos;
+        return lastFrameCount + Math.min(elapsed, periodNanos) * samplerate / 1000000000L;
+    }
+    
+    @Override
+    public MidiPortBuffer registerMIDIInPort(String name, boolean physical) throws JackException {
+        return registerPort(registeredInPorts, name, "capture");
+    }
+    
+    @Override
+    public void unregisterMIDIInPort(String name) throws JackException {
+        unregisterPort(registeredInPorts, name);
+    }
+    
+    @Override
+    public boolean isPortNameMIDIInPort(String name) {
+        return registeredInPorts.containsKey(name);
+    }
+    
+    @Override
+    public MidiPortBuffer registerMIDIOutPort(String name, boolean physical) throws JackException {
+        return registerPort(registeredOutPorts, name, "playback");
+    }
+    
+    @Override
+    public void unregisterMIDIOutPort(String name) throws JackException {
+        unregisterPort(registeredOutPorts, name);
+    }
+    
+    @Override
+    public boolean isPortNameMIDIOutPort(String name) {
+        return registeredOutPorts.containsKey(name);
+    }
+    
+    @Override
+    public String[] getConnectedPorts(String ourPortName) {
+        Set<JackPortName> peers = connections.get(ourPortName);
+        if(peers == null) {
+            return new String[0];
+        }
+        ArrayList<String> names = new ArrayList<>();
+        for(JackPortName peer : peers) {
+            names.add(peer.getClientName() + ":" + peer.getPortName());
+        }
+        return names.toArray(new String[names.size()]);
+    }
+    
+    @Override
+    public int getConnectionCount(String ourPortName) {
+        Set<JackPortName> peers = connections.get(ourPortName);
+        return peers == null ? 0 : peers.size();
+    }
+    
+    /*
+     * private methods
+     */
+    private MidiPortBuffer registerPort(Map<String, FakeMidiPortBuffer> ports,
+            String name, String peerPrefix) throws JackException {
+        if(registeredInPorts.containsKey(name) || registeredOutPorts.containsKey(name)) {
+            throw new JackException("port already registered: " + name);
+        }
+        FakeMidiPortBuffer buffer = new FakeMidiPortBuffer(bufferSize, MAX_INPUT_EVENTS);
+        connections.put(name, ConcurrentHashMap.newKeySet());
+        ports.put(name, buffer);
+        notifyAvailablePortsChanged();
+        if(autoConnect) {
+            connect(name, new JackPortName(PEER_CLIENT_NAME, peerPrefix + "_" + name));
+        }
+        return buffer;
+    }
+    
+    private void unregisterPort(Map<String, FakeMidiPortBuffer> ports,
+            String name) throws JackException {
+        if(!ports.containsKey(name)) {
+            throw new JackException("port not registered: " + name);
+        }
+        // Jack breaks the connections before the port goes away
+        Set<JackPortName> peers = connections.get(name);
+        for(JackPortName peer : peers.toArray(new JackPortName[0])) {
+            disconnect(name, peer);
+        }
+        ports.remove(name);
+        connections.remove(name);
+        notifyAvailablePortsChanged();
+    }
+    
+    private void notifyAvailablePortsChanged() {
+        notifier.execute(() -> {
+            JackClientListener listener = jcl;
+            if(listener != null) {
+                listener.availablePortsChanged();
+            }
+        });
+    }
+    
+    /**
+     * Loads note on / off pairs spread over the cycle into every connected
+     * Jack input port.
+     */
+    private void loadInputs() {
+        int rate = inputRate;
+        inputCredit += (double)rate * bufferSize / samplerate;
+        int events = (int)inputCredit;
+        inputCredit -= events;
+        for(Map.Entry<String, FakeMidiPortBuffer> entry : registeredInPorts.entrySet()) {
+            FakeMidiPortBuffer buffer = entry.getValue();
+            buffer.clearEvents();
+            Set<JackPortName> peers = connections.get(entry.getKey());
+            if(events == 0 || peers == null || peers.isEmpty()) {
+                continue;
+            }
+            for(int i = 0; i < events && buffer.hasRoom(inputMsg.length); i ++) {
+                boolean on = (inputNote & 0x01) == 0;
+                inputMsg[0] = (byte)(on ? 0x90 : 0x80);
+                inputMsg[1] = (byte)(36 + ((inputNote >> 1) % 48));
+                inputMsg[2] = (byte)(on ? 100 : 0);
+                buffer.addEvent(i * bufferSize / events, inputMsg, inputMsg.length);
+                inputNote ++;
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Fake MIDI Port Buffer
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.jack;
+
+import org.jaudiolibs.jnajack.JackException;
+
+/**
+ * An in-memory stand-in for a Jack MIDI port buffer. Input events are
+ * loaded before the cycle and output events are counted against the same
+ * byte limit a Jack MIDI buffer has, so the process loop can be driven
+ * without a Jack server.
+ */
+public class FakeMidiPortBuffer implements MidiPortBuffer {
+    static final JackException FULL = new JackException("MIDI buffer full");
+    final int capacity;  // bytes
+    int used;  // bytes
+    int lost;  // events that did not fit since the last clear
+    // input events
+    final int times[];
+    final int offsets[];
+    final int lengths[];
+    final byte data[];
+    int eventCount;
+    int dataLength;
+    int lastTime;
+    // output counts
+    long writtenEvents;
+    long writtenBytes;
+    
+    /**
+     * Creates a FakeMidiPortBuffer.
+     * 
+     * @param bufferSize the Jack buffer size in frames
+     * @param maxEvents the most input events that can be loaded
+     */
+    public FakeMidiPortBuffer(int bufferSize, int maxEvents) {
+        // a Jack MIDI buffer is the same size as an audio buffer
+        capacity = bufferSize * Float.BYTES;
+        used = 0;
+        lost = 0;
+        times = new int[maxEvents];
+        offsets = new int[maxEvents];
+        lengths = new int[maxEvents];
+        data = new byte[capacity];
+        eventCount = 0;
+        dataLength = 0;
+        lastTime = 0;
+        writtenEvents = 0;
+        writtenBytes = 0;
+    }
+    
+    /**
+     * Loads an input event for the next cycle.
+     * 
+     * @param time the frame offset within the cycle
+     * @param msg the event data
+     * @param length the event length
+     */
+    public void addEvent(int time, byte msg[], int length) {
+        if(eventCount >= times.length || dataLength + length > data.length) {
+            throw new IllegalStateException("fake buffer full");
+        }
+        times[eventCount] = time;
+        offsets[eventCount] = dataLength;
+        lengths[eventCount] = length;
+        System.arraycopy(msg, 0, data, dataLength, length);
+        dataLength += length;
+        eventCount ++;
+    }
+    
+    /**
+     * Checks if another input event can be loaded.
+     * 
+     * @param length the event length
+     * @return true if the event fits, false otherwise
+     */
+    public boolean hasRoom(int length) {
+        return eventCount < times.length && dataLength + length <= data.length;
+    }
+    
+    /**
+     * Removes all loaded input events.
+     */
+    public void clearEvents() {
+        eventCount = 0;
+        dataLength = 0;
+    }
+    
+    @Override
+    public void clear() {
+        used = 0;
+        lost = 0;
+    }
+    
+    @Override
+    public int getMaxEventSize() {
+        return Math.max(0, capacity - used - JACK_EVENT_HEADER);
+    }
+    
+    @Override
+    public void writeEvent(int time, byte msg[], int length) throws JackException {
+        int cost = JACK_EVENT_HEADER +
+            (length > JACK_EVENT_INLINE ? length : 0);
+        if(used + cost > capacity) {
+            lost ++;
+            throw FULL;
+        }
+        used += cost;
+        writtenEvents ++;
+        writtenBytes += length;
+    }
+    
+    @Override
+    public int getLostEventCount() {
+        return lost;
+    }
+    
+    @Override
+    public int getEventCount() {
+        return eventCount;
+    }
+    
+    @Override
+    public int readEvent(int index, byte dest[]) {
+        int length = lengths[index];
+        lastTime = times[index];
+        if(length <= dest.length) {
+            System.arraycopy(data, offsets[index], dest, 0, length);
+        }
+        return length;
+    }
+    
+    @Override
+    public int getEventTime() {
+        return lastTime;
+    }
+    
+    /**
+     * Gets the number of events written.
+     * 
+     * @return the number of events
+     */
+    public long getWrittenEvents() {
+        return writtenEvents;
+    }
+}
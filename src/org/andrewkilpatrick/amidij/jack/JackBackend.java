@@ -0,0 +1,147 @@
+/*
+ * Jack Backend
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.jack;
+
+import org.jaudiolibs.jnajack.JackException;
+
+/**
+ * The Jack side of the bridge. JackClientAdapter implements this with a
+ * real Jack client and FakeJackServer implements it in memory so the
+ * bridge can run without a Jack server.
+ */
+public interface JackBackend {
+
+    /**
+     * Registers the listener for Jack events.
+     * 
+     * @param listener the listener
+     */
+    public void registerJackClientListener(JackClientListener listener);
+    
+    /**
+     * Gets the samplerate.
+     * 
+     * @return the samplerate
+     */
+    public int getSamplerate();
+    
+    /**
+     * Gets the buffer size.
+     * 
+     * @return the buffer size in frames
+     */
+    public int getBufferSize();
+    
+    /**
+     * Gets the frame time at the start of the current cycle. This is
+     * called from the process loop.
+     * 
+     * @return the frame time or -1 on error
+     */
+    public long getLastFrameCount();
+    
+    /**
+     * Gets an estimate of the current frame time.
+     * 
+     * @return the frame time or -1 on error
+     */
+    public long getCurrentFrameTime();
+    
+    /**
+     * Registers a MIDI IN port. (from Jack)
+     * 
+     * @param name the port name to register
+     * @param physical true if the port should be known as physical
+     * @return the buffer for the port
+     * @throws JackException if there is an error
+     */
+    public MidiPortBuffer registerMIDIInPort(String name, boolean physical) throws JackException;
+    
+    /**
+     * Unregisters a MIDI IN port. (from Jack)
+     * 
+     * @param name the port name to unregister
+     * @throws JackException if the port is not registered
+     */
+    public void unregisterMIDIInPort(String name) throws JackException;
+    
+    /**
+     * Checks if the port name is a MIDI IN port. (from Jack)
+     * 
+     * @param name the port name
+     * @return true if the port name is an in port, false otherwise
+     */
+    public boolean isPortNameMIDIInPort(String name);
+    
+    /**
+     * Registers a MIDI OUT port. (to Jack)
+     * 
+     * @param name the port name to register
+     * @param physical true if the port should be known as physical
+     * @return the buffer for the port
+     * @throws JackException if there is an error
+     */
+    public MidiPortBuffer registerMIDIOutPort(String name, boolean physical) throws JackException;
+    
+    /**
+     * Unregisters a MIDI OUT port. (to Jack)
+     * 
+     * @param name the port name to unregister
+     * @throws JackException if the port is not registered
+     */
+    public void unregisterMIDIOutPort(String name) throws JackException;
+    
+    /**
+     * Checks if the port name is a MIDI OUT port. (to Jack)
+     * 
+     * @param name the port name
+     * @return true if the port name is an out port, false otherwise
+     */
+    public boolean isPortNameMIDIOutPort(String name);
+    
+    /**
+     * Gets a list of the ports to which our port is connected.
+     * 
+     * @param ourPortName our port name
+     * @return a list of full port names or a blank array on error
+     */
+    public String[] getConnectedPorts(String ourPortName);
+    
+    /**
+     * Gets the number of ports to which our port is connected.
+     * 
+     * @param ourPortName our port name
+     * @return the number of connections
+     */
+    public int getConnectionCount(String ourPortName);
+    
+    /**
+     * Connects one of our ports to another port. The direction is worked
+     * out from the ports.
+     * 
+     * @param ourPortName our port name
+     * @param otherPort the other port
+     * @throws JackException if the ports can not be connected
+     */
+    public void connect(String ourPortName, JackPortName otherPort) throws JackException;
+}
@@ -23,9 +23,12 @@
 package org.andrewkilpatrick.amidij.jack;
 
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -41,8 +44,11 @@ import org.jaudiolibs.jnajack.JackPortRegistrationCallback;
 import org.jaudiolibs.jnajack.JackPortType;
 import org.jaudiolibs.jnajack.JackProcessCallback;
 import org.jaudiolibs.jnajack.JackStatus;
+import org.jaudiolibs.jnajack.JackXrunCallback;
 
-public class JackClientAdapter implements JackPortConnectCallback, JackProcessCallback, JackPortRegistrationCallback, JackBufferSizeCallback {
+public class JackClientAdapter implements JackBackend, JackPortConnectCallback, JackProcessCallback, JackPortRegistrationCallback, JackBufferSizeCallback,
+        JackXrunCallback {
+    public static final int RECONCILE_SECONDS = 60;  // time between full port scans
     Logger log;
     Jack jack;
     JackClient jackClient;
@@ -51,12 +57,14 @@ public class JackClientAdapter implements JackPortConnectCallback, JackProcessCa
     double bufferLengthSeconds;
     double frameLengthSeconds;
     Object lock = new Object();
-    HashSet<JackPortName> availableMidiInPorts;  // a list of MIDI in ports we might care about
-    HashSet<JackPortName> availableMidiOutPorts;  // a list of MIDI out ports we might care about
+    // kept up to date from the registration callbacks, guarded by lock for writing
+    Set<JackPortName> availableMidiInPorts;  // a list of MIDI in ports we might care about
+    Set<JackPortName> availableMidiOutPorts;  // a list of MIDI out ports we might care about
+    ScheduledExecutorService reconciler;  // full scans in case a callback was missed
     JackPatchStatus patchStatus;  // the current patch status for us
     JackClientListener jcl;
-    HashMap<String, JackPort> registeredInPorts;  // port name, JackPort
-    HashMap<String, JackPort> registeredOutPorts;  // port name, JackPort
+    ConcurrentHashMap<String, JackPort> registeredInPorts;  // port name, JackPort
+    ConcurrentHashMap<String, JackPort> registeredOutPorts;  // port name, JackPort
     
     /**
      * Creates a JackMidiClient.
@@ -77,19 +85,20 @@ public class JackClientAdapter implements JackPortConnectCallback, JackProcessCa
             jackClient = jack.openClient(clientName, options, status);
             
             // create ports
-            availableMidiInPorts = new HashSet<>();
-            availableMidiOutPorts = new HashSet<>();
+            availableMidiInPorts = ConcurrentHashMap.newKeySet();
+            availableMidiOutPorts = ConcurrentHashMap.newKeySet();
             scanPorts();
             
             // registered ports
-            registeredInPorts = new HashMap<>();
-            registeredOutPorts = new HashMap<>();
+            registeredInPorts = new ConcurrentHashMap<>();
+            registeredOutPorts = new ConcurrentHashMap<>();
             
             // register callbacks
             jackClient.setProcessCallback(this);
             jackClient.setPortConnectCallback(this);
             jackClient.setPortRegistrationCallback(this);
             jackClient.setBuffersizeCallback(this);
+            jackClient.setXrunCallback(this);
             // start client
             jackClient.activate();
             samplerate = jackClient.getSampleRate();
@@ -100,6 +109,13 @@ public class JackClientAdapter implements JackPortConnectCallback, JackProcessCa
         }
         
         scanPorts();
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "jack port reconcile");
+            t.setDaemon(true);
+            return t;
+        });
+        reconciler.scheduleWithFixedDelay(this::scanPorts, RECONCILE_SECONDS,
+            RECONCILE_SECONDS, TimeUnit.SECONDS);
         
         // wait to make sure the ports are scanned
         try {
@@ -109,29 +125,17 @@ public class JackClientAdapter implements JackPortConnectCallback, JackProcessCa
         }
     }
 
-    /**
-     * Registers the listener for jack events.
-     * 
-     * @param listener the listener
-     */
+    @Override
     public void registerJackClientListener(JackClientListener listener) {
         jcl = listener;
     }
     
-    /**
-     * Gets the samplerate.
-     * 
-     * @return the samplerate
-     */
+    @Override
     public int getSamplerate() {
         return samplerate;
     }
     
-    /**
-     * Gets the buffer size.
-     * 
-     * @return the buffer size
-     */
+    @Override
     public int getBufferSize() {
         return bufferSize;
     }
@@ -154,11 +158,7 @@ public class JackClientAdapter implements JackPortConnectCallback, JackProcessCa
         return frameLengthSeconds;
     }
     
-    /**
-     * Gets the last frame count.
-     * 
-     * @return the last frame count in frames
-     */
+    @Override
     public long getLastFrameCount() {
         try {
             return jackClient.getLastFrameTime();
@@ -167,11 +167,7 @@ public class JackClientAdapter implements JackPortConnectCallback, JackProcessCa
         }
     }
 
-    /**
-     * Gets the current frame within the loop. Used to offset stuff.
-     * 
-     * @return the current frame estimate or -1 on error
-     */
+    @Override
     public long getCurrentFrameTime() {
         try {
             return jackClient.getFrameTime();
@@ -181,51 +177,30 @@ public class JackClientAdapter implements JackPortConnectCallback, JackProcessCa
     }
     
     /**
-     * Scans jack ports and makes a local cache.
+     * Scans all jack ports and replaces the local cache. This only tells
+     * the listener if something changed, since it is also run every so
+     * often in case a registration callback was missed.
      */
     private void scanPorts() {
         synchronized(lock) {
             try {
-                availableMidiInPorts.clear();
                 // MIDI input ports
-                EnumSet<JackPortFlags> flags = EnumSet.of(JackPortFlags.JackPortIsOutput);
-                String ports[] = jack.getPorts(jackClient, "", JackPortType.MIDI, flags);
-                for (int i = 0; i < ports.length; i++) {
-                    log.debug("jack MIDI input: " + ports[i]);
-                    String parts[] = ports[i].split(":", 2);
-                    if(parts.length < 2) {
-                        continue;
-                    }
-                    // ignore our own ports
-                    if(parts[0].equals(jackClient.getName())) {
-                        continue;
-                    }
-                    availableMidiInPorts.add(new JackPortName(parts[0], parts[1]));
-                }
-
+                HashSet<JackPortName> inPorts = getOtherPorts(JackPortFlags.JackPortIsOutput);
                 // MIDI output ports
-                availableMidiOutPorts.clear();
-                flags = EnumSet.of(JackPortFlags.JackPortIsInput);
-                ports = jack.getPorts(jackClient, "", JackPortType.MIDI, flags);
-                for (int i = 0; i < ports.length; i++) {
-                    log.debug("jack MIDI output: " + ports[i]);
-                    String parts[] = ports[i].split(":", 2);
-                    if(parts.length < 2) {
-                        continue;
-                    }
-                    // ignore our own ports
-                    if(parts[0].equals(jackClient.getName())) {
-                        continue;
-                    }
-                    availableMidiOutPorts.add(new JackPortName(parts[0], parts[1]));
-                }
+                HashSet<JackPortName> outPorts = getOtherPorts(JackPortFlags.JackPortIsInput);
+                boolean changed = !inPorts.equals(availableMidiInPorts) ||
+                    !outPorts.equals(availableMidiOutPorts);
+                availableMidiInPorts.retainAll(inPorts);
+                availableMidiInPorts.addAll(inPorts);
+                availableMidiOutPorts.retainAll(outPorts);
+                availableMidiOutPorts.addAll(outPorts);
 
                 // print some stats
                 log.debug("available MIDI inputs: " + availableMidiInPorts.size());
                 log.debug("available MIDI outputs: " + availableMidiOutPorts.size());
 
                 // call listener
-                if(jcl != null) {
+                if(changed && jcl != null) {
                     jcl.availablePortsChanged();
                 }
             } catch(JackException e) {
@@ -235,29 +210,100 @@ public class JackClientAdapter implements JackPortConnectCallback, JackProcessCa
     }
     
     /**
-     * Registers a MIDI IN port. (from Jack)
+     * Gets the MIDI ports of other clients with a direction.
+     */
+    private HashSet<JackPortName> getOtherPorts(JackPortFlags direction) throws JackException {
+        HashSet<JackPortName> found = new HashSet<>();
+        String ports[] = jack.getPorts(jackClient, "", JackPortType.MIDI, EnumSet.of(direction));
+        for (int i = 0; i < ports.length; i++) {
+            String parts[] = ports[i].split(":", 2);
+            if(parts.length < 2) {
+                continue;
+            }
+            // ignore our own ports
+            if(parts[0].equals(jackClient.getName())) {
+                continue;
+            }
+            found.add(new JackPortName(parts[0], parts[1]));
+        }
+        return found;
+    }
+    
+    /**
+     * Adds one port that was registered by another client to the cache.
+     * Jack is only asked about this port so the work does not grow with
+     * the number of ports in the graph.
      * 
-     * @param name the port name to register
-     * @param true if the port should be known as physical, false otherwise
-     * @returns the JackPort that was registered
-     * @throws JackException if there is an error
+     * @param parts the client and port name
+     * @param portFullName the full port name
      */
-    public JackPort registerMIDIInPort(String name, boolean physical) throws JackException {
+    private void addPort(String parts[], String portFullName) {
+        synchronized(lock) {
+            try {
+                String pattern = "^" + quoteRegex(portFullName) + "$";
+                JackPortName name = new JackPortName(parts[0], parts[1]);
+                boolean changed = false;
+                if(jack.getPorts(jackClient, pattern, JackPortType.MIDI,
+                        EnumSet.of(JackPortFlags.JackPortIsOutput)).length > 0) {
+                    changed = availableMidiInPorts.add(name);
+                }
+                else if(jack.getPorts(jackClient, pattern, JackPortType.MIDI,
+                        EnumSet.of(JackPortFlags.JackPortIsInput)).length > 0) {
+                    changed = availableMidiOutPorts.add(name);
+                }
+                if(changed && jcl != null) {
+                    jcl.availablePortsChanged();
+                }
+            } catch(JackException e) {
+                log.error(e.toString());
+            }
+        }
+    }
+    
+    /**
+     * Removes one port that was unregistered by another client from the
+     * cache.
+     * 
+     * @param parts the client and port name
+     */
+    private void removePort(String parts[]) {
+        synchronized(lock) {
+            JackPortName name = new JackPortName(parts[0], parts[1]);
+            boolean changed = availableMidiInPorts.remove(name);
+            changed |= availableMidiOutPorts.remove(name);
+            if(changed && jcl != null) {
+                jcl.availablePortsChanged();
+            }
+        }
+    }
+    
+    /**
+     * Escapes a port name for the POSIX regex Jack matches port names with.
+     */
+    private static String quoteRegex(String name) {
+        StringBuilder quoted = new StringBuilder(name.length() + 8);
+        for(int i = 0; i < name.length(); i ++) {
+            char c = name.charAt(i);
+            if(".[]()*+?{}|^$\\".indexOf(c) >= 0) {
+                quoted.append('\\');
+            }
+            quoted.append(c);
+        }
+        return quoted.toString();
+    }
+    
+    @Override
+    public MidiPortBuffer registerMIDIInPort(String name, boolean physical) throws JackException {
         EnumSet<JackPortFlags> flags = EnumSet.of(JackPortFlags.JackPortIsInput);
         if(physical) {
             flags.add(JackPortFlags.JackPortIsPhysical);
         }
         JackPort port = jackClient.registerPort(name, JackPortType.MIDI, flags);
         registeredInPorts.put(name, port);
-        return port;
+        return new JackMidiPortBuffer(port);
     }
 
-    /**
-     * Unregisters a MIDI IN port. (from Jack)
-     * 
-     * @param name the port name to unregister
-     * @throws JackException if the port is not registered
-     */
+    @Override
     public void unregisterMIDIInPort(String name) throws JackException {
         JackPort port = registeredInPorts.get(name);
         if(port == null) {
@@ -267,40 +313,23 @@ public class JackClientAdapter implements JackPortConnectCallback, JackProcessCa
         registeredInPorts.remove(name);
     }
 
-    /**
-     * Checks if the port name is a MIDI IN port. (from Jack)
-     * 
-     * @param name the port name
-     * @return true if the port name is an in port, false otherwise
-     */
+    @Override
     public boolean isPortNameMIDIInPort(String name) {
         return registeredInPorts.containsKey(name);
     }
     
-    /**
-     * Registers a MIDI OUT port. (to Jack)
-     * 
-     * @param name the port name to register
-     * @param true if the port should be known as physical, false otherwise
-     * @return the JackPort that was registered
-     * @throws JackException if there is an error
-     */
-    public JackPort registerMIDIOutPort(String name, boolean physical) throws JackException {
+    @Override
+    public MidiPortBuffer registerMIDIOutPort(String name, boolean physical) throws JackException {
         EnumSet<JackPortFlags> flags = EnumSet.of(JackPortFlags.JackPortIsOutput);
         if(physical) {
             flags.add(JackPortFlags.JackPortIsPhysical);
         }
         JackPort port = jackClient.registerPort(name, JackPortType.MIDI, flags);
         registeredOutPorts.put(name, port);
-        return port;
+        return new JackMidiPortBuffer(port);
     }
 
-    /**
-     * Unregisters a MIDI OUT port. (to Jack);
-     * 
-     * @param name the port name to register
-     * @throws JackException if the port name is not registered
-     */
+    @Override
     public void unregisterMIDIOutPort(String name) throws JackException {
         JackPort port = registeredOutPorts.get(name);
         if(port == null) {
@@ -310,12 +339,7 @@ public class JackClientAdapter implements JackPortConnectCallback, JackProcessCa
         registeredOutPorts.remove(name);
     }
 
-    /**
-     * Checks if the port name is a MIDI OUT port. (to Jack)
-     * 
-     * @param name the port name
-     * @return true if the port name is an out port, false otherwise
-     */
+    @Override
     public boolean isPortNameMIDIOutPort(String name) {
         return registeredOutPorts.containsKey(name);
     }
@@ -340,15 +364,9 @@ public class JackClientAdapter implements JackPortConnectCallback, JackProcessCa
      * @throws JackException if there is an error
      */
     public void connectPortsNames(String ourPortName, String otherClientName, String otherPortName) throws JackException {
-        boolean isOtherPortDest = false;
         JackPortName otherName = new JackPortName(otherClientName, otherPortName);
         // check the direction of the ports to make sure we map them in the right order
-        Iterator<JackPortName> iter = availableMidiOutPorts.iterator();
-        while(iter.hasNext()) {
-            if(iter.next().equals(otherName)) {
-                isOtherPortDest = true;
-            }
-        }
+        boolean isOtherPortDest = availableMidiOutPorts.contains(otherName);
         // connect port
         if(isOtherPortDest) {
             jack.connect(jackClient, jackClient.getName() + ":" + ourPortName,
@@ -360,32 +378,41 @@ public class JackClientAdapter implements JackPortConnectCallback, JackProcessCa
         }
     }
     
-    /**
-     * Gets a list of the ports to which our port is connected.
-     * 
-     * @param ourPortName our port name
-     * @return a list of ports to which ours is connectedd or a blank array on error
-     */
+    @Override
+    public void connect(String ourPortName, JackPortName otherPort) throws JackException {
+        connectPortsNames(ourPortName, otherPort.getClientName(), otherPort.getPortName());
+    }
+    
+    @Override
     public String[] getConnectedPorts(String ourPortName) {
-        try {
-            return jack.getAllConnections(jackClient,
-                jackClient.getName() + ":" + ourPortName);
-        } catch (JackException e) {
-            log.error(e.toString());
-        }
-        return new String[0];
+        return patchStatus.getLinkedPorts(ourPortName);
+    }
+    
+    @Override
+    public int getConnectionCount(String ourPortName) {
+        return patchStatus.getNumLinks(ourPortName);
     }
     
     @Override
     public void portRegistered(JackClient client, String portFullName) {
         log.debug("port registered: " + portFullName);
-        scanPorts();
+        String parts[] = portFullName.split(":", 2);
+        // ignore our own ports
+        if(parts.length < 2 || parts[0].equals(jackClient.getName())) {
+            return;
+        }
+        addPort(parts, portFullName);
     }
 
     @Override
     public void portUnregistered(JackClient client, String portFullName) {
         log.debug("port unregistered: " + portFullName);
-        scanPorts();
+        String parts[] = portFullName.split(":", 2);
+        // ignore our own ports
+        if(parts.length < 2 || parts[0].equals(jackClient.getName())) {
+            return;
+        }
+        removePort(parts);
     }
     
     @Override
@@ -505,12 +532,22 @@ public class JackClientAdapter implements JackPortConnectCallback, JackProcessCa
         this.bufferSize = buffersize;
         bufferLengthSeconds = 1.0 / (double)samplerate * (double)this.bufferSize;
         frameLengthSeconds = bufferLengthSeconds / (double)this.bufferSize;
+        if(jcl != null) {
+            jcl.bufferSizeChanged(buffersize);
+        }
+    }
+    
+    @Override
+    public void xrunOccured(JackClient client) {
+        if(jcl != null) {
+            jcl.xrunOccurred();
+        }
     }
     
     @Override
     public boolean process(JackClient client, int nframes) {
         if(jcl != null) {
-            return jcl.process(client, nframes);
+            return jcl.process(nframes);
         }
         return true;
     }
@@ -22,8 +22,6 @@
  */
 package org.andrewkilpatrick.amidij.jack;
 
-import org.jaudiolibs.jnajack.JackClient;
-
 public interface JackClientListener {
 
     public void availablePortsChanged();
@@ -32,5 +30,9 @@ public interface JackClientListener {
     
     public void portDisconnected(JackPatchLink link);
     
-    public boolean process(JackClient client, int nframes);
+    public void bufferSizeChanged(int bufferSize);
+    
+    public void xrunOccurred();
+    
+    public boolean process(int nframes);
 }
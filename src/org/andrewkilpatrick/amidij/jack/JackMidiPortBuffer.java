@@ -0,0 +1,94 @@
+/*
+ * Jack MIDI Port Buffer
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.jack;
+
+import org.jaudiolibs.jnajack.JackException;
+import org.jaudiolibs.jnajack.JackMidi;
+import org.jaudiolibs.jnajack.JackPort;
+
+/**
+ * A MidiPortBuffer for a registered Jack port.
+ */
+public class JackMidiPortBuffer implements MidiPortBuffer {
+    JackPort port;
+    JackMidi.Event event;  // reused event holder
+    
+    /**
+     * Creates a JackMidiPortBuffer.
+     * 
+     * @param port the Jack MIDI port
+     */
+    public JackMidiPortBuffer(JackPort port) {
+        this.port = port;
+        event = new JackMidi.Event();
+    }
+    
+    @Override
+    public void clear() throws JackException {
+        JackMidi.clearBuffer(port);
+    }
+    
+    @Override
+    public int getMaxEventSize() throws JackException {
+        return JackMidi.maxEventSize(port);
+    }
+    
+    @Override
+    public void writeEvent(int time, byte data[], int length) throws JackException {
+        JackMidi.eventWrite(port, time, data, length);
+    }
+    
+    @Override
+    public int getLostEventCount() throws JackException {
+        return JackMidi.getLostEventCount(port);
+    }
+    
+    @Override
+    public int getEventCount() throws JackException {
+        return JackMidi.getEventCount(port);
+    }
+    
+    @Override
+    public int readEvent(int index, byte dest[]) throws JackException {
+        JackMidi.eventGet(event, port, index);
+        int size = event.size();
+        if(size <= dest.length) {
+            event.read(dest);
+        }
+        return size;
+    }
+    
+    @Override
+    public int getEventTime() {
+        return event.time();
+    }
+    
+    /**
+     * Gets the Jack port.
+     * 
+     * @return the port
+     */
+    public JackPort getPort() {
+        return port;
+    }
+}
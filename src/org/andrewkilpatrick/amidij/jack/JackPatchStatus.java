@@ -22,62 +22,112 @@
  */
 package org.andrewkilpatrick.amidij.jack;
 
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+/**
+ * The links between our ports and other ports. Links are indexed by our
+ * port name so the number of links on a port can be checked without
+ * asking Jack, and a dense list is kept so links can be read by index.
+ * A removed link is replaced by the last one so nothing is shifted.
+ */
 public class JackPatchStatus {
     Logger log;
-    HashSet<JackPatchLink> linkSet;
-    LinkedList<JackPatchLink> linkList;
+    ArrayList<JackPatchLink> linkList;  // all links in no particular order
+    HashMap<JackPatchLink, Integer> linkIndex;  // link, position in linkList
+    HashMap<String, Set<JackPatchLink>> portLinks;  // our port name, links on it
     
     public JackPatchStatus() {
         log = LogManager.getLogger(this.getClass());
-        linkSet = new HashSet<>();
-        linkList = new LinkedList<>();
+        linkList = new ArrayList<>();
+        linkIndex = new HashMap<>();
+        portLinks = new HashMap<>();
     }
     
-    public void addLink(JackPatchLink link) throws JackClientAdapterException {
-        if(linkSet.contains(link)) {
+    public synchronized void addLink(JackPatchLink link) throws JackClientAdapterException {
+        if(linkIndex.containsKey(link)) {
             throw new JackClientAdapterException("link already exists: " + link.toString());
         }
-        linkSet.add(link);
-        linkList.addLast(link);
+        linkIndex.put(link, linkList.size());
+        linkList.add(link);
+        portLinks.computeIfAbsent(link.getOurPortName(), k -> new LinkedHashSet<>()).add(link);
     }
     
-    public void removeLink(JackPatchLink link) throws JackClientAdapterException {
-        if(!linkSet.contains(link)) {
+    public synchronized void removeLink(JackPatchLink link) throws JackClientAdapterException {
+        Integer index = linkIndex.remove(link);
+        if(index == null) {
             throw new JackClientAdapterException("link does not exist: " + link.toString());
         }
-        linkSet.remove(link);
-        Iterator<JackPatchLink> iter = linkList.iterator();
-        while(iter.hasNext()) {
-            JackPatchLink checkLink = iter.next();
-            if(checkLink.equals(link)) {
-                iter.remove();
-            }
+        // move the last link into the hole
+        JackPatchLink last = linkList.remove(linkList.size() - 1);
+        if(index < linkList.size()) {
+            linkList.set(index, last);
+            linkIndex.put(last, index);
+        }
+        Set<JackPatchLink> links = portLinks.get(link.getOurPortName());
+        links.remove(link);
+        if(links.isEmpty()) {
+            portLinks.remove(link.getOurPortName());
         }
     }
     
-    public int getNumLinks() {
+    public synchronized int getNumLinks() {
         return linkList.size();
     }
     
-    public JackPatchLink getLink(int index) {
+    public synchronized JackPatchLink getLink(int index) {
         return linkList.get(index);
     }
     
-    public LinkedList<JackPatchLink> getLinkList() {
-        return linkList;
+    public synchronized List<JackPatchLink> getLinkList() {
+        return Collections.unmodifiableList(new ArrayList<>(linkList));
     }
     
-    public void printStatus() {
+    /**
+     * Gets the number of links on one of our ports.
+     * 
+     * @param ourPortName our port name
+     * @return the number of links
+     */
+    public synchronized int getNumLinks(String ourPortName) {
+        Set<JackPatchLink> links = portLinks.get(ourPortName);
+        return links == null ? 0 : links.size();
+    }
+    
+    /**
+     * Gets the other ports linked to one of our ports.
+     * 
+     * @param ourPortName our port name
+     * @return a list of full port names
+     */
+    public synchronized String[] getLinkedPorts(String ourPortName) {
+        Set<JackPatchLink> links = portLinks.get(ourPortName);
+        if(links == null) {
+            return new String[0];
+        }
+        String names[] = new String[links.size()];
+        int i = 0;
+        for(JackPatchLink link : links) {
+            JackPortName other = link.getOtherPort();
+            names[i ++] = other.getClientName() + ":" + other.getPortName();
+        }
+        return names;
+    }
+    
+    public synchronized void printStatus() {
         log.debug("patch entries: " + linkList.size());
+        if(!log.isTraceEnabled()) {
+            return;
+        }
         for(int i = 0; i < linkList.size(); i ++) {
-            log.debug("  " + linkList.get(i).toString());
+            log.trace("  " + linkList.get(i).toString());
         }
     }
 }
@@ -0,0 +1,97 @@
+/*
+ * MIDI Port Buffer
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.jack;
+
+import org.jaudiolibs.jnajack.JackException;
+
+/**
+ * The MIDI buffer of one Jack port for the current process cycle. The
+ * process loop only reads and writes ports through this so it can be
+ * driven without a Jack server. All methods are called from the process
+ * loop only and must not allocate.
+ */
+public interface MidiPortBuffer {
+    public static final int JACK_EVENT_HEADER = 12;  // bytes used per event in a Jack MIDI buffer
+    public static final int JACK_EVENT_INLINE = 4;  // data bytes stored in the event header
+
+    /**
+     * Clears the buffer before writing events to an output port.
+     * 
+     * @throws JackException if the buffer is not available
+     */
+    public void clear() throws JackException;
+    
+    /**
+     * Gets the largest event that can still be written this cycle.
+     * 
+     * @return the size in bytes
+     * @throws JackException if the buffer is not available
+     */
+    public int getMaxEventSize() throws JackException;
+    
+    /**
+     * Writes an event to an output port.
+     * 
+     * @param time the frame offset within the cycle
+     * @param data the event data
+     * @param length the event length
+     * @throws JackException if the buffer is full
+     */
+    public void writeEvent(int time, byte data[], int length) throws JackException;
+    
+    /**
+     * Gets the number of events Jack could not fit in an output port
+     * since it was cleared.
+     * 
+     * @return the number of lost events
+     * @throws JackException if the buffer is not available
+     */
+    public int getLostEventCount() throws JackException;
+    
+    /**
+     * Gets the number of events in an input port this cycle.
+     * 
+     * @return the number of events
+     * @throws JackException if the buffer is not available
+     */
+    public int getEventCount() throws JackException;
+    
+    /**
+     * Reads an event from an input port. The event is only copied if it
+     * fits in dest.
+     * 
+     * @param index the event index
+     * @param dest the buffer to copy into
+     * @return the event size in bytes, which is larger than dest if the
+     * event was not copied
+     * @throws JackException if the event could not be read
+     */
+    public int readEvent(int index, byte dest[]) throws JackException;
+    
+    /**
+     * Gets the frame offset of the last event read.
+     * 
+     * @return the frame offset within the cycle
+     */
+    public int getEventTime();
+}
@@ -0,0 +1,187 @@
+/*
+ * Log Histogram
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A histogram with power of two buckets. Bucket 0 counts zeros and bucket
+ * n counts values from 2^(n-1) to 2^n - 1. Nothing is allocated after
+ * construction so record() is safe to call from the process loop.
+ * 
+ * Exactly one thread may call record(). Any thread may read a copy with
+ * copyTo() while it is being written.
+ */
+public class LogHistogram {
+    static final VarHandle COUNT = MethodHandles.arrayElementVarHandle(long[].class);
+    public static final int BUCKETS = 64;
+    final long counts[];
+    
+    /**
+     * Creates an empty LogHistogram.
+     */
+    public LogHistogram() {
+        counts = new long[BUCKETS];
+    }
+    
+    /**
+     * Records a value. (writer only)
+     * 
+     * @param value the value - negative values are counted as 0
+     */
+    public void record(long value) {
+        int i = getBucket(value);
+        COUNT.setRelease(counts, i, counts[i] + 1);
+    }
+    
+    /**
+     * Copies the counts into another histogram. The copy is not atomic so
+     * buckets may be a few values apart if record() is running.
+     * 
+     * @param dest the histogram to copy into
+     */
+    public void copyTo(LogHistogram dest) {
+        for(int i = 0; i < BUCKETS; i ++) {
+            dest.counts[i] = (long)COUNT.getAcquire(counts, i);
+        }
+    }
+    
+    /**
+     * Subtracts the counts of an older copy of the same histogram, leaving
+     * only what was recorded between the two. This must not be called on
+     * a histogram that is being written.
+     * 
+     * @param older the older copy
+     */
+    public void subtract(LogHistogram older) {
+        for(int i = 0; i < BUCKETS; i ++) {
+            counts[i] = Math.max(0, counts[i] - older.counts[i]);
+        }
+    }
+    
+    /**
+     * Adds the counts of another histogram. This must not be called on a
+     * histogram that is being written.
+     * 
+     * @param other the histogram to add
+     */
+    public void add(LogHistogram other) {
+        for(int i = 0; i < BUCKETS; i ++) {
+            counts[i] += other.counts[i];
+        }
+    }
+    
+    /**
+     * Gets the number of values recorded. This should be called on a copy.
+     * 
+     * @return the number of values
+     */
+    public long getCount() {
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i ++) {
+            total += counts[i];
+        }
+        return total;
+    }
+    
+    /**
+     * Gets an upper bound for a percentile. This should be called on a copy.
+     * 
+     * @param percent the percentile from 0.0 to 100.0
+     * @return the largest value in the bucket holding the percentile or 0
+     * if nothing was recorded
+     */
+    public long getPercentile(double percent) {
+        long total = getCount();
+        if(total == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(total * percent / 100.0);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i ++) {
+            seen += counts[i];
+            if(seen >= rank && counts[i] > 0) {
+                return getUpperBound(i);
+            }
+        }
+        return getUpperBound(BUCKETS - 1);
+    }
+    
+    /**
+     * Gets an upper bound for the largest value recorded. This should be
+     * called on a copy.
+     * 
+     * @return the largest value in the highest used bucket or 0
+     */
+    public long getMax() {
+        for(int i = BUCKETS - 1; i > 0; i --) {
+            if(counts[i] > 0) {
+                return getUpperBound(i);
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Formats the count and percentiles for logging. This should be called
+     * on a copy.
+     * 
+     * @param scale the divisor to apply to values, such as 1000 for ns to us
+     * @return the summary
+     */
+    public String toSummary(long scale) {
+        return "n: " + getCount() + " - p50: " + getPercentile(50.0) / scale +
+            " - p99: " + getPercentile(99.0) / scale + " - p99.9: " +
+            getPercentile(99.9) / scale + " - max: " + getMax() / scale;
+    }
+    
+    /**
+     * Gets the bucket for a value.
+     * 
+     * @param value the value
+     * @return the bucket index
+     */
+    public static int getBucket(long value) {
+        if(value <= 0) {
+            return 0;
+        }
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+    
+    /**
+     * Gets the largest value counted by a bucket.
+     * 
+     * @param bucket the bucket index
+     * @return the largest value
+     */
+    public static long getUpperBound(int bucket) {
+        if(bucket <= 0) {
+            return 0;
+        }
+        if(bucket >= BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return (1L << bucket) - 1;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * MIDI Coalescer
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.util;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Holds continuous messages (controllers, pitch bend and aftertouch) for a
+ * short window and keeps only the newest value for each channel and
+ * controller or note. Everything is kept in fixed size tables so nothing
+ * is allocated.
+ * 
+ * The owner must flush before passing on any message that was not
+ * accepted by offer(), which keeps notes, clock and SysEx in order with
+ * the continuous data around them. This is not thread safe.
+ */
+public class MidiCoalescer {
+    static final int EMPTY = -1;
+    static final int TABLE_SIZE = MidiProtocol.MIDI_NUM_CHANNELS * MidiProtocol.MIDI_NUM_CONTROLLERS;
+    static final int CONTROL_BASE = 0;
+    static final int POLY_PRESSURE_BASE = TABLE_SIZE;
+    static final int PITCH_BEND_BASE = TABLE_SIZE * 2;
+    static final int CHANNEL_PRESSURE_BASE = PITCH_BEND_BASE + MidiProtocol.MIDI_NUM_CHANNELS;
+    static final int NUM_SLOTS = CHANNEL_PRESSURE_BASE + MidiProtocol.MIDI_NUM_CHANNELS;
+    final long windowNanos;
+    final int values[];  // packed pending message per slot
+    final long times[];  // timestamp of the pending message
+    final int order[];  // slots in the order they first became pending
+    final byte data[];  // scratch for flushing
+    int pendingCount;
+    long firstPendingNanos;
+    long coalescedEvents;
+    
+    /**
+     * Creates a MidiCoalescer.
+     * 
+     * @param windowNanos the longest time to hold a value
+     */
+    public MidiCoalescer(long windowNanos) {
+        this.windowNanos = windowNanos;
+        values = new int[NUM_SLOTS];
+        times = new long[NUM_SLOTS];
+        order = new int[NUM_SLOTS];
+        data = new byte[3];
+        for(int i = 0; i < NUM_SLOTS; i ++) {
+            values[i] = EMPTY;
+        }
+        pendingCount = 0;
+        firstPendingNanos = 0;
+        coalescedEvents = 0;
+    }
+    
+    /**
+     * Offers a message to hold. Continuous messages are held and replace
+     * any older value in the same slot.
+     * 
+     * @param timestamp the message timestamp
+     * @param status the status byte
+     * @param data1 the first data byte
+     * @param data2 the second data byte
+     * @return true if the message was held, false if it must be sent as is
+     */
+    public boolean offer(long timestamp, int status, int data1, int data2) {
+        int slot = getSlot(status, data1);
+        if(slot < 0) {
+            return false;
+        }
+        if(values[slot] == EMPTY) {
+            if(pendingCount == 0) {
+                firstPendingNanos = System.nanoTime();
+            }
+            order[pendingCount] = slot;
+            pendingCount ++;
+        }
+        else {
+            coalescedEvents ++;
+        }
+        values[slot] = (status & 0xff) | ((data1 & 0x7f) << 8) | ((data2 & 0x7f) << 16);
+        times[slot] = timestamp;
+        return true;
+    }
+    
+    /**
+     * Checks if any values are held.
+     * 
+     * @return true if values are held, false otherwise
+     */
+    public boolean hasPending() {
+        return pendingCount > 0;
+    }
+    
+    /**
+     * Checks if the oldest held value has waited for the full window.
+     * 
+     * @param nowNanos the current System.nanoTime()
+     * @return true if the held values should be flushed
+     */
+    public boolean isDue(long nowNanos) {
+        return pendingCount > 0 && nowNanos - firstPendingNanos >= windowNanos;
+    }
+    
+    /**
+     * Gets the time until the held values should be flushed.
+     * 
+     * @param nowNanos the current System.nanoTime()
+     * @return the time in nanoseconds, 0 if due now or Long.MAX_VALUE if
+     * nothing is held
+     */
+    public long getNanosUntilDue(long nowNanos) {
+        if(pendingCount == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, windowNanos - (nowNanos - firstPendingNanos));
+    }
+    
+    /**
+     * Sends all held values in the order they first arrived.
+     * 
+     * @param sink where to send the values
+     * @throws InvalidMidiDataException if a value could not be sent - the
+     * remaining values are dropped
+     */
+    public void flush(MidiEventSink sink) throws InvalidMidiDataException {
+        int count = pendingCount;
+        pendingCount = 0;
+        InvalidMidiDataException error = null;
+        for(int i = 0; i < count; i ++) {
+            int slot = order[i];
+            int value = values[slot];
+            values[slot] = EMPTY;
+            if(error != null) {
+                continue;
+            }
+            data[0] = (byte)value;
+            data[1] = (byte)(value >>> 8);
+            data[2] = (byte)(value >>> 16);
+            int length = (value & 0xf0) == ShortMessage.CHANNEL_PRESSURE ? 2 : 3;
+            try {
+                sink.sendEvent(times[slot], data, length);
+            } catch (InvalidMidiDataException e) {
+                error = e;
+            }
+        }
+        if(error != null) {
+            throw error;
+        }
+    }
+    
+    /**
+     * Gets the number of messages that were replaced by a newer value.
+     * 
+     * @return the number of messages not sent
+     */
+    public long getCoalescedEvents() {
+        return coalescedEvents;
+    }
+    
+    /**
+     * Gets the table slot for a message.
+     * 
+     * @param status the status byte
+     * @param data1 the first data byte
+     * @return the slot or -1 if the message is not continuous
+     */
+    private int getSlot(int status, int data1) {
+        if(status >= 0xf0) {
+            return -1;
+        }
+        int channel = status & 0x0f;
+        switch(status & 0xf0) {
+            case ShortMessage.CONTROL_CHANGE:
+                if(!MidiMessageUtils.isContinuousController(data1)) {
+                    return -1;
+                }
+                return CONTROL_BASE + channel * MidiProtocol.MIDI_NUM_CONTROLLERS + (data1 & 0x7f);
+            case ShortMessage.POLY_PRESSURE:
+                return POLY_PRESSURE_BASE + channel * MidiProtocol.MIDI_NUM_NOTES + (data1 & 0x7f);
+            case ShortMessage.PITCH_BEND:
+                return PITCH_BEND_BASE + channel;
+            case ShortMessage.CHANNEL_PRESSURE:
+                return CHANNEL_PRESSURE_BASE + channel;
+            default:
+                return -1;
+        }
+    }
+}
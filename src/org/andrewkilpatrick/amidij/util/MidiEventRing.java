@@ -0,0 +1,327 @@
+/*
+ * MIDI Event Ring
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A bounded single-producer / single-consumer ring of timestamped MIDI
+ * events. Short messages are packed into an int slot and anything longer
+ * (SysEx) is copied into a separate byte arena. Nothing is allocated after
+ * construction.
+ * 
+ * Exactly one thread may call the offer methods and exactly one other
+ * thread may call the consumer methods.
+ */
+public class MidiEventRing {
+    static final VarHandle INDEX = MethodHandles.arrayElementVarHandle(long[].class);
+    // the indexes live in one array with each side on its own cache line
+    static final int LINE = 8;  // longs per cache line
+    static final int HEAD = LINE * 2;  // consumer
+    static final int ARENA_HEAD = HEAD + 1;  // consumer
+    static final int TAIL_CACHE = HEAD + 2;  // consumer's copy of the tail
+    static final int TAIL = LINE * 4;  // producer
+    static final int ARENA_TAIL = TAIL + 1;  // producer
+    static final int HEAD_CACHE = TAIL + 2;  // producer's copy of the head
+    static final int ARENA_HEAD_CACHE = TAIL + 3;  // producer's copy of the arena head
+    static final int INDEX_SIZE = LINE * 6;
+    static final int LONG_EVENT = 0x80000000;  // event data is in the arena
+    final long index[];
+    final long times[];  // event timestamps
+    final long enqueued[];  // System.nanoTime() when each event was added
+    final int events[];  // packed status / data / length
+    final byte arena[];  // variable length event data
+    final int mask;
+    final int arenaMask;
+
+    /**
+     * Creates a MidiEventRing. Sizes are rounded up to a power of two.
+     * 
+     * @param capacity the number of events the ring can hold
+     * @param arenaSize the number of bytes available for long events
+     */
+    public MidiEventRing(int capacity, int arenaSize) {
+        capacity = nextPowerOfTwo(capacity);
+        arenaSize = nextPowerOfTwo(arenaSize);
+        index = new long[INDEX_SIZE];
+        times = new long[capacity];
+        enqueued = new long[capacity];
+        events = new int[capacity];
+        arena = new byte[arenaSize];
+        mask = capacity - 1;
+        arenaMask = arenaSize - 1;
+    }
+
+    /**
+     * Rounds a value up to the next power of two.
+     * 
+     * @param value the value
+     * @return the next power of two that is at least value
+     */
+    public static int nextPowerOfTwo(int value) {
+        if(value <= 1) {
+            return 1;
+        }
+        return Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /**
+     * Gets the event capacity.
+     * 
+     * @return the number of events the ring can hold
+     */
+    public int getCapacity() {
+        return times.length;
+    }
+
+    /**
+     * Gets the arena size.
+     * 
+     * @return the number of bytes available for long events
+     */
+    public int getArenaSize() {
+        return arena.length;
+    }
+
+    /**
+     * Gets the number of events in the ring. This may be called from any
+     * thread but is only an estimate if the ring is being used.
+     * 
+     * @return the number of events in the ring
+     */
+    public int size() {
+        long head = (long)INDEX.getAcquire(index, HEAD);
+        long tail = (long)INDEX.getAcquire(index, TAIL);
+        return (int)(tail - head);
+    }
+
+    /*
+     * producer methods
+     */
+
+    /**
+     * Adds a short message. (producer only)
+     * 
+     * @param timestamp the timestamp
+     * @param status the status byte
+     * @param data1 the first data byte
+     * @param data2 the second data byte
+     * @param length the message length from 1 to 3
+     * @return true if the message was added, false if the ring is full
+     */
+    public boolean offerShort(long timestamp, int status, int data1, int data2, int length) {
+        long tail = index[TAIL];
+        if(!hasSlot(tail)) {
+            return false;
+        }
+        int i = (int)tail & mask;
+        times[i] = timestamp;
+        enqueued[i] = System.nanoTime();
+        events[i] = (status & 0xff) | ((data1 & 0xff) << 8) |
+            ((data2 & 0xff) << 16) | ((length & 0x7f) << 24);
+        INDEX.setRelease(index, TAIL, tail + 1);
+        return true;
+    }
+
+    /**
+     * Adds a message of any length. (producer only)
+     * 
+     * @param timestamp the timestamp
+     * @param data the message data
+     * @param offset the offset of the message in data
+     * @param length the message length
+     * @return true if the message was added, false if there is no space
+     */
+    public boolean offer(long timestamp, byte data[], int offset, int length) {
+        if(length < 1) {
+            return false;
+        }
+        int status = data[offset] & 0xff;
+        if(length <= 3 && status != 0xf0 && status != 0xf7) {
+            return offerShort(timestamp, status,
+                length > 1 ? data[offset + 1] : 0,
+                length > 2 ? data[offset + 2] : 0, length);
+        }
+        if(length > arena.length) {
+            return false;
+        }
+        long tail = index[TAIL];
+        if(!hasSlot(tail)) {
+            return false;
+        }
+        long arenaTail = index[ARENA_TAIL];
+        if(arenaTail + length - index[ARENA_HEAD_CACHE] > arena.length) {
+            index[ARENA_HEAD_CACHE] = (long)INDEX.getAcquire(index, ARENA_HEAD);
+            if(arenaTail + length - index[ARENA_HEAD_CACHE] > arena.length) {
+                return false;
+            }
+        }
+        for(int j = 0; j < length; j ++) {
+            arena[(int)(arenaTail + j) & arenaMask] = data[offset + j];
+        }
+        index[ARENA_TAIL] = arenaTail + length;
+        int i = (int)tail & mask;
+        times[i] = timestamp;
+        enqueued[i] = System.nanoTime();
+        events[i] = LONG_EVENT | length;
+        INDEX.setRelease(index, TAIL, tail + 1);
+        return true;
+    }
+
+    /**
+     * Checks if there is a free slot, refreshing the cached head only
+     * when the ring looks full.
+     */
+    private boolean hasSlot(long tail) {
+        if(tail - index[HEAD_CACHE] >= times.length) {
+            index[HEAD_CACHE] = (long)INDEX.getAcquire(index, HEAD);
+            if(tail - index[HEAD_CACHE] >= times.length) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * consumer methods
+     */
+
+    /**
+     * Checks if the ring is empty. (consumer only)
+     * 
+     * @return true if there are no events, false otherwise
+     */
+    public boolean isEmpty() {
+        long head = index[HEAD];
+        if(head >= index[TAIL_CACHE]) {
+            index[TAIL_CACHE] = (long)INDEX.getAcquire(index, TAIL);
+            return head >= index[TAIL_CACHE];
+        }
+        return false;
+    }
+
+    /**
+     * Gets the timestamp of the next event. The ring must not be empty.
+     * (consumer only)
+     * 
+     * @return the timestamp
+     */
+    public long peekTimestamp() {
+        return times[(int)index[HEAD] & mask];
+    }
+
+    /**
+     * Gets the time the next event was added. The ring must not be empty.
+     * (consumer only)
+     * 
+     * @return the System.nanoTime() when the event was added
+     */
+    public long peekEnqueueNanos() {
+        return enqueued[(int)index[HEAD] & mask];
+    }
+
+    /**
+     * Gets the length of the next event. The ring must not be empty.
+     * (consumer only)
+     * 
+     * @return the length in bytes
+     */
+    public int peekLength() {
+        int event = events[(int)index[HEAD] & mask];
+        if((event & LONG_EVENT) != 0) {
+            return event & ~LONG_EVENT;
+        }
+        return (event >>> 24) & 0x7f;
+    }
+
+    /**
+     * Gets the status byte of the next event. The ring must not be empty.
+     * (consumer only)
+     * 
+     * @return the status byte
+     */
+    public int peekStatus() {
+        int event = events[(int)index[HEAD] & mask];
+        if((event & LONG_EVENT) != 0) {
+            return arena[(int)index[ARENA_HEAD] & arenaMask] & 0xff;
+        }
+        return event & 0xff;
+    }
+
+    /**
+     * Removes the next event and copies it into dest. (consumer only)
+     * 
+     * @param dest the buffer to copy into - must hold at least 3 bytes
+     * @return the event length, 0 if dest was too small and the event
+     * was dropped, or -1 if the ring is empty
+     */
+    public int poll(byte dest[]) {
+        if(isEmpty()) {
+            return -1;
+        }
+        long head = index[HEAD];
+        int event = events[(int)head & mask];
+        int length;
+        if((event & LONG_EVENT) != 0) {
+            length = event & ~LONG_EVENT;
+            long arenaHead = index[ARENA_HEAD];
+            if(length <= dest.length) {
+                for(int j = 0; j < length; j ++) {
+                    dest[j] = arena[(int)(arenaHead + j) & arenaMask];
+                }
+            }
+            else {
+                length = 0;
+            }
+            INDEX.setRelease(index, ARENA_HEAD, arenaHead + (event & ~LONG_EVENT));
+        }
+        else {
+            length = (event >>> 24) & 0x7f;
+            dest[0] = (byte)event;
+            dest[1] = (byte)(event >>> 8);
+            dest[2] = (byte)(event >>> 16);
+        }
+        INDEX.setRelease(index, HEAD, head + 1);
+        return length;
+    }
+
+    /**
+     * Removes the next event without reading it. (consumer only)
+     * 
+     * @return true if an event was removed, false if the ring is empty
+     */
+    public boolean skip() {
+        if(isEmpty()) {
+            return false;
+        }
+        long head = index[HEAD];
+        int event = events[(int)head & mask];
+        if((event & LONG_EVENT) != 0) {
+            long arenaHead = index[ARENA_HEAD];
+            INDEX.setRelease(index, ARENA_HEAD, arenaHead + (event & ~LONG_EVENT));
+        }
+        INDEX.setRelease(index, HEAD, head + 1);
+        return true;
+    }
+}
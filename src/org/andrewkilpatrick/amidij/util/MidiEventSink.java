@@ -0,0 +1,41 @@
+/*
+ * MIDI Event Sink
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.util;
+
+import javax.sound.midi.InvalidMidiDataException;
+
+/**
+ * Something that raw MIDI events can be sent to.
+ */
+public interface MidiEventSink {
+    
+    /**
+     * Sends an event.
+     * 
+     * @param timestamp the event timestamp
+     * @param data the event data
+     * @param length the event length
+     * @throws InvalidMidiDataException if the event could not be sent
+     */
+    public void sendEvent(long timestamp, byte data[], int length) throws InvalidMidiDataException;
+}
@@ -966,6 +966,148 @@ public class MidiMessageUtils {
         return new ShortMessage(ShortMessage.ACTIVE_SENSING);
     }
     
+    /*
+     * status byte utils
+     */
+    /**
+     * Checks if a message can be shed first when an output is overloaded.
+     * Aftertouch and active sensing are replaced by the next value, so they
+     * go before notes, controllers, clock or SysEx.
+     * 
+     * @param status the status byte
+     * @return true if the message is low priority, false otherwise
+     */
+    public static boolean isSheddableStatus(int status) {
+        if(status == ShortMessage.ACTIVE_SENSING) {
+            return true;
+        }
+        if(status >= 0xf0) {
+            return false;
+        }
+        int command = status & 0xf0;
+        return command == ShortMessage.POLY_PRESSURE || command == ShortMessage.CHANNEL_PRESSURE;
+    }
+    
+    /**
+     * Checks if a controller carries a continuous value where only the
+     * latest value matters. Bank select, data entry, (N)RPN selection,
+     * switch pedals and channel mode messages depend on order and are
+     * not continuous.
+     * 
+     * @param controller the controller number
+     * @return true if the controller is continuous, false otherwise
+     */
+    public static boolean isContinuousController(int controller) {
+        switch(controller) {
+            case MidiProtocol.MIDI_CONTROLLER_BANK_MSB:
+            case MidiProtocol.MIDI_CONTROLLER_BANK_LSB:
+            case MidiProtocol.MIDI_CONTROLLER_DATA_ENTRY_MSB:
+            case MidiProtocol.MIDI_CONTROLLER_DATA_ENTRY_LSB:
+                return false;
+            default:
+                break;
+        }
+        // switch pedals
+        if(controller >= MidiProtocol.MIDI_CONTROLLER_DAMPER_PEDAL &&
+                controller <= MidiProtocol.MIDI_CONTROLLER_HOLD_2) {
+            return false;
+        }
+        // data increment / decrement and (N)RPN selection
+        if(controller >= MidiProtocol.MIDI_CONTROLLER_DATA_INCREMENT &&
+                controller <= MidiProtocol.MIDI_CONTROLLER_RPN_MSB) {
+            return false;
+        }
+        // channel mode messages
+        if(controller >= MidiProtocol.MIDI_CONTROLLER_ALL_SOUNDS_OFF) {
+            return false;
+        }
+        return controller >= 0 && controller < MidiProtocol.MIDI_NUM_CONTROLLERS;
+    }
+    
+    /**
+     * Checks if a message should be sent ahead of bulk data on a busy
+     * output. Notes, program changes, switch-like controllers and system
+     * common and realtime messages are timing sensitive. Continuous data
+     * and SysEx are not.
+     * 
+     * @param status the status byte or a data byte for a SysEx continuation
+     * @param data1 the first data byte or 0 if there is none
+     * @return true if the message is timing sensitive, false otherwise
+     */
+    public static boolean isPriorityMessage(int status, int data1) {
+        if(status < 0x80 || status == ShortMessage.END_OF_EXCLUSIVE || status == 0xf0) {
+            return false;
+        }
+        if(status > 0xf0) {
+            return true;
+        }
+        switch(status & 0xf0) {
+            case ShortMessage.NOTE_OFF:
+            case ShortMessage.NOTE_ON:
+            case ShortMessage.PROGRAM_CHANGE:
+                return true;
+            case ShortMessage.CONTROL_CHANGE:
+                return !isContinuousController(data1 & 0x7f);
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Gets the running status after a message is sent. Channel messages set
+     * the running status, system common messages and SysEx clear it and
+     * realtime messages leave it alone.
+     * 
+     * @param status the status byte of the message being sent
+     * @param runningStatus the running status before the message or 0
+     * @return the running status after the message or 0 if there is none
+     */
+    public static int getRunningStatus(int status, int runningStatus) {
+        if(status < 0x80) {
+            return runningStatus;
+        }
+        if(status < 0xf0) {
+            return status;
+        }
+        if(status >= ShortMessage.TIMING_CLOCK) {
+            return runningStatus;
+        }
+        return 0;
+    }
+    
+    /**
+     * Gets the number of bytes a message takes on a MIDI cable. The status
+     * byte of a channel message is not sent if it matches the running
+     * status, and a 0xF7 continuation of a SysEx is sent without the 0xF7.
+     * 
+     * @param status the status byte
+     * @param length the message length including the status byte
+     * @param runningStatus the running status before the message or 0
+     * @return the number of bytes on the wire
+     */
+    public static int getWireLength(int status, int length, int runningStatus) {
+        if(length < 1) {
+            return 0;
+        }
+        if(status == runningStatus && status >= 0x80 && status < 0xf0) {
+            return length - 1;
+        }
+        if(status == ShortMessage.END_OF_EXCLUSIVE && length > 1) {
+            return length - 1;
+        }
+        return length;
+    }
+    
+    /**
+     * Gets how busy a MIDI cable is.
+     * 
+     * @param bytesPerSecond the wire rate in bytes per second
+     * @return the utilization in percent of 31.25 kbaud
+     */
+    public static double getWireUtilization(double bytesPerSecond) {
+        return bytesPerSecond * 100.0 / (double)MidiProtocol.MIDI_WIRE_BYTES_PER_SECOND;
+    }
+    
     /*
      * MetaMessage utils
      */
@@ -12,10 +12,16 @@ public class MidiProtocol {
     // controller assignments
     public static final int MIDI_CONTROLLER_BANK_MSB = 0;
     public static final int MIDI_CONTROLLER_MOD_WHEEL = 1;
+    public static final int MIDI_CONTROLLER_DATA_ENTRY_MSB = 6;
     public static final int MIDI_CONTROLLER_VOLUME = 7;
     public static final int MIDI_CONTROLLER_PAN = 10;
     public static final int MIDI_CONTROLLER_BANK_LSB = 32;
+    public static final int MIDI_CONTROLLER_DATA_ENTRY_LSB = 38;
     public static final int MIDI_CONTROLLER_DAMPER_PEDAL = 64;
+    public static final int MIDI_CONTROLLER_LEGATO_FOOTSWITCH = 68;
+    public static final int MIDI_CONTROLLER_HOLD_2 = 69;
+    public static final int MIDI_CONTROLLER_DATA_INCREMENT = 96;
+    public static final int MIDI_CONTROLLER_RPN_MSB = 101;
     public static final int MIDI_CONTROLLER_ALL_SOUNDS_OFF = 120;
     public static final int MIDI_CONTROLLER_RESET_ALL_CONTROLLERS = 121;
     public static final int MIDI_CONTROLLER_LOCAL_CONTROL = 122;
@@ -36,6 +42,11 @@ public class MidiProtocol {
     public static final int MIDI_PITCH_BEND_MIN = -8192;
     public static final int MIDI_PITCH_BEND_MAX = 8191;
     
+    // wire
+    public static final int MIDI_WIRE_BAUD = 31250;
+    public static final int MIDI_WIRE_BITS_PER_BYTE = 10;  // start + 8 data + stop
+    public static final int MIDI_WIRE_BYTES_PER_SECOND = MIDI_WIRE_BAUD / MIDI_WIRE_BITS_PER_BYTE;
+    
     // clock
     public static final double MIDI_CLOCK_TEMPO_MIN = 30.0;  // BPM
     public static final double MIDI_CLOCK_TEMPO_MAX = 300.0;  // BPM
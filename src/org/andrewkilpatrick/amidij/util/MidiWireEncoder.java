@@ -0,0 +1,72 @@
+/*
+ * MIDI Wire Encoder
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.util;
+
+/**
+ * Tracks the running status of one MIDI output and counts the bytes sent
+ * on the wire. Outputs use account() to count what the driver sends.
+ * Only one thread may send through an encoder.
+ */
+public class MidiWireEncoder {
+    int runningStatus;  // 0 if there is none
+    ThroughputMeter wireBytes;
+    
+    /**
+     * Creates a MidiWireEncoder.
+     */
+    public MidiWireEncoder() {
+        runningStatus = 0;
+        wireBytes = new ThroughputMeter();
+    }
+    
+    /**
+     * Counts a message sent to the output.
+     * 
+     * @param status the status byte
+     * @param length the message length including the status byte
+     * @return the number of bytes on the wire
+     */
+    public int account(int status, int length) {
+        int wireLength = MidiMessageUtils.getWireLength(status, length, runningStatus);
+        runningStatus = MidiMessageUtils.getRunningStatus(status, runningStatus);
+        wireBytes.add(wireLength);
+        return wireLength;
+    }
+    
+    /**
+     * Forgets the running status so the next message is sent in full. This
+     * should be called if the output may have lost sync.
+     */
+    public void reset() {
+        runningStatus = 0;
+    }
+    
+    /**
+     * Gets the meter for bytes sent on the wire.
+     * 
+     * @return the throughput meter
+     */
+    public ThroughputMeter getWireBytes() {
+        return wireBytes;
+    }
+}
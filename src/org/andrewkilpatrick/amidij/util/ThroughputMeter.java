@@ -0,0 +1,79 @@
+/*
+ * Throughput Meter
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.util;
+
+/**
+ * Counts bytes moved by one thread and works out the rate for another.
+ * Only one thread may call add().
+ */
+public class ThroughputMeter {
+    volatile long total;  // single writer
+    long lastTotal;  // reader only
+    long lastNanos;  // reader only
+    
+    /**
+     * Creates a ThroughputMeter.
+     */
+    public ThroughputMeter() {
+        total = 0;
+        lastTotal = 0;
+        lastNanos = System.nanoTime();
+    }
+    
+    /**
+     * Adds bytes to the count. This is safe to call from the process loop.
+     * 
+     * @param bytes the number of bytes
+     */
+    public void add(long bytes) {
+        if(bytes != 0) {
+            total += bytes;
+        }
+    }
+    
+    /**
+     * Gets the total number of bytes counted.
+     * 
+     * @return the total in bytes
+     */
+    public long getTotal() {
+        return total;
+    }
+    
+    /**
+     * Gets the rate since the last call. Only one thread should call this.
+     * 
+     * @return the rate in bytes per second
+     */
+    public double sample() {
+        long now = System.nanoTime();
+        long count = total;
+        double rate = 0.0;
+        if(now > lastNanos) {
+            rate = (double)(count - lastTotal) * 1000000000.0 / (double)(now - lastNanos);
+        }
+        lastTotal = count;
+        lastNanos = now;
+        return rate;
+    }
+}
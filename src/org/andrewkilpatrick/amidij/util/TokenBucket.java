@@ -0,0 +1,92 @@
+/*
+ * Token Bucket
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.util;
+
+/**
+ * A token bucket for pacing output to a fixed rate. Tokens are added at
+ * the rate up to the burst size and taken as data is sent. A request
+ * larger than the burst size is allowed once the bucket is full and leaves
+ * it in debt, so large messages are still sent at the average rate. This
+ * is not thread safe.
+ */
+public class TokenBucket {
+    final double tokensPerNano;
+    final double burst;
+    double tokens;
+    long lastNanos;
+    
+    /**
+     * Creates a full TokenBucket.
+     * 
+     * @param tokensPerSecond the rate tokens are added
+     * @param burst the most tokens the bucket can hold
+     */
+    public TokenBucket(int tokensPerSecond, int burst) {
+        tokensPerNano = (double)tokensPerSecond / 1000000000.0;
+        this.burst = Math.max(1, burst);
+        tokens = this.burst;
+        lastNanos = System.nanoTime();
+    }
+    
+    /**
+     * Adds the tokens earned since the last refill.
+     * 
+     * @param nowNanos the current System.nanoTime()
+     */
+    public void refill(long nowNanos) {
+        if(nowNanos > lastNanos) {
+            tokens = Math.min(burst, tokens + (double)(nowNanos - lastNanos) * tokensPerNano);
+        }
+        lastNanos = nowNanos;
+    }
+    
+    /**
+     * Takes tokens if there are enough.
+     * 
+     * @param amount the number of tokens
+     * @return true if the tokens were taken, false if the caller must wait
+     */
+    public boolean take(int amount) {
+        if(tokens >= amount || tokens >= burst) {
+            tokens -= amount;
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Gets the time until take() will succeed.
+     * 
+     * @param amount the number of tokens
+     * @param nowNanos the current System.nanoTime()
+     * @return the time in nanoseconds or 0 if the tokens are there now
+     */
+    public long getNanosUntil(int amount, long nowNanos) {
+        double needed = Math.min(amount, burst) - tokens;
+        if(needed <= 0.0) {
+            return 0;
+        }
+        long nanos = (long)Math.ceil(needed / tokensPerNano) - (nowNanos - lastNanos);
+        return Math.max(0, nanos);
+    }
+}
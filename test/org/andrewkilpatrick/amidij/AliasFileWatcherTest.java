@@ -0,0 +1,71 @@
+/*
+ * Alias File Watcher Test
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the watcher keeps reloading after a reload fails.
+ */
+public class AliasFileWatcherTest {
+    static final long WAIT_MILLIS = 10000;  // longest wait for a reload
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+    
+    @Test(timeout = 60000)
+    public void keepsWatchingAfterFailedReload() throws Exception {
+        Path file = temp.newFile("aliases.txt").toPath();
+        AtomicInteger reloads = new AtomicInteger();
+        AliasFileWatcher watcher = new AliasFileWatcher(file.toString(), () -> {
+            if(reloads.incrementAndGet() == 1) {
+                throw new IllegalStateException("bad aliases");
+            }
+        });
+        watcher.start();
+        try {
+            Files.write(file, Arrays.asList("in=Fake MIDI 1=first"));
+            awaitReloads(reloads, 1);
+            Files.write(file, Arrays.asList("in=Fake MIDI 1=second"));
+            awaitReloads(reloads, 2);
+            assertEquals(2, reloads.get());
+        } finally {
+            watcher.shutdown();
+        }
+    }
+    
+    private static void awaitReloads(AtomicInteger reloads, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while(reloads.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
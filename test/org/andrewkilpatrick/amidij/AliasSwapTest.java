@@ -0,0 +1,103 @@
+/*
+ * Alias Swap Test
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs AMidiJ on the simulated backends, swaps the aliases of two devices
+ * in the alias file and checks that every alias ends up with only the
+ * route of the device that has it now.
+ */
+public class AliasSwapTest {
+    static final long WAIT_MILLIS = 10000;  // longest wait for the ports to settle
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+    
+    @Test(timeout = 60000)
+    public void swappedAliasesMoveTheirRoutes() throws Exception {
+        Path file = temp.newFile("aliases.txt").toPath();
+        Files.write(file, aliases("swap-a", "swap-b"));
+        AMidiJ app = new AMidiJ(new String[] { "--simulate=2", "--linger=0",
+            "--portaliases=" + file });
+        Thread loop = new Thread(app::run, "alias swap main loop");
+        loop.setDaemon(true);
+        loop.start();
+        try {
+            awaitRoutes(app, "swap-a", "Fake MIDI 1", "swap-b", "Fake MIDI 2");
+            
+            Files.write(file, aliases("swap-b", "swap-a"));
+            awaitRoutes(app, "swap-a", "Fake MIDI 2", "swap-b", "Fake MIDI 1");
+            // the old routes are detached once the process loop is past them
+            Thread.sleep(500);
+            for(String aliasName : new String[] { "swap-a", "swap-b" }) {
+                assertEquals("input routes: " + aliasName, 1,
+                    app.metrics.getInput(aliasName).getRouteCount());
+                assertEquals("output routes: " + aliasName, 1,
+                    app.metrics.getOutput(aliasName).getRouteCount());
+            }
+        } finally {
+            app.shutdown();
+        }
+    }
+    
+    private static List<String> aliases(String first, String second) {
+        return Arrays.asList(
+            "in=Fake MIDI 1=" + first,
+            "in=Fake MIDI 2=" + second,
+            "out=Fake MIDI 1=" + first,
+            "out=Fake MIDI 2=" + second);
+    }
+    
+    /**
+     * Waits until both aliases belong to the expected devices and have
+     * routes open in both directions.
+     */
+    private static void awaitRoutes(AMidiJ app, String firstAlias, String firstSysName,
+            String secondAlias, String secondSysName) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while(System.currentTimeMillis() < deadline) {
+            if(isRouted(app, firstAlias, firstSysName) && isRouted(app, secondAlias, secondSysName)) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("ports did not settle: " + firstAlias + " / " + secondAlias);
+    }
+    
+    private static boolean isRouted(AMidiJ app, String aliasName, String sysName) {
+        SystemPort in = app.inPorts.getByAliasName(aliasName);
+        SystemPort out = app.outPorts.getByAliasName(aliasName);
+        return in != null && out != null && in.getSysName().equals(sysName) &&
+            out.getSysName().equals(sysName) && in.sysToJack != null && out.jackToSys != null;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Clock Correlator Test
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.andrewkilpatrick.amidij.jack.FakeJackServer;
+import org.junit.Test;
+
+/**
+ * Checks that a clock that fails to read does not stop the others from
+ * being sampled.
+ */
+public class ClockCorrelatorTest {
+    static final int SAMPLES = 3;  // rounds to wait for
+    static final long WAIT_MILLIS = 5000;
+    
+    @Test
+    public void failingClockDoesNotStopOthers() throws Exception {
+        ClockCorrelator correlator = new ClockCorrelator(new FakeJackServer("test", 48000, 256));
+        correlator.createClock("closed", () -> {
+            throw new NullPointerException("device closed");
+        });
+        AtomicInteger reads = new AtomicInteger();
+        correlator.createClock("open", () -> {
+            reads.incrementAndGet();
+            return System.nanoTime() / 1000;
+        });
+        correlator.start();
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while(reads.get() < SAMPLES * ClockCorrelator.SAMPLE_TRIES &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        correlator.shutdown();
+        assertTrue("reads: " + reads.get(), reads.get() >= SAMPLES * ClockCorrelator.SAMPLE_TRIES);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Jack To System Sender Test
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.andrewkilpatrick.amidij.alsaMidi.FakeSystemMidiBackend;
+import org.andrewkilpatrick.amidij.alsaMidi.SystemMidiInterface;
+import org.andrewkilpatrick.amidij.jack.FakeMidiPortBuffer;
+import org.junit.Test;
+
+/**
+ * Checks that a paced sender stops in time when it is closed with a
+ * backlog, and drops what it could not send instead of sending it all.
+ */
+public class JackToSysSenderTest {
+    static final int BUFFER_SIZE = 256;  // frames
+    static final int SAMPLE_RATE = 48000;
+    static final int OUTPUT_RATE = 300;  // bytes per second
+    static final int EVENTS = 200;  // 2 seconds of note ons at the output rate
+    
+    @Test(timeout = 10000)
+    public void closeDropsWhatIsLeft() throws Exception {
+        DeviceClock clock = new DeviceClock("test", () -> -1, null);
+        clock.configure(SAMPLE_RATE, 0.1, 0.05);
+        clock.update(0, 0, SAMPLE_RATE);
+        FakeSystemMidiBackend devices = new FakeSystemMidiBackend();
+        devices.addDevice("test");
+        SystemMidiInterface midi = devices.createInterface();
+        midi.openMIDIOutputPort("test");
+        JackToSys j2s = new JackToSys(midi, new FakeMidiPortBuffer(BUFFER_SIZE, 1), clock,
+            BUFFER_SIZE, SysToJackQueue.DEFAULT_SYSEX_BUFFER_SIZE, true, 0, OUTPUT_RATE,
+            RateShaper.DEFAULT_BACKLOG, OverloadPolicy.DEFER);
+        byte data[] = new byte[] { (byte)0x90, 60, 100 };
+        for(int i = 0; i < EVENTS; i ++) {
+            j2s.processEvent(-1, data, data.length);
+        }
+        j2s.endCycle();
+        assertEquals(0, j2s.getDrops());
+        
+        long start = System.currentTimeMillis();
+        j2s.close();
+        long millis = System.currentTimeMillis() - start;
+        assertTrue("close took: " + millis + " ms", millis < JackToSysSender.SHUTDOWN_MILLIS);
+        assertTrue("sent: " + j2s.getEventsOut(), j2s.getEventsOut() < EVENTS);
+        assertEquals(EVENTS, j2s.getEventsOut() + j2s.getDrops());
+    }
+}
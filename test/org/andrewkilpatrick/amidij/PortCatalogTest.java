@@ -0,0 +1,143 @@
+/*
+ * Port Catalog Test
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that ports can swap and rotate aliases in one rename, that a
+ * rename is refused when another port keeps the alias, and that the
+ * metrics of a dropped alias are unregistered.
+ */
+public class PortCatalogTest {
+    MetricsRegistry metrics;
+    
+    @Before
+    public void createMetrics() {
+        metrics = new MetricsRegistry();
+    }
+    
+    @After
+    public void unregisterMetrics() {
+        metrics.unregister();
+    }
+    
+    @Test
+    public void swapsAliases() {
+        PortCatalog catalog = makeCatalog("alpha", "beta");
+        SystemPort a = catalog.intern("dev a");
+        SystemPort b = catalog.intern("dev b");
+        ArrayList<SystemPort> renamed = catalog.rename(renames(a, "beta", b, "alpha"));
+        assertEquals(2, renamed.size());
+        assertEquals("beta", a.getAliasName());
+        assertEquals("alpha", b.getAliasName());
+        assertSame(a, catalog.getByAliasName("beta"));
+        assertSame(b, catalog.getByAliasName("alpha"));
+        assertSame(a, catalog.getByJackPortName(a.getJackPortName()));
+        assertSame(b, catalog.getByJackPortName(b.getJackPortName()));
+    }
+    
+    @Test
+    public void rotatesAliases() {
+        PortCatalog catalog = makeCatalog("alpha", "beta", "gamma");
+        SystemPort a = catalog.intern("dev a");
+        SystemPort b = catalog.intern("dev b");
+        SystemPort c = catalog.intern("dev c");
+        LinkedHashMap<SystemPort, String> aliasNames = renames(a, "beta", b, "gamma");
+        aliasNames.put(c, "alpha");
+        assertEquals(3, catalog.rename(aliasNames).size());
+        assertSame(a, catalog.getByAliasName("beta"));
+        assertSame(b, catalog.getByAliasName("gamma"));
+        assertSame(c, catalog.getByAliasName("alpha"));
+    }
+    
+    @Test
+    public void keepsNamesOnConflict() {
+        PortCatalog catalog = makeCatalog("alpha", "beta", "gamma");
+        SystemPort a = catalog.intern("dev a");
+        SystemPort b = catalog.intern("dev b");
+        SystemPort c = catalog.intern("dev c");
+        // c keeps gamma so a can not have it, and b can not have alpha
+        // once a keeps it
+        ArrayList<SystemPort> renamed = catalog.rename(renames(a, "gamma", b, "alpha"));
+        assertEquals(0, renamed.size());
+        assertSame(a, catalog.getByAliasName("alpha"));
+        assertSame(b, catalog.getByAliasName("beta"));
+        assertSame(c, catalog.getByAliasName("gamma"));
+        assertSame(a, catalog.getByJackPortName(a.getJackPortName()));
+        assertSame(b, catalog.getByJackPortName(b.getJackPortName()));
+    }
+    
+    @Test
+    public void removesMetricsOfDroppedAlias() throws Exception {
+        PortCatalog catalog = makeCatalog("alpha", "beta");
+        SystemPort a = catalog.intern("dev a");
+        SystemPort b = catalog.intern("dev b");
+        PortMetrics alpha = a.getMetrics();
+        LinkedHashMap<SystemPort, String> aliasNames = new LinkedHashMap<>();
+        aliasNames.put(a, "delta");
+        assertEquals(1, catalog.rename(aliasNames).size());
+        assertFalse(isRegistered("alpha"));
+        assertTrue(isRegistered("delta"));
+        assertTrue(isRegistered("beta"));
+        assertSame(b.getMetrics(), metrics.getInput("beta"));
+        // a new alpha starts over
+        assertNotSame(alpha, metrics.getInput("alpha"));
+    }
+    
+    private PortCatalog makeCatalog(String... aliases) {
+        SystemPortAliases portAliases = new SystemPortAliases();
+        for(int i = 0; i < aliases.length; i ++) {
+            portAliases.addAlias("dev " + (char)('a' + i), aliases[i]);
+        }
+        return new PortCatalog(portAliases, metrics, true);
+    }
+    
+    private static boolean isRegistered(String aliasName) throws Exception {
+        return ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(
+            MetricsRegistry.DOMAIN + ":type=Port,direction=" + PortMetrics.DIRECTION_INPUT +
+            ",name=" + ObjectName.quote(aliasName)));
+    }
+    
+    private static LinkedHashMap<SystemPort, String> renames(SystemPort first, String firstAlias,
+            SystemPort second, String secondAlias) {
+        LinkedHashMap<SystemPort, String> aliasNames = new LinkedHashMap<>();
+        aliasNames.put(first, firstAlias);
+        aliasNames.put(second, secondAlias);
+        return aliasNames;
+    }
+}
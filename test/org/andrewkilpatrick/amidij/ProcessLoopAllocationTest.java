@@ -0,0 +1,127 @@
+/*
+ * Process Loop Allocation Test
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import javax.sound.midi.ShortMessage;
+
+import org.andrewkilpatrick.amidij.alsaMidi.FakeSystemMidiBackend;
+import org.andrewkilpatrick.amidij.alsaMidi.SystemMidiInterface;
+import org.andrewkilpatrick.amidij.jack.FakeMidiPortBuffer;
+import org.junit.Test;
+
+/**
+ * Runs the process loop against in-memory port buffers and devices and
+ * checks that a cycle allocates nothing once it is warmed up.
+ */
+public class ProcessLoopAllocationTest {
+    static final int BUFFER_SIZE = 256;  // frames
+    static final int SAMPLE_RATE = 48000;
+    static final int PORTS = 4;
+    static final int EVENTS_PER_CYCLE = 4;  // per port in each direction
+    static final int WARMUP_CYCLES = 20000;
+    static final int CYCLES = 200;  // the to Jack queues hold this many cycles of events
+    
+    @Test
+    public void cycleDoesNotAllocate() throws Exception {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        RoutingTable routing = new RoutingTable();
+        ProcessLoop loop = new ProcessLoop(routing, new ProcessStats(), 0, 0, OverloadPolicy.DEFER);
+        FakeSystemMidiBackend devices = new FakeSystemMidiBackend();
+        SysToJackQueue queues[] = new SysToJackQueue[PORTS];
+        FakeMidiPortBuffer outBuffers[] = new FakeMidiPortBuffer[PORTS];
+        ArrayList<SysToJackQueue> toJack = new ArrayList<>();
+        ArrayList<JackToSys> fromJack = new ArrayList<>();
+        ShortMessage messages[] = new ShortMessage[] {
+            new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100),
+            new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 1, 64),
+            new ShortMessage(ShortMessage.PITCH_BEND, 0, 0, 64),
+            new ShortMessage(ShortMessage.NOTE_OFF, 0, 60, 0)
+        };
+        for(int i = 0; i < PORTS; i ++) {
+            DeviceClock clock = new DeviceClock("test " + i, () -> -1, null);
+            clock.configure(SAMPLE_RATE, 0.1, 0.05);
+            clock.update(0, 0, SAMPLE_RATE);
+            devices.addDevice("test " + i);
+            SystemMidiInterface midi = devices.createInterface();
+            midi.openMIDIOutputPort("test " + i);
+            outBuffers[i] = new FakeMidiPortBuffer(BUFFER_SIZE, EVENTS_PER_CYCLE);
+            queues[i] = new SysToJackQueue(midi, outBuffers[i], clock, BUFFER_SIZE,
+                SysToJackQueue.DEFAULT_SYSEX_BUFFER_SIZE);
+            toJack.add(queues[i]);
+            // Jack input buffers are only read so they are loaded once
+            FakeMidiPortBuffer inBuffer = new FakeMidiPortBuffer(BUFFER_SIZE, EVENTS_PER_CYCLE);
+            for(int j = 0; j < EVENTS_PER_CYCLE; j ++) {
+                inBuffer.addEvent(j * BUFFER_SIZE / EVENTS_PER_CYCLE, messages[j].getMessage(),
+                    messages[j].getLength());
+            }
+            fromJack.add(new JackToSys(midi, inBuffer, clock, BUFFER_SIZE,
+                SysToJackQueue.DEFAULT_SYSEX_BUFFER_SIZE, false, 0, 0,
+                RateShaper.DEFAULT_BACKLOG, OverloadPolicy.DEFER));
+        }
+        routing.publish(toJack, fromJack);
+        
+        // warm up, filling the queues as we go
+        long frameCount = 0;
+        for(int i = 0; i < WARMUP_CYCLES; i ++) {
+            fill(queues, messages, frameCount, 1);
+            loop.process(frameCount, BUFFER_SIZE);
+            frameCount += BUFFER_SIZE;
+        }
+        
+        // queue up every event for the measured cycles first
+        fill(queues, messages, frameCount, CYCLES);
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for(int i = 0; i < CYCLES; i ++) {
+            loop.process(frameCount, BUFFER_SIZE);
+            frameCount += BUFFER_SIZE;
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        
+        for(int i = 0; i < PORTS; i ++) {
+            assertEquals("dropped events on port " + i, 0, queues[i].getDroppedEvents());
+            assertTrue("no events routed on port " + i, outBuffers[i].getWrittenEvents() > 0);
+        }
+        assertEquals("bytes allocated in " + CYCLES + " cycles", 0, allocated);
+    }
+    
+    /**
+     * Queues events for a number of cycles, spread over each cycle.
+     */
+    private void fill(SysToJackQueue queues[], ShortMessage messages[], long frameCount,
+            int cycles) {
+        for(int i = 0; i < queues.length; i ++) {
+            for(int j = 0; j < cycles * EVENTS_PER_CYCLE; j ++) {
+                queues[i].addMessage(messages[j % messages.length],
+                    frameCount + (long)j * BUFFER_SIZE / EVENTS_PER_CYCLE);
+            }
+        }
+    }
+}
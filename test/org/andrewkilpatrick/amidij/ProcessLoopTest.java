@@ -0,0 +1,53 @@
+/*
+ * Process Loop Test
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.andrewkilpatrick.amidij.jack.FakeMidiPortBuffer;
+import org.andrewkilpatrick.amidij.jack.MidiPortBuffer;
+import org.junit.Test;
+
+/**
+ * Checks the parts of a process cycle that do not need a route.
+ */
+public class ProcessLoopTest {
+    static final int BUFFER_SIZE = 256;  // frames
+    
+    @Test
+    public void clearsIdleJackPorts() throws Exception {
+        FakeMidiPortBuffer held = new FakeMidiPortBuffer(BUFFER_SIZE, 64);
+        int empty = held.getMaxEventSize();
+        // what the port was given before its route was dropped
+        held.writeEvent(0, new byte[] { (byte)0x90, 60, 100 }, 3);
+        RoutingTable routing = new RoutingTable();
+        routing.publish(new ArrayList<SysToJackQueue>(), new ArrayList<JackToSys>(),
+            Arrays.<MidiPortBuffer>asList(held));
+        ProcessLoop loop = new ProcessLoop(routing, new ProcessStats(), 0, 0, OverloadPolicy.DEFER);
+        loop.process(0, BUFFER_SIZE);
+        assertEquals(empty, held.getMaxEventSize());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Simulation Soak Test
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.andrewkilpatrick.amidij.alsaMidi.FakeSystemMidiBackend;
+import org.andrewkilpatrick.amidij.alsaMidi.MidiDeviceManager;
+import org.andrewkilpatrick.amidij.jack.FakeJackServer;
+import org.andrewkilpatrick.amidij.jack.JackPortName;
+import org.junit.Test;
+
+/**
+ * Runs AMidiJ on the simulated backends, re-patches the Jack links and
+ * unplugs devices for a number of cycles, and checks that the open
+ * devices, threads and heap go back to where they were.
+ */
+public class SimulationSoakTest {
+    static final int DEVICES = 4;
+    static final int CYCLES = 400;
+    static final int FLAP_EVERY = 100;  // cycles between unplugging a device
+    static final long CHURN_MILLIS = 5;
+    static final long FLAP_MILLIS = 1000;  // long enough for a scan to see it
+    static final long SETTLE_MILLIS = 20000;  // longest wait for the ports to come back
+    static final int THREAD_SLACK = 4;
+    static final long HEAP_SLACK = 32 * 1024 * 1024;
+    
+    @Test(timeout = 120000)
+    public void churnReturnsToBaseline() throws Exception {
+        AMidiJ app = new AMidiJ(new String[] { "--simulate=" + DEVICES, "--simulaterate=200",
+            "--linger=0" });
+        Thread loop = new Thread(app::run, "soak main loop");
+        loop.setDaemon(true);
+        loop.start();
+        try {
+            FakeJackServer jack = (FakeJackServer)app.jackClient;
+            FakeSystemMidiBackend midi = (FakeSystemMidiBackend)app.sysMidi;
+            MidiDeviceManager devices = midi.getDeviceManager();
+            
+            // every device is open in both directions
+            awaitInterfaces(devices, DEVICES * 2);
+            int baseInterfaces = devices.getOpenInterfaceCount();
+            assertEquals(DEVICES * 2, baseInterfaces);
+            int baseDevices = devices.getOpenDeviceCount();
+            int baseThreads = Thread.activeCount();
+            long baseHeap = getUsedHeap();
+            
+            for(int i = 0; i < CYCLES; i ++) {
+                String aliasName = "Fake MIDI " + ((i / 2) % DEVICES + 1);
+                if(i % FLAP_EVERY == FLAP_EVERY - 1) {
+                    midi.removeDevice(aliasName);
+                    Thread.sleep(FLAP_MILLIS);
+                    midi.addDevice(aliasName);
+                    continue;
+                }
+                SystemPort port = (i & 1) == 0 ? app.outPorts.getByAliasName(aliasName) :
+                    app.inPorts.getByAliasName(aliasName);
+                String portName = port.getJackPortName();
+                String peers[] = jack.getConnectedPorts(portName);
+                if(peers.length > 0) {
+                    String parts[] = peers[0].split(":", 2);
+                    JackPortName peer = new JackPortName(parts[0], parts[1]);
+                    jack.disconnect(portName, peer);
+                    Thread.sleep(CHURN_MILLIS);
+                    jack.connect(portName, peer);
+                }
+                Thread.sleep(CHURN_MILLIS);
+            }
+            
+            awaitInterfaces(devices, baseInterfaces);
+            assertEquals(baseInterfaces, devices.getOpenInterfaceCount());
+            assertEquals(baseDevices, devices.getOpenDeviceCount());
+            awaitThreads(baseThreads + THREAD_SLACK);
+            int threads = Thread.activeCount();
+            assertTrue("threads: " + threads + " - baseline: " + baseThreads,
+                threads <= baseThreads + THREAD_SLACK);
+            long heap = getUsedHeap();
+            assertTrue("heap used: " + heap + " - baseline: " + baseHeap,
+                heap <= baseHeap + HEAP_SLACK);
+            
+            // a second bridge can start in the same JVM
+            app.shutdown();
+            assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                new ObjectName(MetricsRegistry.DOMAIN + ":type=Bridge")));
+        } finally {
+            app.shutdown();
+        }
+    }
+    
+    /**
+     * Waits for the number of open interfaces to settle at a count. Ports
+     * are opened and closed off the control threads so this polls.
+     */
+    private static void awaitInterfaces(MidiDeviceManager devices, int count)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SETTLE_MILLIS;
+        while(devices.getOpenInterfaceCount() != count &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // let anything still closing finish
+        Thread.sleep(500);
+    }
+    
+    /**
+     * Waits for idle device worker threads to go away, for up to the
+     * settle time.
+     */
+    private static void awaitThreads(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SETTLE_MILLIS;
+        while(Thread.activeCount() > count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+    
+    private static long getUsedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for(int i = 0; i < 3; i ++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
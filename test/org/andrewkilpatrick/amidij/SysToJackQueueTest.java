@@ -0,0 +1,128 @@
+/*
+ * System To Jack Queue Test
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import javax.sound.midi.ShortMessage;
+
+import org.andrewkilpatrick.amidij.alsaMidi.FakeSystemMidiBackend;
+import org.andrewkilpatrick.amidij.alsaMidi.SystemMidiInterface;
+import org.andrewkilpatrick.amidij.jack.FakeMidiPortBuffer;
+import org.andrewkilpatrick.amidij.util.LogHistogram;
+import org.junit.Test;
+
+/**
+ * Checks that the overload policy is applied when the Jack buffer fills
+ * up, even without a port budget.
+ */
+public class SysToJackQueueTest {
+    static final int BUFFER_SIZE = 256;  // frames
+    static final int SAMPLE_RATE = 48000;
+    static final int EVENTS = 200;  // more than the Jack buffer holds
+    static final int JACK_BUFFER_EVENTS = 85;  // short events in a 256 frame buffer
+    
+    FakeMidiPortBuffer jackPort;
+    LogHistogram residency = new LogHistogram();
+    
+    @Test
+    public void dropOldestWhenJackBufferIsFull() throws Exception {
+        SysToJackQueue queue = createQueue();
+        fill(queue, false);
+        int events = queue.processCycle(0, BUFFER_SIZE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+            OverloadPolicy.DROP_OLDEST, residency);
+        assertEquals(JACK_BUFFER_EVENTS, events);
+        assertEquals(EVENTS - JACK_BUFFER_EVENTS, queue.getShedEvents());
+        assertEquals(0, drain(queue, OverloadPolicy.DROP_OLDEST));
+    }
+    
+    @Test
+    public void dropByPriorityWhenJackBufferIsFull() throws Exception {
+        SysToJackQueue queue = createQueue();
+        fill(queue, true);
+        int events = drain(queue, OverloadPolicy.DROP_BY_PRIORITY);
+        assertTrue(queue.getShedEvents() > 0);
+        assertEquals(EVENTS, events + queue.getShedEvents());
+    }
+    
+    @Test
+    public void deferWhenJackBufferIsFull() throws Exception {
+        SysToJackQueue queue = createQueue();
+        fill(queue, true);
+        int events = queue.processCycle(0, BUFFER_SIZE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+            OverloadPolicy.DEFER, residency);
+        assertEquals(JACK_BUFFER_EVENTS, events);
+        assertEquals(0, queue.getShedEvents());
+        assertEquals(EVENTS - JACK_BUFFER_EVENTS, drain(queue, OverloadPolicy.DEFER));
+    }
+    
+    @Test
+    public void cycleBudgetDefers() throws Exception {
+        SysToJackQueue queue = createQueue();
+        fill(queue, false);
+        int events = queue.processCycle(0, BUFFER_SIZE, 10, Integer.MAX_VALUE,
+            OverloadPolicy.DROP_OLDEST, residency);
+        assertEquals(10, events);
+        // only what the port could not write on its own is shed
+        assertEquals(EVENTS - JACK_BUFFER_EVENTS, queue.getShedEvents());
+        assertEquals(JACK_BUFFER_EVENTS - 10, drain(queue, OverloadPolicy.DROP_OLDEST));
+    }
+    
+    // creates a queue writing to a Jack buffer of BUFFER_SIZE frames
+    SysToJackQueue createQueue() throws Exception {
+        DeviceClock clock = new DeviceClock("test", () -> -1, null);
+        clock.configure(SAMPLE_RATE, 0.1, 0.05);
+        clock.update(0, 0, SAMPLE_RATE);
+        FakeSystemMidiBackend devices = new FakeSystemMidiBackend();
+        devices.addDevice("test");
+        SystemMidiInterface midi = devices.createInterface();
+        midi.openMIDIOutputPort("test");
+        jackPort = new FakeMidiPortBuffer(BUFFER_SIZE, 1);
+        return new SysToJackQueue(midi, jackPort, clock, BUFFER_SIZE,
+            SysToJackQueue.DEFAULT_SYSEX_BUFFER_SIZE);
+    }
+    
+    // queues EVENTS messages - every other one sheddable if mixed
+    void fill(SysToJackQueue queue, boolean mixed) throws Exception {
+        ShortMessage note = new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100);
+        ShortMessage pressure = new ShortMessage(ShortMessage.CHANNEL_PRESSURE, 0, 64, 0);
+        for(int i = 0; i < EVENTS; i ++) {
+            queue.addMessage(mixed && (i & 1) == 1 ? pressure : note, 0);
+        }
+    }
+    
+    // runs cycles until the queue is empty and returns the events written
+    int drain(SysToJackQueue queue, OverloadPolicy policy) {
+        int total = 0;
+        int events;
+        long frameCount = 0;
+        do {
+            events = queue.processCycle(frameCount, BUFFER_SIZE, Integer.MAX_VALUE,
+                Integer.MAX_VALUE, policy, residency);
+            total += events;
+            frameCount += BUFFER_SIZE;
+        } while(events > 0);
+        return total;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Proc Asound MIDI Backend Test
+ * 
+ * Copyright 2020: Andrew Kilpatrick
+ * Written by: Andrew Kilpatrick
+ * 
+ * This file is part of AMidiJ.
+ * 
+ * AMidiJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * AMidiJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with AMidiJ.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ */
+package org.andrewkilpatrick.amidij.alsaMidi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reads a copy of a small /proc/asound tree and checks the device names
+ * and the changes seen when a card is removed and another one is added.
+ */
+public class ProcAsoundMidiBackendTest {
+    static final String FIXTURE = "test/fixtures/proc-asound";
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+    
+    @Test
+    public void listsRawmidiSubstreams() throws Exception {
+        ProcAsoundMidiBackend backend = new ProcAsoundMidiBackend(copyFixture().toString());
+        DeviceScan scan = backend.scan();
+        assertEquals(Arrays.asList("Uno [hw:1,0,0]", "mio [hw:2,0,0]", "mio [hw:2,0,1]"),
+            scan.getInputs());
+        assertEquals(Arrays.asList("Uno [hw:1,0,0]", "mio [hw:2,0,0]", "mio [hw:2,0,1]"),
+            scan.getOutputs());
+        assertEquals(scan.getInputs(), scan.getAddedInputs());
+        assertEquals(scan.getOutputs(), scan.getAddedOutputs());
+        // nothing changed since
+        assertFalse(backend.scan().isChanged());
+    }
+    
+    @Test
+    public void findsAddedAndRemovedCards() throws Exception {
+        Path dir = copyFixture();
+        ProcAsoundMidiBackend backend = new ProcAsoundMidiBackend(dir.toString());
+        backend.scan();
+        // unplug the Uno and plug in an input only keyboard as card 3
+        Files.write(dir.resolve("cards"), Arrays.asList(
+            " 0 [PCH            ]: HDA-Intel - HDA Intel PCH",
+            "                      HDA Intel PCH at 0xf7f10000 irq 32",
+            " 2 [mio            ]: USB-Audio - mio",
+            "                      iConnectivity mio at usb-0000:00:14.0-3, full speed",
+            " 3 [Keystation     ]: USB-Audio - Keystation 49",
+            "                      M-Audio Keystation 49 at usb-0000:00:14.0-2, full speed"));
+        delete(dir.resolve("card1"));
+        Files.createDirectory(dir.resolve("card3"));
+        Files.write(dir.resolve("card3/midi0"), Arrays.asList(
+            "Keystation 49",
+            "",
+            "Input 0",
+            "  Rx bytes     : 0"));
+        DeviceScan scan = backend.scan();
+        assertTrue(scan.isChanged());
+        assertEquals(Arrays.asList("mio [hw:2,0,0]", "mio [hw:2,0,1]", "Keystation [hw:3,0,0]"),
+            scan.getInputs());
+        assertEquals(Arrays.asList("mio [hw:2,0,0]", "mio [hw:2,0,1]"), scan.getOutputs());
+        assertEquals(Arrays.asList("Keystation [hw:3,0,0]"), scan.getAddedInputs());
+        assertEquals(Arrays.asList("Uno [hw:1,0,0]"), scan.getRemovedInputs());
+        assertEquals(Collections.emptyList(), scan.getAddedOutputs());
+        assertEquals(Arrays.asList("Uno [hw:1,0,0]"), scan.getRemovedOutputs());
+    }
+    
+    private Path copyFixture() throws IOException {
+        Path src = new File(FIXTURE).toPath();
+        Path dest = temp.newFolder("asound").toPath();
+        try(Stream<Path> paths = Files.walk(src)) {
+            for(Path path : (Iterable<Path>)paths::iterator) {
+                Path target = dest.resolve(src.relativize(path).toString());
+                if(Files.isDirectory(path)) {
+                    Files.createDirectories(target);
+                }
+                else {
+                    Files.copy(path, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+        return dest;
+    }
+    
+    private static void delete(Path dir) throws IOException {
+        try(Stream<Path> paths = Files.walk(dir)) {
+            for(Path path : (Iterable<Path>)paths.sorted(Collections.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}